@@ -11,10 +11,12 @@ import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -88,6 +90,8 @@ import com.googlecode.n_orm.hbase.actions.DeleteAction;
 import com.googlecode.n_orm.hbase.actions.ExistsAction;
 import com.googlecode.n_orm.hbase.actions.GetAction;
 import com.googlecode.n_orm.hbase.actions.IncrementAction;
+import com.googlecode.n_orm.hbase.actions.MultiGetAction;
+import com.googlecode.n_orm.hbase.actions.MultiPutAction;
 import com.googlecode.n_orm.hbase.actions.ScanAction;
 import com.googlecode.n_orm.hbase.actions.TruncateAction;
 import com.googlecode.n_orm.hbase.mapreduce.ActionJob;
@@ -101,6 +105,7 @@ import com.googlecode.n_orm.storeapi.DefaultColumnFamilyData;
 import com.googlecode.n_orm.storeapi.GenericStore;
 import com.googlecode.n_orm.storeapi.MetaInformation;
 import com.googlecode.n_orm.storeapi.Row.ColumnFamilyData;
+import com.googlecode.n_orm.storeapi.RowChanges;
 
 /**
  * The HBase store found according to its configuration folder.
@@ -128,6 +133,8 @@ import com.googlecode.n_orm.storeapi.Row.ColumnFamilyData;
 public class Store implements com.googlecode.n_orm.storeapi.Store, ActionnableStore, GenericStore {
 	private static final String CONF_MAXRETRIES_KEY = "hbase.client.retries.number";
 
+	private static final String CONF_WRITE_BUFFER_KEY = "hbase.client.write.buffer";
+
 	private static final String CONF_PORT_KEY = "hbase.zookeeper.property.clientPort";
 
 	private static final String CONF_HOST_KEY = HConstants.ZOOKEEPER_QUORUM;
@@ -307,6 +314,10 @@ public class Store implements com.googlecode.n_orm.storeapi.Store, ActionnableSt
 	
 	private Integer scanCaching = null;
 	
+	private int batchSize = 1000;
+	
+	private Long writeBufferSize = null;
+	
 	private Boolean deferredLogFlush = null;
 	private boolean forceDeferredLogFlush = false;
 	
@@ -390,6 +401,9 @@ public class Store implements com.googlecode.n_orm.storeapi.Store, ActionnableSt
 		if (this.clientTimeout != null)
 			this.config.set(HConstants.HBASE_RPC_TIMEOUT_KEY, this.clientTimeout.toString());
 
+		if (this.writeBufferSize != null)
+			this.config.setLong(CONF_WRITE_BUFFER_KEY, this.writeBufferSize);
+
 		if (this.admin == null)
 			try {
 				logger.fine("Connecting HBase admin for store " + this.hashCode());
@@ -538,6 +552,41 @@ public class Store implements com.googlecode.n_orm.storeapi.Store, ActionnableSt
 		this.scanCaching = scanCaching;
 	}
 
+	/**
+	 * The maximum number of rows sent at once when {@link #storeChanges(List) storing a set of rows}.
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * The maximum number of rows sent at once when {@link #storeChanges(List) storing a set of rows}.
+	 * Default value is 1000.
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("Batch size must be positive ; got " + batchSize);
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * The size in bytes of the client-side write buffer used for puts when {@link #storeChanges(List) storing a set of rows}.
+	 * @return the expected value, or null if not set (equivalent to the HBase default value - 2MB)
+	 */
+	public Long getWriteBufferSize() {
+		return writeBufferSize;
+	}
+
+	/**
+	 * The size in bytes of the client-side write buffer used for puts when {@link #storeChanges(List) storing a set of rows}.
+	 * Default value is HBase default value (2MB).
+	 * Should be set before the store is started.
+	 * Use this carefully ; read <a href="http://hbase.apache.org/book/perf.writing.html">the HBase documentation</a>.
+	 */
+	public void setWriteBufferSize(Long writeBufferSize) {
+		this.writeBufferSize = writeBufferSize;
+	}
+
 	/**
 	 * Whether {@link HTableDescriptor#setDeferredLogFlush(boolean)} should be set for tables.
 	 * Improves write throughput by making writes log asynchronous on the server while improving risk of data loss in case of server crash.
@@ -1835,7 +1884,44 @@ public class Store implements com.googlecode.n_orm.storeapi.Store, ActionnableSt
 		}
 
 		Result r = this.tryPerform(new GetAction(g), meta == null ? null : meta.getClazz(), table, meta == null ? null : meta.getTablePostfix(), cf);
-		if (r.isEmpty())
+		return this.toColumnFamilyData(r);
+	}
+
+	@Override
+	public Map<String, ColumnFamilyData> get(MetaInformation meta,
+			String tableName, Collection<String> ids, Set<String> families)
+			throws DatabaseNotReachedException {
+		Map<String, ColumnFamilyData> ret = new TreeMap<String, ColumnFamilyData>();
+		MangledTableName table = new MangledTableName(tableName);
+		if (ids.isEmpty() || !this.hasTable(table))
+			return ret;
+		
+		Map<String, Field> cf = toMap(families, meta);
+		
+		List<Get> gets = new ArrayList<Get>(ids.size());
+		for (String id : ids) {
+			Get g = new Get(Bytes.toBytes(id));
+			for (String family : families) {
+				g.addFamily(Bytes.toBytes(family));
+			}
+			gets.add(g);
+		}
+
+		Result[] rs = this.tryPerform(new MultiGetAction(gets), meta == null ? null : meta.getClazz(), table, meta == null ? null : meta.getTablePostfix(), cf);
+		for (Result r : rs) {
+			ColumnFamilyData data = this.toColumnFamilyData(r);
+			if (data != null)
+				ret.put(Bytes.toString(r.getRow()), data);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Transforms an HBase result into column family data.
+	 * @return null in case the result is empty (or null)
+	 */
+	private ColumnFamilyData toColumnFamilyData(Result r) {
+		if (r == null || r.isEmpty())
 			return null;
 		
 		ColumnFamilyData ret = new DefaultColumnFamilyData();
@@ -1900,13 +1986,21 @@ public class Store implements com.googlecode.n_orm.storeapi.Store, ActionnableSt
 		npu.set(System.currentTimeMillis()+1);
 	}
 
-	@Override
-	public void storeChanges(MetaInformation meta, String tableName, String id,
-			ColumnFamilyData changed,
+	/**
+	 * Put, delete and increment to be sent for changes in a row.
+	 */
+	private static class RowUpdate {
+		private Put put = null;
+		private Delete delete = null;
+		private Increment increment = null;
+	}
+	
+	/**
+	 * Grabs all families involved in changes.
+	 */
+	private Set<String> getInvolvedFamilies(ColumnFamilyData changed,
 			Map<String, Set<String>> removed,
-			Map<String, Map<String, Number>> increments)
-			throws DatabaseNotReachedException {
-		//Grabbing all involved families
+			Map<String, Map<String, Number>> increments) {
 		Set<String> families = new HashSet<String>();
 		if (changed !=null) families.addAll(changed.keySet());
 		if (removed != null) families.addAll(removed.keySet());
@@ -1916,128 +2010,150 @@ public class Store implements com.googlecode.n_orm.storeapi.Store, ActionnableSt
 		//Storing (see later) an empty value with an empty qualifier within the properties family
 		//Thus the properties family is always involved
 		families.add(PropertyManagement.PROPERTY_COLUMNFAMILY_NAME);
-		Map<String, Field> fams = this.toMap(families, meta);
-
-		MangledTableName table = new MangledTableName(tableName);
-		HTableInterface t = this.getTable(meta == null ? null : meta.getClazz(), table, meta == null ? null : meta.getTablePostfix(), fams);
-
-		try {
-			byte[] row = Bytes.toBytes(id);
-			
-			List<org.apache.hadoop.hbase.client.Row> actions = new ArrayList<org.apache.hadoop.hbase.client.Row>(2); //At most one put and one delete
-			
-			this.waitForNewUpdate(meta, table, id);
+		return families;
+	}
 	
-			//Transforming changes into a big Put (if necessary)
-			//and registering it as an action to be performed
-			Put rowPut = null;
-			if (changed != null && !changed.isEmpty()) {
-				rowPut = new Put(row);
-				for (Entry<String, Map<String, byte[]>> family : changed.entrySet()) {
-					byte[] cf = Bytes.toBytes(family.getKey());
-					for (Entry<String, byte[]> col : family.getValue().entrySet()) {
-						rowPut.add(cf, Bytes.toBytes(col.getKey()), col.getValue());
-					}
+	/**
+	 * Transforms changes for a row into HBase operations.
+	 */
+	private RowUpdate getRowUpdate(MetaInformation meta, String id,
+			ColumnFamilyData changed,
+			Map<String, Set<String>> removed,
+			Map<String, Map<String, Number>> increments,
+			Map<String, Field> fams) {
+		byte[] row = Bytes.toBytes(id);
+		RowUpdate ret = new RowUpdate();
+
+		//Transforming changes into a big Put (if necessary)
+		Put rowPut = null;
+		if (changed != null && !changed.isEmpty()) {
+			rowPut = new Put(row);
+			for (Entry<String, Map<String, byte[]>> family : changed.entrySet()) {
+				byte[] cf = Bytes.toBytes(family.getKey());
+				for (Entry<String, byte[]> col : family.getValue().entrySet()) {
+					rowPut.add(cf, Bytes.toBytes(col.getKey()), col.getValue());
 				}
-				if (rowPut.getFamilyMap().isEmpty())
-					rowPut = null;
-				else
-					actions.add(rowPut);
 			}
+			if (rowPut.getFamilyMap().isEmpty())
+				rowPut = null;
+		}
 
-			//Transforming deletes into a big Delete (if necessary)
-			//and registering it as an action to be performed
-			Delete rowDel = null;
-			if (removed != null && !removed.isEmpty()) {
-				rowDel = new Delete(row);
-				for (Entry<String, Set<String>> family : removed.entrySet()) {
-					byte[] cf = Bytes.toBytes(family.getKey());
-					for (String key : family.getValue()) {
-						rowDel.deleteColumns(cf, Bytes.toBytes(key));
-					}
-	
+		//Transforming deletes into a big Delete (if necessary)
+		Delete rowDel = null;
+		if (removed != null && !removed.isEmpty()) {
+			rowDel = new Delete(row);
+			for (Entry<String, Set<String>> family : removed.entrySet()) {
+				byte[] cf = Bytes.toBytes(family.getKey());
+				for (String key : family.getValue()) {
+					rowDel.deleteColumns(cf, Bytes.toBytes(key));
 				}
-				if (rowDel.getFamilyMap().isEmpty())
-					rowDel = null;
-				else
-					actions.add(rowDel);
+
 			}
+			if (rowDel.getFamilyMap().isEmpty())
+				rowDel = null;
+		}
 
-			//Transforming changes into a big Put (if necessary)
-			//but can't register it as an action to be performed (according to HBase API)
-			Increment rowInc = null;
-			if (increments != null && !increments.isEmpty()) {
-				rowInc = new Increment(row);
-				for (Entry<String, Map<String, Number>> incrs : increments.entrySet()) {
-					byte[] cf = Bytes.toBytes(incrs.getKey());
-					for (Entry<String, Number> inc : incrs.getValue().entrySet()) {
-						rowInc.addColumn(cf, Bytes.toBytes(inc.getKey()), inc.getValue().longValue());
-					}
+		//Transforming changes into a big Increment (if necessary)
+		//but can't be batched with puts and deletes (according to HBase API)
+		Increment rowInc = null;
+		if (increments != null && !increments.isEmpty()) {
+			rowInc = new Increment(row);
+			for (Entry<String, Map<String, Number>> incrs : increments.entrySet()) {
+				byte[] cf = Bytes.toBytes(incrs.getKey());
+				for (Entry<String, Number> inc : incrs.getValue().entrySet()) {
+					rowInc.addColumn(cf, Bytes.toBytes(inc.getKey()), inc.getValue().longValue());
 				}
-				if (rowInc.getFamilyMap().isEmpty())
-					rowInc = null;
-				//Can't add that to actions :(
-			}
-	
-			//An empty object is to be stored...
-			//Adding a dummy value into properties family
-			if (rowPut == null && rowInc == null) { //NOT rowDel == null; deleting an element that becomes empty actually deletes the element !
-				rowPut = new Put(row);
-				rowPut.add(Bytes.toBytes(PropertyManagement.PROPERTY_COLUMNFAMILY_NAME), null, new byte[]{});
-				actions.add(rowPut);
 			}
-			
-			// Checking for WAL policy
-			if (rowPut != null) { // Only Puts can override WAL policy in 0.90
-				HBaseSchema.WALWritePolicy useWal = null;
-				HBaseSchema clazzAnnotation = meta == null || meta.getClazz() == null ? null : meta.getClazz().getAnnotation(HBaseSchema.class);
-				HBaseSchema.WALWritePolicy clazzWAL = clazzAnnotation == null ? HBaseSchema.WALWritePolicy.UNSET : clazzAnnotation.writeToWAL();
-				for(byte[] famB : rowPut.getFamilyMap().keySet()) {
-					String famS = Bytes.toString(famB);
-					HBaseSchema.WALWritePolicy wtw;
-					if (PropertyManagement.PROPERTY_COLUMNFAMILY_NAME.equals(famS)) {
-						// Properties use schema for classes
+			if (rowInc.getFamilyMap().isEmpty())
+				rowInc = null;
+		}
+
+		//An empty object is to be stored...
+		//Adding a dummy value into properties family
+		if (rowPut == null && rowInc == null) { //NOT rowDel == null; deleting an element that becomes empty actually deletes the element !
+			rowPut = new Put(row);
+			rowPut.add(Bytes.toBytes(PropertyManagement.PROPERTY_COLUMNFAMILY_NAME), null, new byte[]{});
+		}
+		
+		// Checking for WAL policy
+		if (rowPut != null) { // Only Puts can override WAL policy in 0.90
+			HBaseSchema.WALWritePolicy useWal = null;
+			HBaseSchema clazzAnnotation = meta == null || meta.getClazz() == null ? null : meta.getClazz().getAnnotation(HBaseSchema.class);
+			HBaseSchema.WALWritePolicy clazzWAL = clazzAnnotation == null ? HBaseSchema.WALWritePolicy.UNSET : clazzAnnotation.writeToWAL();
+			for(byte[] famB : rowPut.getFamilyMap().keySet()) {
+				String famS = Bytes.toString(famB);
+				HBaseSchema.WALWritePolicy wtw;
+				if (PropertyManagement.PROPERTY_COLUMNFAMILY_NAME.equals(famS)) {
+					// Properties use schema for classes
+					wtw = clazzWAL;
+				} else {
+					HBaseSchema schema;
+					Field fam = fams.get(famS);
+					if (fam != null) {
+						schema = fam.getAnnotation(HBaseSchema.class);
+					} else {
+						schema = null;
+					}
+					// No explicit schema mean schema for class
+					if (schema == null) {
 						wtw = clazzWAL;
 					} else {
-						HBaseSchema schema;
-						Field fam = fams.get(famS);
-						if (fam != null) {
-							schema = fam.getAnnotation(HBaseSchema.class);
-						} else {
-							schema = null;
-						}
-						// No explicit schema mean schema for class
-						if (schema == null) {
+						wtw = schema.writeToWAL();
+						if (HBaseSchema.WALWritePolicy.UNSET.equals(wtw)) {
 							wtw = clazzWAL;
-						} else {
-							wtw = schema.writeToWAL();
-							if (HBaseSchema.WALWritePolicy.UNSET.equals(wtw)) {
-								wtw = clazzWAL;
-							}
 						}
 					}
-					// Grabbing strongest policy for the store
-					if (useWal == null || wtw.strongerThan(useWal)) {
-						useWal = wtw;
-					}
 				}
-				
-				if (useWal == null) {
-					useWal = HBaseSchema.WALWritePolicy.UNSET;
-				}
-				
-				switch(useWal) {
-				case UNSET:
-					break;
-				case SKIP:
-					rowPut.setWriteToWAL(false);
-					break;
-				default:
-					rowPut.setWriteToWAL(true);
-					break;
+				// Grabbing strongest policy for the store
+				if (useWal == null || wtw.strongerThan(useWal)) {
+					useWal = wtw;
 				}
 			}
 			
+			if (useWal == null) {
+				useWal = HBaseSchema.WALWritePolicy.UNSET;
+			}
+			
+			switch(useWal) {
+			case UNSET:
+				break;
+			case SKIP:
+				rowPut.setWriteToWAL(false);
+				break;
+			default:
+				rowPut.setWriteToWAL(true);
+				break;
+			}
+		}
+		
+		ret.put = rowPut;
+		ret.delete = rowDel;
+		ret.increment = rowInc;
+		return ret;
+	}
+
+	@Override
+	public void storeChanges(MetaInformation meta, String tableName, String id,
+			ColumnFamilyData changed,
+			Map<String, Set<String>> removed,
+			Map<String, Map<String, Number>> increments)
+			throws DatabaseNotReachedException {
+		Map<String, Field> fams = this.toMap(this.getInvolvedFamilies(changed, removed, increments), meta);
+
+		MangledTableName table = new MangledTableName(tableName);
+		HTableInterface t = this.getTable(meta == null ? null : meta.getClazz(), table, meta == null ? null : meta.getTablePostfix(), fams);
+
+		try {
+			this.waitForNewUpdate(meta, table, id);
+			
+			RowUpdate update = this.getRowUpdate(meta, id, changed, removed, increments, fams);
+			
+			List<org.apache.hadoop.hbase.client.Row> actions = new ArrayList<org.apache.hadoop.hbase.client.Row>(2); //At most one put and one delete
+			if (update.put != null)
+				actions.add(update.put);
+			if (update.delete != null)
+				actions.add(update.delete);
+			
 			Action<?> act;
 			//Running puts and deletes
 			if (! actions.isEmpty()) {
@@ -2046,8 +2162,8 @@ public class Store implements com.googlecode.n_orm.storeapi.Store, ActionnableSt
 				t = act.getTable();
 			}
 			//Running increments
-			if (rowInc != null) {
-				act = new IncrementAction(rowInc);
+			if (update.increment != null) {
+				act = new IncrementAction(update.increment);
 				this.tryPerform(act, t, meta == null ? null : meta.getClazz(), meta == null ? null : meta.getTablePostfix(), fams);
 				t = act.getTable();
 			}
@@ -2063,6 +2179,115 @@ public class Store implements com.googlecode.n_orm.storeapi.Store, ActionnableSt
 		}
 	}
 
+	/**
+	 * Stores changes table by table.
+	 * Puts are sent using the client-side write buffer (see {@link #setWriteBufferSize(Long)})
+	 * and deletes are sent as batches, both by chunks of {@link #getBatchSize()} rows.
+	 * Increments are sent one by one as HBase cannot batch them.
+	 */
+	@Override
+	public void storeChanges(List<RowChanges> changes)
+			throws DatabaseNotReachedException {
+		// Grouping changes by table, keeping order of changes
+		Map<String, List<RowChanges>> changesByTable = new LinkedHashMap<String, List<RowChanges>>();
+		for (RowChanges change : changes) {
+			List<RowChanges> tableChanges = changesByTable.get(change.getTable());
+			if (tableChanges == null) {
+				tableChanges = new ArrayList<RowChanges>();
+				changesByTable.put(change.getTable(), tableChanges);
+			}
+			tableChanges.add(change);
+		}
+		
+		for (Entry<String, List<RowChanges>> tableChanges : changesByTable.entrySet()) {
+			this.storeChanges(new MangledTableName(tableChanges.getKey()), tableChanges.getValue());
+		}
+	}
+	
+	private void storeChanges(MangledTableName table, List<RowChanges> changes) throws DatabaseNotReachedException {
+		// Rows in a table should all be of the same class (or subclasses of the class for the table)
+		MetaInformation meta = null;
+		Map<String, Field> fams = new HashMap<String, Field>();
+		for (RowChanges change : changes) {
+			if (meta == null && change.getMeta() != null)
+				meta = change.getMeta();
+			fams.putAll(this.toMap(this.getInvolvedFamilies(change.getChanged(), change.getRemoved(), change.getIncrements()), change.getMeta()));
+		}
+		Class<? extends PersistingElement> clazz = meta == null ? null : meta.getClazz();
+		String tablePostfix = meta == null ? null : meta.getTablePostfix();
+		
+		HTableInterface t = this.getTable(clazz, table, tablePostfix, fams);
+		try {
+			int batchSize = this.getBatchSize();
+			List<Put> puts = new ArrayList<Put>(Math.min(batchSize, changes.size()));
+			List<org.apache.hadoop.hbase.client.Row> deletes = new ArrayList<org.apache.hadoop.hbase.client.Row>();
+			List<Increment> incrs = new LinkedList<Increment>();
+			List<RowChanges> sent = new ArrayList<RowChanges>(Math.min(batchSize, changes.size()));
+			// Rows updated in this batch
+			Set<String> sentIds = new HashSet<String>();
+			Iterator<RowChanges> it = changes.iterator();
+			while (it.hasNext()) {
+				RowChanges change = it.next();
+				RowUpdate update = this.getRowUpdate(change.getMeta(), change.getId(), change.getChanged(), change.getRemoved(), change.getIncrements(), fams);
+				// A row that was already updated in this batch must wait
+				// for the previous update to be sent
+				if (sent.size() >= batchSize || sentIds.contains(change.getId())) {
+					t = this.sendUpdates(t, table, clazz, tablePostfix, fams, puts, deletes, incrs, sent, sentIds);
+				}
+				this.waitForNewUpdate(change.getMeta(), table, change.getId());
+				if (update.put != null)
+					puts.add(update.put);
+				if (update.delete != null)
+					deletes.add(update.delete);
+				if (update.increment != null)
+					incrs.add(update.increment);
+				sent.add(change);
+				sentIds.add(change.getId());
+			}
+			t = this.sendUpdates(t, table, clazz, tablePostfix, fams, puts, deletes, incrs, sent, sentIds);
+		} finally {
+			if (t != null)
+				try {
+					this.returnTable(t);
+				} catch (IOException e) {
+					throw new DatabaseNotReachedException(e);
+				}
+		}
+	}
+	
+	/**
+	 * Sends and clears given updates.
+	 * @return the table to be used for next actions
+	 */
+	private HTableInterface sendUpdates(HTableInterface t, MangledTableName table, Class<? extends PersistingElement> clazz, String tablePostfix, Map<String, Field> fams,
+			List<Put> puts, List<org.apache.hadoop.hbase.client.Row> deletes, List<Increment> incrs, List<RowChanges> sent, Set<String> sentIds) throws DatabaseNotReachedException {
+		Action<?> act;
+		if (!puts.isEmpty()) {
+			act = new MultiPutAction(puts);
+			this.tryPerform(act, t, clazz, tablePostfix, fams);
+			t = act.getTable();
+		}
+		if (!deletes.isEmpty()) {
+			act = new BatchAction(deletes);
+			this.tryPerform(act, t, clazz, tablePostfix, fams);
+			t = act.getTable();
+		}
+		for (Increment incr : incrs) {
+			act = new IncrementAction(incr);
+			this.tryPerform(act, t, clazz, tablePostfix, fams);
+			t = act.getTable();
+		}
+		for (RowChanges change : sent) {
+			this.tagUpdate(change.getMeta(), table, change.getId());
+		}
+		puts.clear();
+		deletes.clear();
+		incrs.clear();
+		sent.clear();
+		sentIds.clear();
+		return t;
+	}
+
 	@Override
 	public void delete(MetaInformation meta, String tableName, String id)
 			throws DatabaseNotReachedException {
@@ -0,0 +1,27 @@
+package com.googlecode.n_orm.hbase.actions;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+
+public class MultiGetAction extends Action<Result[]> {
+	
+	private final List<Get> gets;
+
+	public MultiGetAction(List<Get> gets) {
+		super();
+		this.gets = gets;
+	}
+
+	public List<Get> getGets() {
+		return gets;
+	}
+
+	@Override
+	public Result[] perform() throws IOException {
+		return this.getTable().get(this.getGets());
+	}
+	
+}
@@ -0,0 +1,27 @@
+package com.googlecode.n_orm.hbase.actions;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.hbase.client.Put;
+
+public class MultiPutAction extends Action<Void> {
+	
+	private final List<Put> puts;
+
+	public MultiPutAction(List<Put> puts) {
+		super();
+		this.puts = puts;
+	}
+
+	public List<Put> getPuts() {
+		return puts;
+	}
+
+	@Override
+	public Void perform() throws IOException {
+		this.getTable().put(this.getPuts());
+		return null;
+	}
+	
+}
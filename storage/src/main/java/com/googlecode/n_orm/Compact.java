@@ -0,0 +1,27 @@
+package com.googlecode.n_orm;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Stores properties in a compact binary form.
+ * Short, integer and long properties are stored as zig-zag varints, dates as a varint delta from 2000-01-01,
+ * and enumerations as their ordinal.
+ * When placed on a {@link Persisting} class, applies to all properties declared by this class ;
+ * a property may opt out using &#64;Compact(false).
+ * Values stored before the annotation was added can still be read.
+ * Keys and {@link Incrementing} properties are always stored in the default format,
+ * and string representations (used e.g. for keys) are not affected.
+ * Beware that enumerations are stored by ordinal: constants must not be reordered once values are stored.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.FIELD})
+public @interface Compact {
+
+	/**
+	 * Whether compact encoding is enabled.
+	 */
+	boolean value() default true;
+}
@@ -33,4 +33,13 @@ public @interface Key {
 	 * will iterate over elements whose key <code>bar</code> is later or equals than date <code>d</code>. Reverting the key, those elements would be elements earlier or equal than <code>d</code>.
 	 */
 	public boolean reverted() default false;
+	
+	/**
+	 * Whether the key should be written in a compact form ; supported types are integer (long, {@link Long}, etc), {@link Date}, and enumerations.
+	 * Naturals and dates are written using 6 bits per character instead of 4 (e.g. 11 characters instead of 16 for a long),
+	 * and enumerations by their ordinal instead of their name.
+	 * Compact keys are still sorted according to their value, except enumerations that are sorted according to their ordinal.
+	 * Changing this value for an existing class changes identifiers of its elements, and of elements referring to them in their keys.
+	 */
+	public boolean compact() default false;
 }
@@ -112,6 +112,38 @@ public @interface Persisting {
 	 */
 	long writeRetentionMs() default 0;
 
+	/**
+	 * The number of buckets rows should be spread over in the data store. In
+	 * case this number is 1 or below, no bucket is used. Row keys are sent
+	 * to the data store prefixed with a deterministic hash bucket so that
+	 * elements with increasing keys (e.g. a leading {@link java.util.Date}
+	 * key) are not all written to the same region ; searches are then run
+	 * once per bucket and merged back in key order. Changing this number
+	 * makes already stored elements unreachable.<br>
+	 * As elements are also stored in the tables of their persisting
+	 * superclasses, a persisting class must declare the same number of buckets
+	 * as its persisting superclasses.
+	 * 
+	 * @see com.googlecode.n_orm.storeapi.BucketedStore
+	 */
+	int keyBuckets() default 0;
+
+	/**
+	 * States whether changes should be recorded as they happen rather than
+	 * found by comparing all properties and column families with their last
+	 * known state at each {@link PersistingElement#store() store}.<br>
+	 * Properties are only compared when they were written since last store
+	 * (all properties are still compared the first time) ; beware that
+	 * modifying in place a {@link java.util.Date} or an array value is thus
+	 * not detected: set the property to a new value instead.<br>
+	 * Set and map column families are replaced by their
+	 * {@link com.googlecode.n_orm.cf.ColumnFamily} so that additions and
+	 * removals are recorded directly, the same way as for a property declared
+	 * as a {@link com.googlecode.n_orm.cf.SetColumnFamily} or a
+	 * {@link com.googlecode.n_orm.cf.MapColumnFamily}.
+	 */
+	boolean trackChanges() default false;
+
 	/**
 	 * States whether key values should be stored in the property column family.
 	 * The normal case is that keys are encoded in identifier of the instances.
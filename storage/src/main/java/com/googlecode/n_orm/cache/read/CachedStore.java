@@ -1,23 +1,52 @@
 package com.googlecode.n_orm.cache.read;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 import com.googlecode.n_orm.DatabaseNotReachedException;
 import com.googlecode.n_orm.cf.ColumnFamily;
+import com.googlecode.n_orm.storeapi.CloseableKeyIterator;
+import com.googlecode.n_orm.storeapi.Constraint;
 import com.googlecode.n_orm.storeapi.DefaultColumnFamilyData;
 import com.googlecode.n_orm.storeapi.DelegatingStore;
 import com.googlecode.n_orm.storeapi.MetaInformation;
+import com.googlecode.n_orm.storeapi.Row;
 import com.googlecode.n_orm.storeapi.Row.ColumnFamilyData;
+import com.googlecode.n_orm.storeapi.RowChanges;
 import com.googlecode.n_orm.storeapi.Store;
 
 public class CachedStore extends DelegatingStore {
 	
+	private static class CachedRow implements Row {
+		private final String key;
+		private final ColumnFamilyData values;
+		
+		public CachedRow(String key, ColumnFamilyData values) {
+			this.key = key;
+			this.values = values;
+		}
+
+		@Override
+		public String getKey() {
+			return key;
+		}
+
+		@Override
+		public ColumnFamilyData getValues() {
+			return values;
+		}
+	}
+	
 	/**
 	 * Whether read cache should be enabled for a given thread
 	 */
@@ -50,6 +79,33 @@ public class CachedStore extends DelegatingStore {
 	 * Whether read cache should be enabled by default
 	 */
 	private boolean enabledByDefault = true;
+	
+	/**
+	 * Rows and families known to be missing ; null if not used
+	 */
+	private volatile NegativeCache negativeCache = null;
+	
+	/**
+	 * Results of searches ; null if not used
+	 */
+	private volatile ScanCache scanCache = null;
+	
+	/**
+	 * Locks serializing cache updates for a given row
+	 */
+	private final Object[] rowLocks = new Object[64];
+	{
+		for (int i = 0; i < rowLocks.length; i++) {
+			rowLocks[i] = new Object();
+		}
+	}
+	
+	/**
+	 * Versions of rows, striped the same way as {@link #rowLocks} ;
+	 * incremented each time a row is changed so that data read from the
+	 * actual store before the change is not cached afterwards
+	 */
+	private final AtomicLongArray rowVersions = new AtomicLongArray(rowLocks.length);
 
 	/**
 	 * {{@link #createCache()} must be overridden to use this constructor.
@@ -98,6 +154,36 @@ public class CachedStore extends DelegatingStore {
 		super.start();
 	}
 
+	/**
+	 * Rows and families known to be missing from the actual store ; null if
+	 * missing rows are not cached.
+	 */
+	public NegativeCache getNegativeCache() {
+		return negativeCache;
+	}
+
+	/**
+	 * Rows and families known to be missing from the actual store ; null if
+	 * missing rows should not be cached.
+	 */
+	public void setNegativeCache(NegativeCache negativeCache) {
+		this.negativeCache = negativeCache;
+	}
+
+	/**
+	 * Results of searches ; null if searches are not cached.
+	 */
+	public ScanCache getScanCache() {
+		return scanCache;
+	}
+
+	/**
+	 * Results of searches ; null if searches should not be cached.
+	 */
+	public void setScanCache(ScanCache scanCache) {
+		this.scanCache = scanCache;
+	}
+
 	/**
 	 * Whether read cache is enabled by default for thread that did not call {@link #setEnabledForCurrentThread(boolean)}.
 	 */
@@ -134,13 +220,221 @@ public class CachedStore extends DelegatingStore {
 			}
 		}
 		
-		super.delete(meta, table, id);
+		try {
+			super.delete(meta, table, id);
+		} finally {
+			this.rowChanged(table, id);
+		}
+		
+		// A concurrent read might have cached the row before it was removed
+		synchronized(this.rowLocks[this.getStripe(table, id)]) {
+			this.invalidate(meta, table, id);
+		}
 		
 		if (tbt != null) {
 			throw tbt;
 		}
 	}
 
+	/**
+	 * Stores changes, and then updates cached families accordingly:
+	 * changed and removed columns are applied to cached families, while
+	 * incremented families are removed from cache.
+	 * Cache is updated even if this store is not
+	 * {@link #isEnabledByDefault() caching} so that it never returns
+	 * outdated data.
+	 */
+	@Override
+	public void storeChanges(MetaInformation meta, String table, String id,
+			ColumnFamilyData changed, Map<String, Set<String>> removed,
+			Map<String, Map<String, Number>> increments)
+			throws DatabaseNotReachedException {
+		try {
+			super.storeChanges(meta, table, id, changed, removed, increments);
+		} catch (DatabaseNotReachedException x) {
+			this.invalidate(meta, table, id);
+			throw x;
+		} finally {
+			this.rowChanged(table, id);
+		}
+		this.updateCache(meta, table, id, changed, removed, increments);
+	}
+
+	@Override
+	public void storeChanges(List<RowChanges> changes)
+			throws DatabaseNotReachedException {
+		try {
+			super.storeChanges(changes);
+		} catch (DatabaseNotReachedException x) {
+			for (RowChanges rc : changes) {
+				this.invalidate(rc.getMeta(), rc.getTable(), rc.getId());
+			}
+			throw x;
+		} finally {
+			for (RowChanges rc : changes) {
+				this.rowChanged(rc.getTable(), rc.getId());
+			}
+		}
+		for (RowChanges rc : changes) {
+			this.updateCache(rc.getMeta(), rc.getTable(), rc.getId(),
+					rc.getChanged(), rc.getRemoved(), rc.getIncrements());
+		}
+	}
+
+	/**
+	 * Row might not be missing anymore, and searches over it might have changed.
+	 */
+	private void rowChanged(String table, String id) {
+		this.rowVersions.incrementAndGet(this.getStripe(table, id));
+		NegativeCache nc = this.negativeCache;
+		if (nc != null)
+			nc.invalidate(table, id);
+		ScanCache sc = this.scanCache;
+		if (sc != null)
+			sc.invalidate(table, id);
+	}
+
+	private int getStripe(String table, String id) {
+		int h = 31*table.hashCode() + id.hashCode();
+		return (h ^ (h >>> 16)) & (this.rowLocks.length-1);
+	}
+
+	/**
+	 * The version of a row to be read before requesting the actual store.
+	 * @see #cacheFamilyData(MetaInformation, String, String, String, Map, long)
+	 */
+	private long getRowToken(String table, String id) {
+		return this.rowVersions.get(this.getStripe(table, id));
+	}
+
+	/**
+	 * Caches data read from the actual store unless row was changed since token was read.
+	 * @param token as returned by {@link #getRowToken(String, String)} before the actual store was requested
+	 */
+	private void cacheFamilyData(MetaInformation meta, String table, String id,
+			String family, Map<String, byte[]> data, long token) throws CacheException {
+		int stripe = this.getStripe(table, id);
+		// Changes are applied to cache under the same lock once version is incremented
+		synchronized(this.rowLocks[stripe]) {
+			if (this.rowVersions.get(stripe) == token)
+				this.cache.insertFamilyData(meta, table, id, family, data);
+		}
+	}
+
+	/**
+	 * Removes a row from cache as we don't know whether it was changed.
+	 */
+	private void invalidate(MetaInformation meta, String table, String id) {
+		if (this.cache == null)
+			return;
+		try {
+			this.cache.delete(meta, table, id);
+		} catch (CacheException e) {
+		}
+	}
+
+	private void updateCache(MetaInformation meta, String table, String id,
+			ColumnFamilyData changed, Map<String, Set<String>> removed,
+			Map<String, Map<String, Number>> increments)
+			throws DatabaseNotReachedException {
+		if (this.cache == null)
+			return;
+		
+		Set<String> families = new TreeSet<String>();
+		if (changed != null)
+			families.addAll(changed.keySet());
+		if (removed != null)
+			families.addAll(removed.keySet());
+		if (increments != null)
+			families.addAll(increments.keySet());
+		if (families.isEmpty())
+			return;
+		
+		synchronized(this.rowLocks[this.getStripe(table, id)]) {
+			try {
+				for (String family : families) {
+					Map<String, Number> incrs = increments == null ? null : increments.get(family);
+					if (incrs != null && !incrs.isEmpty()) {
+						// Incremented values are only known by the actual store
+						this.cache.deleteFamilyData(meta, table, id, family);
+						continue;
+					}
+					
+					Map<String, byte[]> cached = this.cache.getFamilyData(meta, table, id, family);
+					if (cached == null)
+						continue;
+					
+					Map<String, byte[]> updated = new TreeMap<String, byte[]>(cached);
+					Set<String> rem = removed == null ? null : removed.get(family);
+					if (rem != null) {
+						for (String qualifier : rem) {
+							updated.remove(qualifier);
+						}
+					}
+					Map<String, byte[]> chg = changed == null ? null : changed.get(family);
+					if (chg != null)
+						updated.putAll(chg);
+					this.cache.insertFamilyData(meta, table, id, family, updated);
+				}
+			} catch (CacheException e) {
+				this.invalidate(meta, table, id);
+				throw new DatabaseNotReachedException(e);
+			}
+		}
+	}
+
+	/**
+	 * Answers searches from the {@link #getScanCache() scan cache} if any.
+	 * Rows found in the actual store are also put in the family cache so that
+	 * activating them later does not need to reach the actual store.
+	 */
+	@Override
+	public CloseableKeyIterator get(MetaInformation meta, String table,
+			Constraint c, int limit, Set<String> families)
+			throws DatabaseNotReachedException {
+		ScanCache sc = this.scanCache;
+		if (!isCaching() || sc == null || !sc.isCacheable(c, limit)) {
+			return super.get(meta, table, c, limit, families);
+		}
+		
+		CloseableKeyIterator ret = sc.get(table, c, limit, families);
+		if (ret != null)
+			return ret;
+		
+		long token = sc.getToken(table);
+		List<Row> rows = new ArrayList<Row>();
+		CloseableKeyIterator it = super.get(meta, table, c, limit, families);
+		try {
+			while (it.hasNext()) {
+				Row row = it.next();
+				ColumnFamilyData values = row.getValues() == null ? new DefaultColumnFamilyData() : new DefaultColumnFamilyData(row.getValues());
+				rows.add(new CachedRow(row.getKey(), values));
+			}
+		} finally {
+			it.close();
+		}
+		
+		// Rows are not cached in case table changed meanwhile
+		if (sc.getToken(table) == token) {
+			try {
+				for (Row row : rows) {
+					synchronized(this.rowLocks[this.getStripe(table, row.getKey())]) {
+						if (sc.getToken(table) != token)
+							break;
+						for (Entry<String, Map<String, byte[]>> family : row.getValues().entrySet()) {
+							cache.insertFamilyData(meta, table, row.getKey(), family.getKey(), family.getValue());
+						}
+					}
+				}
+			} catch (CacheException e) {
+				throw new DatabaseNotReachedException(e);
+			}
+			sc.record(table, c, limit, families, rows, token);
+		}
+		
+		return ScanCache.iterator(rows);
+	}
+
 	/**
 	 * check if an element exist in the cache
 	 */
@@ -150,13 +444,22 @@ public class CachedStore extends DelegatingStore {
 			return super.exists(meta, table, row, family);
 		}
 		
+		NegativeCache nc = this.negativeCache;
+		if (nc != null && nc.isAbsent(table, row, family))
+			return false;
+		
 		try {
 			if (cache.existsData(meta, table, row, family))
 				return true;
 		} catch (CacheException e) {
 			throw new DatabaseNotReachedException(e);
 		}
-		return super.exists(meta, table, row, family);
+		
+		long token = nc == null ? 0 : nc.getToken(table, row);
+		boolean ret = super.exists(meta, table, row, family);
+		if (!ret && nc != null)
+			nc.recordAbsent(table, row, family, token);
+		return ret;
 	}
 
 	/*
@@ -173,15 +476,25 @@ public class CachedStore extends DelegatingStore {
 			return super.get(meta, table, id, family);
 		}
 		
+		NegativeCache nc = this.negativeCache;
+		if (nc != null && nc.isAbsent(table, id, family))
+			return null;
+		
 		try {
 			Map<String, byte[]> data = cache.getFamilyData(meta, table, id,
 					family);
 			if (data != null) {
 				return data;
 			} else {
+				long token = nc == null ? 0 : nc.getToken(table, id);
+				long rowToken = this.getRowToken(table, id);
 				data = getActualStore().get(meta, table, id, family);
-				cache.insertFamilyData(meta, table, id, family, data);
-				assert data.equals(cache.getFamilyData(meta, table, id, family));
+				if (data == null) {
+					if (nc != null)
+						nc.recordAbsent(table, id, family, token);
+					return null;
+				}
+				this.cacheFamilyData(meta, table, id, family, data, rowToken);
 				return data;
 			}
 		} catch (CacheException e) {
@@ -195,6 +508,10 @@ public class CachedStore extends DelegatingStore {
 			return super.exists(meta, table, row);
 		}
 		
+		NegativeCache nc = this.negativeCache;
+		if (nc != null && nc.isAbsent(table, row))
+			return false;
+		
 		Collection<ColumnFamily<?>> cfs = meta.getElement().getColumnFamilies();
 		for (ColumnFamily<?> columnFamily : cfs) {
 			String name = columnFamily.getName();
@@ -206,7 +523,12 @@ public class CachedStore extends DelegatingStore {
 				throw new DatabaseNotReachedException(e);
 			}
 		}
-		return super.exists(meta, table, row);
+		
+		long token = nc == null ? 0 : nc.getToken(table, row);
+		boolean ret = super.exists(meta, table, row);
+		if (!ret && nc != null)
+			nc.recordAbsent(table, row, token);
+		return ret;
 	}
 
 	public ColumnFamilyData get(MetaInformation meta, String table,
@@ -216,6 +538,10 @@ public class CachedStore extends DelegatingStore {
 			return super.get(meta, table, id, families);
 		}
 		
+		NegativeCache nc = this.negativeCache;
+		if (nc != null && nc.isAbsent(table, id))
+			return null;
+		
 		try {
 			DefaultColumnFamilyData ret = new DefaultColumnFamilyData();
 			Set<String> familiesName = new TreeSet<String>(families);
@@ -231,14 +557,21 @@ public class CachedStore extends DelegatingStore {
 			}
 
 			if (!familiesName.isEmpty()) {
+				long token = nc == null ? 0 : nc.getToken(table, id);
+				long rowToken = this.getRowToken(table, id);
 				ColumnFamilyData dataStore = super.get(meta, table, id,
 						familiesName);
+				if (dataStore == null) {
+					if (nc != null)
+						nc.recordAbsent(table, id, token);
+					return ret.isEmpty() ? null : ret;
+				}
 
 				for (Entry<String, Map<String, byte[]>> cfd : dataStore
 						.entrySet()) {
 					ret.put(cfd.getKey(), cfd.getValue());
-					cache.insertFamilyData(meta, table, id, cfd.getKey(),
-							cfd.getValue());
+					this.cacheFamilyData(meta, table, id, cfd.getKey(),
+							cfd.getValue(), rowToken);
 				}
 			}
 
@@ -247,4 +580,84 @@ public class CachedStore extends DelegatingStore {
 			throw new DatabaseNotReachedException(e);
 		}
 	}
+
+	/**
+	 * Gets data from cache for all rows ; only rows with missing families are
+	 * requested in a single call to the actual store.
+	 */
+	public Map<String, ColumnFamilyData> get(MetaInformation meta,
+			String table, Collection<String> ids, Set<String> families)
+			throws DatabaseNotReachedException {
+		if (!isCaching()) {
+			return super.get(meta, table, ids, families);
+		}
+		
+		NegativeCache nc = this.negativeCache;
+		
+		try {
+			Map<String, ColumnFamilyData> ret = new TreeMap<String, ColumnFamilyData>();
+			List<String> missingIds = new LinkedList<String>();
+			Map<String, Long> tokens = nc == null ? null : new TreeMap<String, Long>();
+			Map<String, Long> rowTokens = new TreeMap<String, Long>();
+			Set<String> missingFamilies = new TreeSet<String>();
+			
+			for (String id : ids) {
+				if (nc != null && nc.isAbsent(table, id))
+					continue;
+				DefaultColumnFamilyData cached = new DefaultColumnFamilyData();
+				boolean missing = false;
+				for (String name : families) {
+					Map<String, byte[]> data = cache.getFamilyData(meta, table, id, name);
+					if (data != null) {
+						cached.put(name, data);
+					} else {
+						missing = true;
+						missingFamilies.add(name);
+					}
+				}
+				if (missing) {
+					missingIds.add(id);
+					rowTokens.put(id, this.getRowToken(table, id));
+					if (tokens != null)
+						tokens.put(id, nc.getToken(table, id));
+				}
+				if (!cached.isEmpty())
+					ret.put(id, cached);
+			}
+			
+			if (!missingIds.isEmpty()) {
+				Map<String, ColumnFamilyData> dataStore = super.get(meta, table,
+						missingIds, missingFamilies);
+				
+				for (Entry<String, ColumnFamilyData> row : dataStore.entrySet()) {
+					String id = row.getKey();
+					ColumnFamilyData data = ret.get(id);
+					if (data == null) {
+						data = new DefaultColumnFamilyData();
+						ret.put(id, data);
+					}
+					for (Entry<String, Map<String, byte[]>> cfd : row.getValue()
+							.entrySet()) {
+						//Cached data is the most up to date one
+						if (!data.containsKey(cfd.getKey())) {
+							data.put(cfd.getKey(), cfd.getValue());
+							this.cacheFamilyData(meta, table, id,
+									cfd.getKey(), cfd.getValue(), rowTokens.get(id));
+						}
+					}
+				}
+				
+				if (nc != null) {
+					for (String id : missingIds) {
+						if (!dataStore.containsKey(id) && !ret.containsKey(id))
+							nc.recordAbsent(table, id, tokens.get(id));
+					}
+				}
+			}
+			
+			return ret;
+		} catch (CacheException e) {
+			throw new DatabaseNotReachedException(e);
+		}
+	}
 }
@@ -0,0 +1,451 @@
+package com.googlecode.n_orm.cache.read;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.googlecode.n_orm.storeapi.MetaInformation;
+import com.googlecode.n_orm.utils.LongAdder;
+
+/**
+ * An {@link ICache} storing family data in the Java heap.
+ * Rows are spread over independently locked segments ; each segment holds at
+ * most its share of the {@link #getMaxWeight() maximum weight} and evicts its
+ * least recently used rows when this limit is exceeded.
+ * Weight of a family is an approximation in bytes of the memory it retains
+ * (qualifiers, values and bookkeeping).
+ * Cached families can also expire after a
+ * {@link #setTimeToLiveMs(long) time to live} that can be refined
+ * {@link #setTimeToLiveMs(String, long) per table} or
+ * {@link #setTimeToLiveMs(String, String, long) per family}.
+ * Data returned by {@link #getFamilyData(MetaInformation, String, String, String)}
+ * must not be modified.
+ */
+public class HeapCache implements ICache {
+
+	/**
+	 * Default maximum weight: 64MB.
+	 */
+	public static final long DEFAULT_MAX_WEIGHT = 64l*1024*1024;
+
+	/**
+	 * Default number of segments.
+	 */
+	public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+	private static final int ENTRY_OVERHEAD = 64;
+	private static final int QUALIFIER_OVERHEAD = 48;
+
+	private static final class RowKey {
+		private final String table, id;
+		private final int hash;
+
+		public RowKey(String table, String id) {
+			this.table = table;
+			this.id = id;
+			this.hash = 31*table.hashCode() + id.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof RowKey))
+				return false;
+			RowKey other = (RowKey) obj;
+			return this.hash == other.hash && this.id.equals(other.id) && this.table.equals(other.table);
+		}
+	}
+
+	private static final class Entry {
+		private final Map<String, byte[]> data;
+		private final long weight;
+		private final long expiresAt;
+
+		public Entry(Map<String, byte[]> data, long weight, long expiresAt) {
+			this.data = data;
+			this.weight = weight;
+			this.expiresAt = expiresAt;
+		}
+
+		public boolean isExpired(long now) {
+			return this.expiresAt > 0 && this.expiresAt <= now;
+		}
+	}
+
+	private final class Segment {
+		private final ReentrantLock lock = new ReentrantLock();
+		/**
+		 * Rows in access order ; eldest row is the least recently used one.
+		 */
+		private final LinkedHashMap<RowKey, Map<String, Entry>> rows = new LinkedHashMap<RowKey, Map<String, Entry>>(16, 0.75f, true);
+		private long weight = 0;
+		private long count = 0;
+
+		public Entry get(RowKey key, String family, long now) {
+			lock.lock();
+			try {
+				Map<String, Entry> row = this.rows.get(key);
+				if (row == null)
+					return null;
+				Entry ret = row.get(family);
+				if (ret != null && ret.isExpired(now)) {
+					this.remove(key, row, family);
+					ret = null;
+				}
+				return ret;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		public void put(RowKey key, String family, Entry entry) {
+			lock.lock();
+			try {
+				Map<String, Entry> row = this.rows.get(key);
+				if (row != null)
+					this.remove(key, row, family);
+
+				if (entry.weight > segmentMaxWeight) {
+					evictions.increment();
+					return;
+				}
+
+				row = this.rows.get(key);
+				if (row == null) {
+					row = new HashMap<String, Entry>(4);
+					this.rows.put(key, row);
+				}
+				row.put(family, entry);
+				this.weight += entry.weight;
+				this.count++;
+
+				Iterator<Map.Entry<RowKey, Map<String, Entry>>> it = this.rows.entrySet().iterator();
+				while (this.weight > segmentMaxWeight && it.hasNext()) {
+					Map.Entry<RowKey, Map<String, Entry>> eldest = it.next();
+					if (eldest.getKey().equals(key))
+						continue;
+					for (Entry e : eldest.getValue().values()) {
+						this.weight -= e.weight;
+						this.count--;
+						evictions.increment();
+					}
+					it.remove();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void remove(RowKey key, Map<String, Entry> row, String family) {
+			Entry old = row.remove(family);
+			if (old != null) {
+				this.weight -= old.weight;
+				this.count--;
+			}
+			if (row.isEmpty())
+				this.rows.remove(key);
+		}
+
+		public void delete(RowKey key, String family) {
+			lock.lock();
+			try {
+				Map<String, Entry> row = this.rows.get(key);
+				if (row != null)
+					this.remove(key, row, family);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		public void delete(RowKey key) {
+			lock.lock();
+			try {
+				Map<String, Entry> row = this.rows.remove(key);
+				if (row != null) {
+					for (Entry e : row.values()) {
+						this.weight -= e.weight;
+						this.count--;
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		public void clear() {
+			lock.lock();
+			try {
+				this.rows.clear();
+				this.weight = 0;
+				this.count = 0;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private final long maxWeight;
+	private final long segmentMaxWeight;
+	private final Segment[] segments;
+	private final int segmentMask;
+
+	private volatile long timeToLiveMs = 0;
+	private final ConcurrentMap<String, Long> tableTimeToLiveMs = new ConcurrentHashMap<String, Long>();
+	private final ConcurrentMap<String, ConcurrentMap<String, Long>> familyTimeToLiveMs = new ConcurrentHashMap<String, ConcurrentMap<String,Long>>();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public HeapCache() {
+		this(DEFAULT_MAX_WEIGHT);
+	}
+
+	public HeapCache(long maxWeight) {
+		this(maxWeight, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	/**
+	 * @param maxWeight the approximate maximum number of bytes retained by this cache
+	 * @param concurrencyLevel the expected number of threads concurrently using this cache ; rounded to the next power of 2
+	 */
+	public HeapCache(long maxWeight, int concurrencyLevel) {
+		if (maxWeight <= 0)
+			throw new IllegalArgumentException("Cache weight must be positive ; found " + maxWeight);
+		if (concurrencyLevel <= 0)
+			throw new IllegalArgumentException("Concurrency level must be positive ; found " + concurrencyLevel);
+		int segmentCount = 1;
+		while (segmentCount < concurrencyLevel)
+			segmentCount <<= 1;
+		this.maxWeight = maxWeight;
+		this.segmentMaxWeight = Math.max(1, maxWeight / segmentCount);
+		this.segmentMask = segmentCount - 1;
+		this.segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			this.segments[i] = new Segment();
+		}
+	}
+
+	private Segment getSegment(RowKey key) {
+		int h = key.hashCode();
+		//Spreading bits as in java.util.concurrent.ConcurrentHashMap
+		h += (h <<  15) ^ 0xffffcd7d;
+		h ^= (h >>> 10);
+		h += (h <<   3);
+		h ^= (h >>>  6);
+		h += (h <<   2) + (h << 14);
+		h ^= (h >>> 16);
+		return this.segments[h & this.segmentMask];
+	}
+
+	/**
+	 * The approximate maximum number of bytes retained by this cache.
+	 */
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	/**
+	 * The approximate number of bytes currently retained by this cache.
+	 */
+	public long getWeight() {
+		long ret = 0;
+		for (Segment s : this.segments) {
+			s.lock.lock();
+			try {
+				ret += s.weight;
+			} finally {
+				s.lock.unlock();
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * The default time to live for cached families ; 0 or less means that
+	 * cached families never expire.
+	 */
+	public long getTimeToLiveMs() {
+		return timeToLiveMs;
+	}
+
+	/**
+	 * The default time to live for cached families ; 0 or less means that
+	 * cached families never expire.
+	 * Only affects families cached afterwards.
+	 */
+	public void setTimeToLiveMs(long timeToLiveMs) {
+		this.timeToLiveMs = timeToLiveMs;
+	}
+
+	/**
+	 * Time to live for families of a given table ; 0 or less means that
+	 * cached families never expire.
+	 * Overrides {@link #setTimeToLiveMs(long) default time to live}.
+	 */
+	public void setTimeToLiveMs(String table, long timeToLiveMs) {
+		this.tableTimeToLiveMs.put(table, timeToLiveMs);
+	}
+
+	/**
+	 * Time to live for a given family in a given table ; 0 or less means that
+	 * cached families never expire.
+	 * Overrides {@link #setTimeToLiveMs(String, long) table time to live}.
+	 */
+	public void setTimeToLiveMs(String table, String family, long timeToLiveMs) {
+		ConcurrentMap<String, Long> ttls = this.familyTimeToLiveMs.get(table);
+		if (ttls == null) {
+			ttls = new ConcurrentHashMap<String, Long>();
+			ConcurrentMap<String, Long> old = this.familyTimeToLiveMs.putIfAbsent(table, ttls);
+			if (old != null)
+				ttls = old;
+		}
+		ttls.put(family, timeToLiveMs);
+	}
+
+	/**
+	 * The time to live for a given family in a given table.
+	 */
+	public long getTimeToLiveMs(String table, String family) {
+		ConcurrentMap<String, Long> ttls = this.familyTimeToLiveMs.get(table);
+		Long ret = ttls == null ? null : ttls.get(family);
+		if (ret == null)
+			ret = this.tableTimeToLiveMs.get(table);
+		return ret == null ? this.timeToLiveMs : ret;
+	}
+
+	/**
+	 * Number of requests that found data in this cache.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Number of requests that did not find data in this cache.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Number of families evicted from this cache due to its maximum weight.
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Ratio of requests that found data in this cache ; 0 if no request was performed.
+	 */
+	public double getHitRatio() {
+		long h = hits.sum(), total = h + misses.sum();
+		return total == 0 ? 0 : (double)h / total;
+	}
+
+	/**
+	 * Resets hits, misses and evictions counters.
+	 */
+	public void resetCounters() {
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+	}
+
+	private static long weigh(Map<String, byte[]> data) {
+		long ret = ENTRY_OVERHEAD;
+		for (Map.Entry<String, byte[]> e : data.entrySet()) {
+			ret += QUALIFIER_OVERHEAD + 2*e.getKey().length();
+			if (e.getValue() != null)
+				ret += e.getValue().length;
+		}
+		return ret;
+	}
+
+	@Override
+	public void delete(MetaInformation meta, String table, String key)
+			throws CacheException {
+		RowKey rk = new RowKey(table, key);
+		this.getSegment(rk).delete(rk);
+	}
+
+	@Override
+	public void deleteFamilyData(MetaInformation meta, String table,
+			String key, String family) throws CacheException {
+		RowKey rk = new RowKey(table, key);
+		this.getSegment(rk).delete(rk, family);
+	}
+
+	@Override
+	public void insertFamilyData(MetaInformation meta, String table,
+			String key, String family, Map<String, byte[]> familyData)
+			throws CacheException {
+		if (familyData == null)
+			familyData = Collections.emptyMap();
+		Map<String, byte[]> data = familyData.isEmpty()
+				? Collections.<String, byte[]>emptyMap()
+				: Collections.unmodifiableMap(new HashMap<String, byte[]>(familyData));
+		long ttl = this.getTimeToLiveMs(table, family);
+		Entry entry = new Entry(data, weigh(data), ttl > 0 ? System.currentTimeMillis() + ttl : 0);
+		RowKey rk = new RowKey(table, key);
+		this.getSegment(rk).put(rk, family, entry);
+	}
+
+	@Override
+	public Map<String, byte[]> getFamilyData(MetaInformation meta,
+			String table, String key, String family) throws CacheException {
+		RowKey rk = new RowKey(table, key);
+		Entry e = this.getSegment(rk).get(rk, family, System.currentTimeMillis());
+		if (e == null) {
+			misses.increment();
+			return null;
+		} else {
+			hits.increment();
+			return e.data;
+		}
+	}
+
+	/**
+	 * The number of cached families.
+	 */
+	@Override
+	public long size() throws CacheException {
+		long ret = 0;
+		for (Segment s : this.segments) {
+			s.lock.lock();
+			try {
+				ret += s.count;
+			} finally {
+				s.lock.unlock();
+			}
+		}
+		return ret;
+	}
+
+	@Override
+	public void reset() throws CacheException {
+		for (Segment s : this.segments) {
+			s.clear();
+		}
+	}
+
+	@Override
+	public boolean existsData(MetaInformation meta, String table, String id,
+			String family) throws CacheException {
+		RowKey rk = new RowKey(table, id);
+		Entry e = this.getSegment(rk).get(rk, family, System.currentTimeMillis());
+		return e != null && !e.data.isEmpty();
+	}
+
+}
@@ -12,6 +12,10 @@ public interface ICache {
 	 * delete an element in the cache using the key
 	 */
 	public void delete(MetaInformation meta, String table, String key) throws CacheException;
+	/**
+	 * delete a family of an element in the cache
+	 */
+	public void deleteFamilyData(MetaInformation meta, String table, String key, String family) throws CacheException;
 	/**
 	 * To insert an element in the cache
 	 */
@@ -0,0 +1,279 @@
+package com.googlecode.n_orm.cache.read;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.googlecode.n_orm.utils.LongAdder;
+
+/**
+ * Remembers rows and families known to be absent from a data store for a
+ * limited {@link #getTimeToLiveMs() time}.
+ * Recording an absence requires a {@link #getToken(String, String) token}
+ * taken before the data store was requested ; absence is not recorded if the
+ * row was {@link #invalidate(String, String) invalidated} meanwhile.
+ * At most {@link #getMaxSize()} rows are remembered ; oldest are forgotten
+ * first.
+ */
+public class NegativeCache {
+
+	/**
+	 * Default time to live for an absence: 1s.
+	 */
+	public static final long DEFAULT_TIME_TO_LIVE_MS = 1000;
+
+	private static final int STRIPES = 64;
+
+	private static final class RowKey {
+		private final String table, id;
+		private final int hash;
+
+		public RowKey(String table, String id) {
+			this.table = table;
+			this.id = id;
+			this.hash = 31*table.hashCode() + id.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof RowKey))
+				return false;
+			RowKey other = (RowKey) obj;
+			return this.hash == other.hash && this.id.equals(other.id) && this.table.equals(other.table);
+		}
+
+		public int getStripe() {
+			return (this.hash ^ (this.hash >>> 16)) & (STRIPES-1);
+		}
+	}
+
+	private static final class Absence {
+		private final long expiresAt;
+		private final boolean row;
+		private final Set<String> families;
+
+		public Absence(long expiresAt, boolean row, Set<String> families) {
+			this.expiresAt = expiresAt;
+			this.row = row;
+			this.families = families;
+		}
+	}
+
+	private final ConcurrentMap<RowKey, Absence> absences = new ConcurrentHashMap<RowKey, Absence>();
+	private final ConcurrentLinkedQueue<RowKey> insertionOrder = new ConcurrentLinkedQueue<RowKey>();
+	private final AtomicInteger insertionOrderSize = new AtomicInteger();
+	private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+	private final int maxSize;
+	private final long timeToLiveMs;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public NegativeCache(int maxSize) {
+		this(maxSize, DEFAULT_TIME_TO_LIVE_MS);
+	}
+
+	public NegativeCache(int maxSize, long timeToLiveMs) {
+		if (maxSize <= 0)
+			throw new IllegalArgumentException("Negative cache size must be positive ; found " + maxSize);
+		if (timeToLiveMs <= 0)
+			throw new IllegalArgumentException("Negative cache time to live must be positive ; found " + timeToLiveMs);
+		this.maxSize = maxSize;
+		this.timeToLiveMs = timeToLiveMs;
+	}
+
+	/**
+	 * The maximum number of rows for which absence is remembered.
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * For how long an absence is remembered.
+	 */
+	public long getTimeToLiveMs() {
+		return timeToLiveMs;
+	}
+
+	/**
+	 * Number of rows for which absence is currently remembered.
+	 */
+	public int size() {
+		return this.absences.size();
+	}
+
+	/**
+	 * Number of requests that found an absence.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Number of requests that did not find an absence.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Number of rows forgotten due to the {@link #getMaxSize() maximum size}.
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Resets hits, misses and evictions counters.
+	 */
+	public void resetCounters() {
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+	}
+
+	private Absence getAbsence(RowKey key) {
+		Absence ret = this.absences.get(key);
+		if (ret != null && ret.expiresAt <= System.currentTimeMillis()) {
+			this.absences.remove(key, ret);
+			ret = null;
+		}
+		return ret;
+	}
+
+	/**
+	 * Whether row is known to be absent.
+	 */
+	public boolean isAbsent(String table, String id) {
+		Absence a = this.getAbsence(new RowKey(table, id));
+		if (a != null && a.row) {
+			hits.increment();
+			return true;
+		}
+		misses.increment();
+		return false;
+	}
+
+	/**
+	 * Whether row or family is known to be absent.
+	 */
+	public boolean isAbsent(String table, String id, String family) {
+		Absence a = this.getAbsence(new RowKey(table, id));
+		if (a != null && (a.row || a.families.contains(family))) {
+			hits.increment();
+			return true;
+		}
+		misses.increment();
+		return false;
+	}
+
+	/**
+	 * To be called before requesting the data store for a row whose absence
+	 * may be recorded afterwards.
+	 */
+	public long getToken(String table, String id) {
+		return this.versions.get(new RowKey(table, id).getStripe());
+	}
+
+	/**
+	 * Records that a row is absent.
+	 * @param token as returned by {@link #getToken(String, String)} before the data store was requested
+	 */
+	public void recordAbsent(String table, String id, long token) {
+		this.record(new RowKey(table, id), null, token);
+	}
+
+	/**
+	 * Records that a family is absent (or empty) for a row.
+	 * @param token as returned by {@link #getToken(String, String)} before the data store was requested
+	 */
+	public void recordAbsent(String table, String id, String family, long token) {
+		this.record(new RowKey(table, id), family, token);
+	}
+
+	private void record(RowKey key, String family, long token) {
+		int stripe = key.getStripe();
+		if (this.versions.get(stripe) != token)
+			return;
+
+		long expiresAt = System.currentTimeMillis() + this.timeToLiveMs;
+		Absence updated;
+		while (true) {
+			Absence old = this.getAbsence(key);
+			if (family == null) {
+				updated = new Absence(expiresAt, true, Collections.<String>emptySet());
+			} else if (old == null) {
+				updated = new Absence(expiresAt, false, Collections.singleton(family));
+			} else if (old.row || old.families.contains(family)) {
+				return;
+			} else {
+				Set<String> families = new HashSet<String>(old.families);
+				families.add(family);
+				updated = new Absence(old.expiresAt, false, families);
+			}
+			if (old == null) {
+				if (this.absences.putIfAbsent(key, updated) == null) {
+					this.insertionOrder.add(key);
+					this.insertionOrderSize.incrementAndGet();
+					break;
+				}
+			} else if (this.absences.replace(key, old, updated)) {
+				break;
+			}
+		}
+
+		// An invalidation happened meanwhile
+		if (this.versions.get(stripe) != token) {
+			this.absences.remove(key, updated);
+			return;
+		}
+
+		// Any remembered row is in insertion order, possibly several times
+		while (this.insertionOrderSize.get() > this.maxSize) {
+			RowKey eldest = this.insertionOrder.poll();
+			if (eldest == null)
+				break;
+			this.insertionOrderSize.decrementAndGet();
+			if (this.absences.remove(eldest) != null)
+				evictions.increment();
+		}
+	}
+
+	/**
+	 * Forgets absence of a row and its families ; to be called once the row
+	 * was changed in the data store.
+	 */
+	public void invalidate(String table, String id) {
+		RowKey key = new RowKey(table, id);
+		this.versions.incrementAndGet(key.getStripe());
+		this.absences.remove(key);
+	}
+
+	/**
+	 * Forgets all absences.
+	 */
+	public void reset() {
+		for (int i = 0; i < STRIPES; i++) {
+			this.versions.incrementAndGet(i);
+		}
+		this.absences.clear();
+		RowKey key;
+		while ((key = this.insertionOrder.poll()) != null) {
+			this.insertionOrderSize.decrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,608 @@
+package com.googlecode.n_orm.cache.read;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.googlecode.n_orm.storeapi.MetaInformation;
+import com.googlecode.n_orm.utils.LongAdder;
+
+/**
+ * An {@link ICache} storing family data out of the Java heap so that large
+ * caches do not increase garbage collection pauses.
+ * Rows are spread over independently locked segments. Each segment appends
+ * serialized rows to a ring of direct {@link ByteBuffer} slabs and finds them
+ * using its own open-addressing hash index ; when no slab is left, the oldest
+ * slab is recycled and rows it stores are evicted.
+ * Memory is allocated lazily, slab by slab, up to {@link #getCapacity()}.
+ * Data returned by {@link #getFamilyData(MetaInformation, String, String, String)}
+ * is copied from the slabs at each call.
+ * Direct memory available to the JVM must be large enough for the
+ * {@link #getCapacity() capacity} of the cache (see -XX:MaxDirectMemorySize).
+ */
+public class OffHeapCache implements ICache {
+
+	/**
+	 * Default capacity: 256MB.
+	 */
+	public static final long DEFAULT_CAPACITY = 256l*1024*1024;
+
+	/**
+	 * Default number of segments.
+	 */
+	public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+	/**
+	 * Number of slabs per segment ; the bigger, the smaller the fraction of
+	 * the segment that is evicted when a slab is recycled.
+	 */
+	public static final int SLABS_PER_SEGMENT = 8;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final long EMPTY = -1, DELETED = -2;
+	// length, hash, key length
+	private static final int HEADER_SIZE = 12;
+
+	private final class Segment {
+		private final ReentrantLock lock = new ReentrantLock();
+
+		private final ByteBuffer[] slabs = new ByteBuffer[SLABS_PER_SEGMENT];
+		private final int[] slabEnds = new int[SLABS_PER_SEGMENT];
+		private int currentSlab = 0;
+		private int writePosition = 0;
+
+		private int[] hashes = new int[16];
+		private long[] addresses = newAddresses(16);
+		private int usedSlots = 0;
+
+		private long usedMemory = 0;
+		private long allocatedMemory = 0;
+		private long families = 0;
+
+		private long[] newAddresses(int size) {
+			long[] ret = new long[size];
+			Arrays.fill(ret, EMPTY);
+			return ret;
+		}
+
+		private ByteBuffer slab(long address) {
+			return this.slabs[(int)(address >>> 32)];
+		}
+
+		private int offset(long address) {
+			return (int)address;
+		}
+
+		private boolean keyEquals(long address, byte[] key) {
+			ByteBuffer slab = this.slab(address);
+			int off = this.offset(address);
+			if (slab.getInt(off+8) != key.length)
+				return false;
+			off += HEADER_SIZE;
+			for (int i = 0; i < key.length; i++) {
+				if (slab.get(off+i) != key[i])
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Slot for the given key in index ; -1 if not found.
+		 */
+		private int find(int hash, byte[] key) {
+			int mask = this.addresses.length-1;
+			int i = hash & mask;
+			long address;
+			while ((address = this.addresses[i]) != EMPTY) {
+				if (address != DELETED && this.hashes[i] == hash && this.keyEquals(address, key))
+					return i;
+				i = (i+1) & mask;
+			}
+			return -1;
+		}
+
+		/**
+		 * Slot for the given address in index ; -1 if not found.
+		 */
+		private int find(int hash, long address) {
+			int mask = this.addresses.length-1;
+			int i = hash & mask;
+			long a;
+			while ((a = this.addresses[i]) != EMPTY) {
+				if (a == address)
+					return i;
+				i = (i+1) & mask;
+			}
+			return -1;
+		}
+
+		private void insert(int hash, long address) {
+			if ((this.usedSlots+1)*2 > this.addresses.length)
+				this.rehash();
+			int mask = this.addresses.length-1;
+			int i = hash & mask;
+			while (this.addresses[i] >= 0)
+				i = (i+1) & mask;
+			if (this.addresses[i] == EMPTY)
+				this.usedSlots++;
+			this.hashes[i] = hash;
+			this.addresses[i] = address;
+		}
+
+		private void rehash() {
+			int live = 0;
+			for (long a : this.addresses) {
+				if (a >= 0)
+					live++;
+			}
+			int size = 16;
+			while (size < live*4)
+				size <<= 1;
+			int[] oldHashes = this.hashes;
+			long[] oldAddresses = this.addresses;
+			this.hashes = new int[size];
+			this.addresses = newAddresses(size);
+			this.usedSlots = 0;
+			for (int i = 0; i < oldAddresses.length; i++) {
+				if (oldAddresses[i] >= 0)
+					this.insert(oldHashes[i], oldAddresses[i]);
+			}
+		}
+
+		private void removeSlot(int slot) {
+			long address = this.addresses[slot];
+			this.addresses[slot] = DELETED;
+			ByteBuffer slab = this.slab(address);
+			int off = this.offset(address);
+			this.usedMemory -= slab.getInt(off);
+			this.families -= slab.getInt(off + HEADER_SIZE + slab.getInt(off+8));
+		}
+
+		/**
+		 * Appends a record to slabs, recycling the oldest slab if necessary.
+		 * @return the address of the record ; -1 if the record is too big
+		 */
+		private long append(byte[] record) {
+			if (record.length > slabSize)
+				return -1;
+			if (this.slabs[this.currentSlab] == null) {
+				this.slabs[this.currentSlab] = ByteBuffer.allocateDirect(slabSize);
+				this.allocatedMemory += slabSize;
+			}
+			if (this.writePosition + record.length > slabSize) {
+				this.slabEnds[this.currentSlab] = this.writePosition;
+				this.currentSlab = (this.currentSlab+1) % SLABS_PER_SEGMENT;
+				this.writePosition = 0;
+				if (this.slabs[this.currentSlab] == null) {
+					this.slabs[this.currentSlab] = ByteBuffer.allocateDirect(slabSize);
+					this.allocatedMemory += slabSize;
+				} else {
+					this.evict(this.currentSlab);
+				}
+			}
+			ByteBuffer slab = this.slabs[this.currentSlab];
+			slab.position(this.writePosition);
+			slab.put(record);
+			long ret = ((long)this.currentSlab << 32) | this.writePosition;
+			this.writePosition += record.length;
+			return ret;
+		}
+
+		private void evict(int slabIndex) {
+			ByteBuffer slab = this.slabs[slabIndex];
+			int end = this.slabEnds[slabIndex];
+			int off = 0;
+			while (off < end) {
+				int length = slab.getInt(off);
+				int slot = this.find(slab.getInt(off+4), ((long)slabIndex << 32) | off);
+				if (slot >= 0) {
+					evictions.add(slab.getInt(off + HEADER_SIZE + slab.getInt(off+8)));
+					this.removeSlot(slot);
+				}
+				off += length;
+			}
+			this.slabEnds[slabIndex] = 0;
+		}
+
+		private Map<String, Map<String, byte[]>> read(long address) {
+			ByteBuffer slab = this.slab(address);
+			int off = this.offset(address);
+			slab.position(off + HEADER_SIZE + slab.getInt(off+8));
+			int familyCount = slab.getInt();
+			Map<String, Map<String, byte[]>> ret = new LinkedHashMap<String, Map<String,byte[]>>();
+			for (int i = 0; i < familyCount; i++) {
+				String family = readString(slab);
+				ret.put(family, readFamily(slab));
+			}
+			return ret;
+		}
+
+		/**
+		 * Reads data for a family ; null if family is not in the row.
+		 */
+		private Map<String, byte[]> read(long address, byte[] family) {
+			ByteBuffer slab = this.slab(address);
+			int off = this.offset(address);
+			slab.position(off + HEADER_SIZE + slab.getInt(off+8));
+			int familyCount = slab.getInt();
+			for (int i = 0; i < familyCount; i++) {
+				int length = slab.getInt();
+				boolean found = length == family.length;
+				for (int j = 0; j < length; j++) {
+					byte b = slab.get();
+					found = found && b == family[j];
+				}
+				if (found)
+					return readFamily(slab);
+				// Skipping qualifiers
+				int qualifiers = slab.getInt();
+				for (int j = 0; j < qualifiers; j++) {
+					int qualifierLength = slab.getInt();
+					slab.position(slab.position() + qualifierLength);
+					int valLength = slab.getInt();
+					if (valLength > 0)
+						slab.position(slab.position() + valLength);
+				}
+			}
+			return null;
+		}
+
+		public Map<String, byte[]> get(int hash, byte[] key, byte[] family) {
+			lock.lock();
+			try {
+				int slot = this.find(hash, key);
+				if (slot < 0)
+					return null;
+				return this.read(this.addresses[slot], family);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Replaces data for a family in a row ; removes the family if data is null.
+		 */
+		public void put(int hash, byte[] key, String family, Map<String, byte[]> data) {
+			lock.lock();
+			try {
+				int slot = this.find(hash, key);
+				Map<String, Map<String, byte[]>> row;
+				if (slot >= 0) {
+					row = this.read(this.addresses[slot]);
+				} else if (data == null) {
+					return;
+				} else {
+					row = new LinkedHashMap<String, Map<String,byte[]>>();
+				}
+				if (data == null)
+					row.remove(family);
+				else
+					row.put(family, data);
+
+				if (row.isEmpty()) {
+					this.removeSlot(slot);
+					return;
+				}
+
+				byte[] record = toRecord(hash, key, row);
+				long address = this.append(record);
+				// Appending may have evicted the previous version of the row
+				slot = this.find(hash, key);
+				if (slot >= 0)
+					this.removeSlot(slot);
+				if (address < 0) {
+					evictions.add(row.size());
+					return;
+				}
+				this.insert(hash, address);
+				this.usedMemory += record.length;
+				this.families += row.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		public void delete(int hash, byte[] key) {
+			lock.lock();
+			try {
+				int slot = this.find(hash, key);
+				if (slot >= 0)
+					this.removeSlot(slot);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		public void clear() {
+			lock.lock();
+			try {
+				this.hashes = new int[16];
+				this.addresses = newAddresses(16);
+				this.usedSlots = 0;
+				Arrays.fill(this.slabEnds, 0);
+				this.currentSlab = 0;
+				this.writePosition = 0;
+				this.usedMemory = 0;
+				this.families = 0;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private static String readString(ByteBuffer buf) {
+		byte[] ret = new byte[buf.getInt()];
+		buf.get(ret);
+		return new String(ret, UTF8);
+	}
+
+	private static Map<String, byte[]> readFamily(ByteBuffer buf) {
+		int qualifiers = buf.getInt();
+		Map<String, byte[]> ret = new HashMap<String, byte[]>(qualifiers*4/3+1);
+		for (int i = 0; i < qualifiers; i++) {
+			String qualifier = readString(buf);
+			int valLength = buf.getInt();
+			byte[] val = null;
+			if (valLength >= 0) {
+				val = new byte[valLength];
+				buf.get(val);
+			}
+			ret.put(qualifier, val);
+		}
+		return ret;
+	}
+
+	private static byte[] toRecord(int hash, byte[] key, Map<String, Map<String, byte[]>> row) {
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bos);
+			out.writeInt(0); // length, set below
+			out.writeInt(hash);
+			out.writeInt(key.length);
+			out.write(key);
+			out.writeInt(row.size());
+			for (Map.Entry<String, Map<String, byte[]>> family : row.entrySet()) {
+				byte[] name = family.getKey().getBytes(UTF8);
+				out.writeInt(name.length);
+				out.write(name);
+				out.writeInt(family.getValue().size());
+				for (Map.Entry<String, byte[]> qualifier : family.getValue().entrySet()) {
+					name = qualifier.getKey().getBytes(UTF8);
+					out.writeInt(name.length);
+					out.write(name);
+					byte[] val = qualifier.getValue();
+					if (val == null) {
+						out.writeInt(-1);
+					} else {
+						out.writeInt(val.length);
+						out.write(val);
+					}
+				}
+			}
+			out.flush();
+			byte[] ret = bos.toByteArray();
+			ByteBuffer.wrap(ret).putInt(0, ret.length);
+			return ret;
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private final long capacity;
+	private final int slabSize;
+	private final Segment[] segments;
+	private final int segmentShift;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public OffHeapCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public OffHeapCache(long capacity) {
+		this(capacity, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	/**
+	 * @param capacity the maximum number of bytes allocated out of the heap by this cache
+	 * @param concurrencyLevel the expected number of threads concurrently using this cache ; rounded to the next power of 2
+	 */
+	public OffHeapCache(long capacity, int concurrencyLevel) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Cache capacity must be positive ; found " + capacity);
+		if (concurrencyLevel <= 0)
+			throw new IllegalArgumentException("Concurrency level must be positive ; found " + concurrencyLevel);
+		int segmentCount = 1, shift = 0;
+		while (segmentCount < concurrencyLevel) {
+			segmentCount <<= 1;
+			shift++;
+		}
+		this.slabSize = (int)Math.max(HEADER_SIZE, Math.min(Integer.MAX_VALUE, capacity / segmentCount / SLABS_PER_SEGMENT));
+		this.capacity = (long)this.slabSize * SLABS_PER_SEGMENT * segmentCount;
+		this.segmentShift = 32 - shift;
+		this.segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			this.segments[i] = new Segment();
+		}
+	}
+
+	private static int hash(String table, String id) {
+		int h = 31*table.hashCode() + id.hashCode();
+		//Spreading bits as in java.util.concurrent.ConcurrentHashMap
+		h += (h <<  15) ^ 0xffffcd7d;
+		h ^= (h >>> 10);
+		h += (h <<   3);
+		h ^= (h >>>  6);
+		h += (h <<   2) + (h << 14);
+		h ^= (h >>> 16);
+		return h;
+	}
+
+	private static byte[] key(String table, String id) {
+		return (table + '\u0000' + id).getBytes(UTF8);
+	}
+
+	private Segment getSegment(int hash) {
+		return this.segmentShift == 32 ? this.segments[0] : this.segments[hash >>> this.segmentShift];
+	}
+
+	/**
+	 * The maximum number of bytes this cache can allocate out of the heap.
+	 */
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * The number of bytes currently allocated out of the heap by this cache.
+	 */
+	public long getAllocatedMemory() {
+		long ret = 0;
+		for (Segment s : this.segments) {
+			s.lock.lock();
+			try {
+				ret += s.allocatedMemory;
+			} finally {
+				s.lock.unlock();
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * The number of bytes used by cached rows.
+	 */
+	public long getUsedMemory() {
+		long ret = 0;
+		for (Segment s : this.segments) {
+			s.lock.lock();
+			try {
+				ret += s.usedMemory;
+			} finally {
+				s.lock.unlock();
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Number of requests that found data in this cache.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Number of requests that did not find data in this cache.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Number of families evicted from this cache due to its capacity.
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Ratio of requests that found data in this cache ; 0 if no request was performed.
+	 */
+	public double getHitRatio() {
+		long h = hits.sum(), total = h + misses.sum();
+		return total == 0 ? 0 : (double)h / total;
+	}
+
+	/**
+	 * Resets hits, misses and evictions counters.
+	 */
+	public void resetCounters() {
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+	}
+
+	@Override
+	public void delete(MetaInformation meta, String table, String key)
+			throws CacheException {
+		int hash = hash(table, key);
+		this.getSegment(hash).delete(hash, key(table, key));
+	}
+
+	@Override
+	public void deleteFamilyData(MetaInformation meta, String table,
+			String key, String family) throws CacheException {
+		int hash = hash(table, key);
+		this.getSegment(hash).put(hash, key(table, key), family, null);
+	}
+
+	@Override
+	public void insertFamilyData(MetaInformation meta, String table,
+			String key, String family, Map<String, byte[]> familyData)
+			throws CacheException {
+		if (familyData == null)
+			familyData = Collections.emptyMap();
+		int hash = hash(table, key);
+		this.getSegment(hash).put(hash, key(table, key), family, familyData);
+	}
+
+	@Override
+	public Map<String, byte[]> getFamilyData(MetaInformation meta,
+			String table, String key, String family) throws CacheException {
+		int hash = hash(table, key);
+		Map<String, byte[]> ret = this.getSegment(hash).get(hash, key(table, key), family.getBytes(UTF8));
+		if (ret == null)
+			misses.increment();
+		else
+			hits.increment();
+		return ret;
+	}
+
+	/**
+	 * The number of cached families ; see {@link #getUsedMemory()} for the
+	 * memory they use.
+	 */
+	@Override
+	public long size() throws CacheException {
+		long ret = 0;
+		for (Segment s : this.segments) {
+			s.lock.lock();
+			try {
+				ret += s.families;
+			} finally {
+				s.lock.unlock();
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Removes all cached data ; allocated memory is kept for later use.
+	 */
+	@Override
+	public void reset() throws CacheException {
+		for (Segment s : this.segments) {
+			s.clear();
+		}
+	}
+
+	@Override
+	public boolean existsData(MetaInformation meta, String table, String id,
+			String family) throws CacheException {
+		int hash = hash(table, id);
+		Map<String, byte[]> data = this.getSegment(hash).get(hash, key(table, id), family.getBytes(UTF8));
+		return data != null && !data.isEmpty();
+	}
+
+}
@@ -0,0 +1,380 @@
+package com.googlecode.n_orm.cache.read;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.googlecode.n_orm.storeapi.CloseableKeyIterator;
+import com.googlecode.n_orm.storeapi.Constraint;
+import com.googlecode.n_orm.storeapi.Row;
+import com.googlecode.n_orm.utils.LongAdder;
+
+/**
+ * Remembers rows returned by a search (see
+ * {@link com.googlecode.n_orm.storeapi.Store#get(com.googlecode.n_orm.storeapi.MetaInformation, String, Constraint, int, Set)})
+ * for a short {@link #getTimeToLiveMs() time}.
+ * A search result is forgotten as soon as a row within its key range is
+ * {@link #invalidate(String, String) changed}. A result is not recorded if
+ * any row of its table was changed while the search was running (see
+ * {@link #getToken(String)}).
+ * Only searches limited to at most {@link #getMaxRows()} rows are cached ;
+ * at most {@link #getMaxSize()} searches are remembered, oldest are forgotten
+ * first.
+ */
+public class ScanCache {
+
+	/**
+	 * Default time to live for a search result: 1s.
+	 */
+	public static final long DEFAULT_TIME_TO_LIVE_MS = 1000;
+
+	/**
+	 * Default maximum number of rows for a cached search result.
+	 */
+	public static final int DEFAULT_MAX_ROWS = 1000;
+
+	private static final class ScanKey {
+		private final String table, startKey, endKey;
+		private final int limit;
+		private final Set<String> families;
+		private final int hash;
+
+		public ScanKey(String table, Constraint c, int limit, Set<String> families) {
+			this.table = table;
+			this.startKey = c == null ? null : c.getStartKey();
+			this.endKey = c == null ? null : c.getEndKey();
+			this.limit = limit;
+			this.families = families == null || families.isEmpty() ? Collections.<String>emptySet() : new TreeSet<String>(families);
+			int h = table.hashCode();
+			h = 31*h + (this.startKey == null ? 0 : this.startKey.hashCode());
+			h = 31*h + (this.endKey == null ? 0 : this.endKey.hashCode());
+			h = 31*h + limit;
+			this.hash = 31*h + this.families.hashCode();
+		}
+
+		private static boolean eq(String s1, String s2) {
+			return s1 == null ? s2 == null : s1.equals(s2);
+		}
+
+		public boolean contains(String id) {
+			return (this.startKey == null || id.compareTo(this.startKey) >= 0)
+					&& (this.endKey == null || id.compareTo(this.endKey) <= 0);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof ScanKey))
+				return false;
+			ScanKey other = (ScanKey) obj;
+			return this.hash == other.hash && this.limit == other.limit
+					&& this.table.equals(other.table)
+					&& eq(this.startKey, other.startKey)
+					&& eq(this.endKey, other.endKey)
+					&& this.families.equals(other.families);
+		}
+	}
+
+	private static final class Result {
+		private final ScanKey key;
+		private final List<Row> rows;
+		private final long expiresAt;
+
+		public Result(ScanKey key, List<Row> rows, long expiresAt) {
+			this.key = key;
+			this.rows = rows;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * Iterates over a cached search result.
+	 */
+	private static final class ResultIterator implements CloseableKeyIterator {
+		private final Iterator<Row> it;
+
+		public ResultIterator(List<Row> rows) {
+			this.it = rows.iterator();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return this.it.hasNext();
+		}
+
+		@Override
+		public Row next() {
+			return this.it.next();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private final ConcurrentMap<ScanKey, Result> results = new ConcurrentHashMap<ScanKey, Result>();
+	private final ConcurrentMap<String, Set<ScanKey>> resultsByTable = new ConcurrentHashMap<String, Set<ScanKey>>();
+	private final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<String, AtomicLong>();
+	/**
+	 * Recorded results, oldest first ; may contain results already forgotten
+	 */
+	private final ConcurrentLinkedQueue<Result> insertionOrder = new ConcurrentLinkedQueue<Result>();
+	/**
+	 * Number of results in {@link #insertionOrder} that are still remembered
+	 */
+	private final AtomicInteger insertionOrderSize = new AtomicInteger();
+	private final int maxSize;
+	private final int maxRows;
+	private final long timeToLiveMs;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	public ScanCache(int maxSize) {
+		this(maxSize, DEFAULT_TIME_TO_LIVE_MS, DEFAULT_MAX_ROWS);
+	}
+
+	public ScanCache(int maxSize, long timeToLiveMs, int maxRows) {
+		if (maxSize <= 0)
+			throw new IllegalArgumentException("Scan cache size must be positive ; found " + maxSize);
+		if (timeToLiveMs <= 0)
+			throw new IllegalArgumentException("Scan cache time to live must be positive ; found " + timeToLiveMs);
+		if (maxRows <= 0)
+			throw new IllegalArgumentException("Scan cache maximum number of rows must be positive ; found " + maxRows);
+		this.maxSize = maxSize;
+		this.timeToLiveMs = timeToLiveMs;
+		this.maxRows = maxRows;
+	}
+
+	/**
+	 * The maximum number of remembered search results.
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * The maximum limit of a search for its result to be cached.
+	 */
+	public int getMaxRows() {
+		return maxRows;
+	}
+
+	/**
+	 * For how long a search result is remembered.
+	 */
+	public long getTimeToLiveMs() {
+		return timeToLiveMs;
+	}
+
+	/**
+	 * Number of search results currently remembered.
+	 */
+	public int size() {
+		return this.results.size();
+	}
+
+	/**
+	 * Number of searches answered from this cache.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Number of cacheable searches not answered from this cache.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Number of search results forgotten due to a change in their key range.
+	 */
+	public long getInvalidations() {
+		return invalidations.sum();
+	}
+
+	/**
+	 * Resets hits, misses and invalidations counters.
+	 */
+	public void resetCounters() {
+		hits.reset();
+		misses.reset();
+		invalidations.reset();
+	}
+
+	/**
+	 * Whether the result of a search can be cached.
+	 * Constraints of specialized types are not cached as their meaning is unknown.
+	 */
+	public boolean isCacheable(Constraint c, int limit) {
+		return limit <= this.maxRows && (c == null || c.getClass() == Constraint.class);
+	}
+
+	private AtomicLong getVersion(String table) {
+		AtomicLong ret = this.versions.get(table);
+		if (ret == null) {
+			ret = new AtomicLong();
+			AtomicLong old = this.versions.putIfAbsent(table, ret);
+			if (old != null)
+				ret = old;
+		}
+		return ret;
+	}
+
+	/**
+	 * The cached result of a search ; null if not found.
+	 */
+	public CloseableKeyIterator get(String table, Constraint c, int limit, Set<String> families) {
+		ScanKey key = new ScanKey(table, c, limit, families);
+		Result r = this.results.get(key);
+		if (r != null && r.expiresAt <= System.currentTimeMillis()) {
+			this.remove(r);
+			r = null;
+		}
+		if (r == null) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return new ResultIterator(r.rows);
+	}
+
+	/**
+	 * An iterator over rows, as returned by {@link #get(String, Constraint, int, Set)}.
+	 */
+	static CloseableKeyIterator iterator(List<Row> rows) {
+		return new ResultIterator(rows);
+	}
+
+	/**
+	 * To be called before searching a table whose result may be recorded afterwards.
+	 */
+	public long getToken(String table) {
+		return this.getVersion(table).get();
+	}
+
+	/**
+	 * Records the result of a search.
+	 * @param rows rows found by the search ; must not be modified afterwards
+	 * @param token as returned by {@link #getToken(String)} before the data store was requested
+	 */
+	public void record(String table, Constraint c, int limit, Set<String> families, List<Row> rows, long token) {
+		AtomicLong version = this.getVersion(table);
+		if (version.get() != token)
+			return;
+
+		ScanKey key = new ScanKey(table, c, limit, families);
+		Result r = new Result(key, Collections.unmodifiableList(rows), System.currentTimeMillis() + this.timeToLiveMs);
+		Set<ScanKey> tableKeys = this.resultsByTable.get(table);
+		if (tableKeys == null) {
+			tableKeys = new HashSet<ScanKey>();
+			Set<ScanKey> old = this.resultsByTable.putIfAbsent(table, tableKeys);
+			if (old != null)
+				tableKeys = old;
+		}
+		synchronized(tableKeys) {
+			tableKeys.add(key);
+			// A replaced result is not remembered anymore
+			if (this.results.put(key, r) == null)
+				this.insertionOrderSize.incrementAndGet();
+			this.insertionOrder.add(r);
+		}
+
+		// A change happened meanwhile
+		if (version.get() != token) {
+			this.remove(r);
+			return;
+		}
+
+		// Forgetting oldest results ; results already forgotten or expired are dropped on the way
+		long now = System.currentTimeMillis();
+		Result eldest;
+		while ((eldest = this.insertionOrder.peek()) != null) {
+			boolean remembered = this.results.get(eldest.key) == eldest;
+			if (remembered && eldest.expiresAt > now && this.insertionOrderSize.get() <= this.maxSize)
+				break;
+			if (this.insertionOrder.remove(eldest) && remembered)
+				this.remove(eldest);
+		}
+	}
+
+	private void remove(Result r) {
+		Set<ScanKey> tableKeys = this.resultsByTable.get(r.key.table);
+		if (tableKeys == null) {
+			if (this.results.remove(r.key, r))
+				this.insertionOrderSize.decrementAndGet();
+			return;
+		}
+		synchronized(tableKeys) {
+			if (this.results.remove(r.key, r)) {
+				tableKeys.remove(r.key);
+				this.insertionOrderSize.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Forgets search results whose key range contains a row ; to be called
+	 * once the row was changed in the data store.
+	 */
+	public void invalidate(String table, String id) {
+		this.getVersion(table).incrementAndGet();
+		Set<ScanKey> tableKeys = this.resultsByTable.get(table);
+		if (tableKeys == null)
+			return;
+		synchronized(tableKeys) {
+			Iterator<ScanKey> it = tableKeys.iterator();
+			while (it.hasNext()) {
+				ScanKey key = it.next();
+				if (key.contains(id)) {
+					it.remove();
+					if (this.results.remove(key) != null) {
+						this.insertionOrderSize.decrementAndGet();
+						invalidations.increment();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forgets all search results.
+	 */
+	public void reset() {
+		for (AtomicLong version : this.versions.values()) {
+			version.incrementAndGet();
+		}
+		for (Set<ScanKey> tableKeys : this.resultsByTable.values()) {
+			synchronized(tableKeys) {
+				for (ScanKey key : tableKeys) {
+					if (this.results.remove(key) != null)
+						this.insertionOrderSize.decrementAndGet();
+				}
+				tableKeys.clear();
+			}
+		}
+		this.insertionOrder.clear();
+	}
+}
@@ -0,0 +1,286 @@
+package com.googlecode.n_orm.cache.write;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+
+import com.googlecode.n_orm.utils.LongAdder;
+
+/**
+ * A bounded pool of threads sending retained writes to data stores.
+ * Sends are queued per table, and ordered by due time within a table.
+ * An idle thread picks a send from the table with the fewest sends running, and then from
+ * the table that was served least recently, so that a table with many
+ * due writes cannot starve other tables.
+ * Threads are started on demand up to {@link #getMaxThreads()}, and stop after being idle for
+ * {@link #getKeepAliveMs()}.
+ */
+class SenderPool {
+
+	private static final class Task implements Comparable<Task> {
+		private final String table;
+		private final long dueMs;
+		private final long seq;
+		private final Runnable action;
+
+		public Task(String table, long dueMs, long seq, Runnable action) {
+			this.table = table;
+			this.dueMs = dueMs;
+			this.seq = seq;
+			this.action = action;
+		}
+
+		@Override
+		public int compareTo(Task o) {
+			if (this.dueMs != o.dueMs)
+				return this.dueMs < o.dueMs ? -1 : 1;
+			return this.seq < o.seq ? -1 : (this.seq == o.seq ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Sends queued or running for a table ; guarded by the pool
+	 */
+	private static final class TableQueue {
+		private final PriorityQueue<Task> tasks = new PriorityQueue<Task>();
+		private int running = 0;
+		private long lastServed = 0;
+	}
+
+	/**
+	 * Lag metrics for a table
+	 */
+	private static final class TableMetrics {
+		private final LongAdder cumulativeLagMs = new LongAdder();
+		private final LongAdder lagSamples = new LongAdder();
+		private volatile long lastLagMs = 0;
+	}
+
+	private final String threadName;
+	private final long keepAliveMs;
+	private volatile int maxThreads;
+
+	private final Map<String, TableQueue> queues = new HashMap<String, TableQueue>();
+	private final ConcurrentMap<String, TableMetrics> metrics = new ConcurrentHashMap<String, TableMetrics>();
+	private int queued = 0;
+	private int running = 0;
+	private int threads = 0;
+	private long seq = 0;
+	private long threadNumber = 0;
+
+	public SenderPool(String threadName, int maxThreads, long keepAliveMs) {
+		if (maxThreads <= 0)
+			throw new IllegalArgumentException("Sender pool needs at least one thread ; found " + maxThreads);
+		this.threadName = threadName;
+		this.maxThreads = maxThreads;
+		this.keepAliveMs = keepAliveMs;
+	}
+
+	/**
+	 * Maximum number of threads running sends at the same time.
+	 */
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	/**
+	 * Maximum number of threads running sends at the same time.
+	 * Lowering this value does not interrupt running sends.
+	 */
+	public synchronized void setMaxThreads(int maxThreads) {
+		if (maxThreads <= 0)
+			throw new IllegalArgumentException("Sender pool needs at least one thread ; found " + maxThreads);
+		this.maxThreads = maxThreads;
+		this.startThreadsIfNecessary();
+		this.notifyAll();
+	}
+
+	/**
+	 * Time after which an idle thread stops.
+	 */
+	public long getKeepAliveMs() {
+		return keepAliveMs;
+	}
+
+	/**
+	 * Queues a send.
+	 * @param table the table the send is about ; used for fair scheduling
+	 * @param dueMs the time at which the send should have happened
+	 */
+	public synchronized void submit(String table, long dueMs, Runnable action) {
+		TableQueue q = this.queues.get(table);
+		if (q == null) {
+			q = new TableQueue();
+			this.queues.put(table, q);
+		}
+		q.tasks.add(new Task(table, dueMs, this.seq++, action));
+		this.queued++;
+		this.startThreadsIfNecessary();
+		this.notifyAll();
+	}
+
+	private void startThreadsIfNecessary() {
+		// Threads not running a send are about to pick a queued one
+		while (this.threads < this.maxThreads && this.threads - this.running < this.queued) {
+			this.threads++;
+			Thread t = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					work();
+				}
+			}, this.threadName + " #" + this.threadNumber++);
+			t.setDaemon(false);
+			t.start();
+		}
+	}
+
+	/**
+	 * Picks the next send: from the table with fewest running sends, then least recently served,
+	 * then with the earliest due send ; must be called while holding the pool lock.
+	 */
+	private Task poll() {
+		TableQueue best = null;
+		for (TableQueue q : this.queues.values()) {
+			if (q.tasks.isEmpty())
+				continue;
+			if (best == null || q.running < best.running
+					|| (q.running == best.running && (q.lastServed < best.lastServed
+							|| (q.lastServed == best.lastServed && q.tasks.peek().compareTo(best.tasks.peek()) < 0)))) {
+				best = q;
+			}
+		}
+		if (best == null)
+			return null;
+		Task ret = best.tasks.poll();
+		best.running++;
+		best.lastServed = this.seq++;
+		this.queued--;
+		return ret;
+	}
+
+	private void work() {
+		while (true) {
+			Task t;
+			synchronized (this) {
+				long idleSince = System.currentTimeMillis();
+				while (true) {
+					if (this.threads > this.maxThreads) {
+						this.threads--;
+						return;
+					}
+					if (this.running < this.maxThreads && (t = this.poll()) != null) {
+						this.running++;
+						break;
+					}
+					long wait = idleSince + this.keepAliveMs - System.currentTimeMillis();
+					if (wait <= 0 && this.queued == 0) {
+						this.threads--;
+						return;
+					}
+					try {
+						this.wait(Math.max(1, wait));
+					} catch (InterruptedException x) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+
+			try {
+				long lag = Math.max(0, System.currentTimeMillis() - t.dueMs);
+				TableMetrics m = this.getMetrics(t.table, true);
+				m.lastLagMs = lag;
+				m.cumulativeLagMs.add(lag);
+				m.lagSamples.increment();
+				t.action.run();
+			} catch (Throwable x) {
+				WriteRetentionStore.logger.log(Level.SEVERE, "Problem while sending request out of write cache for table " + t.table + ": " + x.getMessage(), x);
+			} finally {
+				synchronized (this) {
+					this.running--;
+					TableQueue q = this.queues.get(t.table);
+					q.running--;
+					if (q.running == 0 && q.tasks.isEmpty())
+						this.queues.remove(t.table);
+					this.notifyAll();
+				}
+			}
+		}
+	}
+
+	private TableMetrics getMetrics(String table, boolean create) {
+		TableMetrics ret = this.metrics.get(table);
+		if (ret == null && create) {
+			ret = new TableMetrics();
+			TableMetrics old = this.metrics.putIfAbsent(table, ret);
+			if (old != null)
+				ret = old;
+		}
+		return ret;
+	}
+
+	/**
+	 * Number of sends waiting for a thread.
+	 */
+	public synchronized int getQueueDepth() {
+		return this.queued;
+	}
+
+	/**
+	 * Number of sends waiting for a thread for the given table.
+	 */
+	public synchronized int getQueueDepth(String table) {
+		TableQueue q = this.queues.get(table);
+		return q == null ? 0 : q.tasks.size();
+	}
+
+	/**
+	 * Number of sends running.
+	 */
+	public synchronized int getActiveCount() {
+		return this.running;
+	}
+
+	/**
+	 * Number of live threads, either running or idle.
+	 */
+	public synchronized int getThreadCount() {
+		return this.threads;
+	}
+
+	/**
+	 * Ratio of {@link #getMaxThreads() threads} running sends.
+	 */
+	public synchronized double getUtilization() {
+		return (double)this.running / (double)this.maxThreads;
+	}
+
+	/**
+	 * Time between due time and start time of the last send for the given table.
+	 */
+	public long getLastLagMs(String table) {
+		TableMetrics m = this.getMetrics(table, false);
+		return m == null ? 0 : m.lastLagMs;
+	}
+
+	/**
+	 * Average time between due time and start time of sends for the given table.
+	 */
+	public long getAverageLagMs(String table) {
+		TableMetrics m = this.getMetrics(table, false);
+		if (m == null)
+			return 0;
+		long samples = m.lagSamples.sum();
+		return samples == 0 ? 0 : m.cumulativeLagMs.sum() / samples;
+	}
+
+	/**
+	 * Resets lag metrics.
+	 */
+	public void resetLagMetrics() {
+		this.metrics.clear();
+	}
+}
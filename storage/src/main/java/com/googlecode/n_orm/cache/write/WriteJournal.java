@@ -0,0 +1,548 @@
+package com.googlecode.n_orm.cache.write;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+import com.googlecode.n_orm.DatabaseNotReachedException;
+import com.googlecode.n_orm.storeapi.DefaultColumnFamilyData;
+import com.googlecode.n_orm.storeapi.Row.ColumnFamilyData;
+import com.googlecode.n_orm.storeapi.Store;
+
+/**
+ * An append-only journal for writes retained by a {@link WriteRetentionStore}.
+ * Records are appended to memory-mapped segment files in a
+ * {@link #getDirectory() directory} ; a segment is deleted once all writes it
+ * records were sent to the actual store, and further records go to a new segment.
+ * A record is marked as done in its segment as soon as it is {@link #delivered(Collection) delivered}, or
+ * once a later write for the same row is delivered in case its own send {@link #failed(Collection) failed},
+ * so that a segment kept for other records does not replay it. Writes not done found in the directory when
+ * the journal is {@link #replay(Store) replayed} are sent to the given store,
+ * which happens when the write-retention store is started.
+ * <p>Appended records are made durable using {@link #sync(long) group commit}:
+ * a single thread forces segments to disk for all writers waiting at the same time.</p>
+ * <p>Delivery is at-least-once: a write sent to the actual store just before a
+ * crash can be replayed ; increments are thus not idempotent across crashes.
+ * Meta information is not journaled, so that replayed writes are sent with a null
+ * {@link com.googlecode.n_orm.storeapi.MetaInformation}.
+ * A directory must be used by a single journal at a time.</p>
+ */
+public class WriteJournal {
+
+	/**
+	 * Default size for a segment file: 16MB.
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 16*1024*1024;
+
+	private static final String SEGMENT_SUFFIX = ".journal";
+
+	private static final byte UPDATE = 1;
+	private static final byte DELETE = 2;
+
+	/**
+	 * Record header: length, checksum, and status (not covered by the checksum)
+	 */
+	private static final int HEADER_SIZE = 9;
+	private static final int STATUS_OFFSET = 8;
+
+	private static final byte PENDING = 0;
+	/**
+	 * Status of a record that was delivered or superseded by a later delivered write for the same row
+	 */
+	private static final byte DONE = 1;
+
+	/**
+	 * A segment file.
+	 */
+	class Segment {
+		private final File file;
+		private volatile MappedByteBuffer buffer;
+
+		/**
+		 * Number of references from requests not sent yet
+		 */
+		private final AtomicInteger pending = new AtomicInteger();
+
+		private volatile boolean deleted = false;
+
+		private Segment(long number, int size) throws IOException {
+			this.file = new File(directory, String.format("%020d", number) + SEGMENT_SUFFIX);
+			RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+			try {
+				this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			} finally {
+				raf.close();
+			}
+		}
+
+		/**
+		 * Called once a record appended to this segment is done ;
+		 * to be called once per append.
+		 */
+		private void release() {
+			if (this.pending.decrementAndGet() == 0)
+				drained(this);
+		}
+
+		private synchronized void delete() {
+			if (this.deleted || this.pending.get() != 0)
+				return;
+			this.deleted = true;
+			this.buffer = null;
+			if (!this.file.delete())
+				WriteRetentionStore.logger.warning("Could not delete journal segment " + this.file);
+		}
+
+		@Override
+		public String toString() {
+			return "journal segment " + this.file;
+		}
+	}
+
+	/**
+	 * A record appended to a segment.
+	 */
+	class Record {
+		private final Segment segment;
+		private final int position;
+		private final String table, id;
+
+		private Record(Segment segment, int position, String table, String id) {
+			this.segment = segment;
+			this.position = position;
+			this.table = table;
+			this.id = id;
+		}
+
+		/**
+		 * The segment this record was appended to.
+		 */
+		Segment getSegment() {
+			return segment;
+		}
+
+		/**
+		 * Marks this record so that it is not replayed ; must be called once within a journal lock.
+		 */
+		private void done() {
+			MappedByteBuffer buf = this.segment.buffer;
+			if (buf != null)
+				buf.put(this.position + STATUS_OFFSET, DONE);
+			this.segment.release();
+		}
+	}
+
+	private final File directory;
+	private final int segmentSize;
+
+	/**
+	 * Segment to which records are appended ; null if not open yet
+	 */
+	private Segment current = null;
+	private long nextSegmentNumber = 0;
+
+	/**
+	 * Number of bytes appended since journal was open
+	 */
+	private long appended = 0;
+
+	/**
+	 * Segments with records appended since last sync
+	 */
+	private final List<Segment> unsynced = new ArrayList<Segment>();
+
+	/**
+	 * Records whose send failed, by table and row ; replayed unless a later write for the same row is delivered
+	 */
+	private final Map<String, Map<String, List<Record>>> failed = new TreeMap<String, Map<String, List<Record>>>();
+
+	/**
+	 * Monitor for group commit
+	 */
+	private final Object syncMonitor = new Object();
+	private long synced = 0;
+
+	public WriteJournal(File directory) {
+		this(directory, DEFAULT_SEGMENT_SIZE);
+	}
+
+	public WriteJournal(File directory, int segmentSize) {
+		if (segmentSize <= HEADER_SIZE)
+			throw new IllegalArgumentException("Journal segment size is too small: " + segmentSize);
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * The directory where segments are stored.
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * The size of a segment file.
+	 */
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+
+	private File[] listSegmentFiles() {
+		File[] ret = this.directory.listFiles(new FileFilter() {
+
+			@Override
+			public boolean accept(File f) {
+				return f.isFile() && f.getName().endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		if (ret == null)
+			return new File[0];
+		Arrays.sort(ret, new Comparator<File>() {
+
+			@Override
+			public int compare(File f1, File f2) {
+				return f1.getName().compareTo(f2.getName());
+			}
+		});
+		return ret;
+	}
+
+	/**
+	 * Sends all writes found in the {@link #getDirectory() directory} to the given store
+	 * and deletes segments.
+	 * Must be called before anything is appended.
+	 * @return the number of replayed writes
+	 */
+	public synchronized int replay(Store store) throws DatabaseNotReachedException {
+		if (this.current != null)
+			throw new IllegalStateException("Cannot replay " + this + " as it is already open");
+		if (!this.directory.isDirectory() && !this.directory.mkdirs())
+			throw new DatabaseNotReachedException("Cannot create journal directory " + this.directory);
+
+		int ret = 0;
+		for (File f : this.listSegmentFiles()) {
+			try {
+				String name = f.getName();
+				this.nextSegmentNumber = Math.max(this.nextSegmentNumber, Long.parseLong(name.substring(0, name.length()-SEGMENT_SUFFIX.length()))+1);
+			} catch (NumberFormatException x) {
+				WriteRetentionStore.logger.warning("Unexpected journal segment " + f);
+				continue;
+			}
+
+			byte[] content;
+			try {
+				RandomAccessFile raf = new RandomAccessFile(f, "r");
+				try {
+					content = new byte[(int)raf.length()];
+					raf.readFully(content);
+				} finally {
+					raf.close();
+				}
+			} catch (IOException x) {
+				throw new DatabaseNotReachedException(x);
+			}
+
+			ret += replay(store, f, content);
+
+			if (!f.delete())
+				throw new DatabaseNotReachedException("Cannot delete replayed journal segment " + f);
+		}
+		return ret;
+	}
+
+	private static int replay(Store store, File f, byte[] content) {
+		int ret = 0;
+		int pos = 0;
+		CRC32 crc = new CRC32();
+		while (pos + HEADER_SIZE <= content.length) {
+			int length = readInt(content, pos);
+			int checksum = readInt(content, pos+4);
+			// A zero length marks the end of written records
+			if (length <= 0 || pos + HEADER_SIZE + length > content.length)
+				break;
+			if (content[pos+STATUS_OFFSET] == DONE) {
+				pos += HEADER_SIZE + length;
+				continue;
+			}
+			crc.reset();
+			crc.update(content, pos+HEADER_SIZE, length);
+			if ((int)crc.getValue() != checksum) {
+				WriteRetentionStore.logger.warning("Corrupted record found in " + f + " at position " + pos + " ; ignoring end of segment");
+				break;
+			}
+
+			try {
+				DataInputStream in = new DataInputStream(new ByteArrayInputStream(content, pos+HEADER_SIZE, length));
+				byte type = in.readByte();
+				String table = in.readUTF();
+				String id = in.readUTF();
+				if (type == DELETE) {
+					store.delete(null, table, id);
+				} else {
+					ColumnFamilyData changed = new DefaultColumnFamilyData();
+					for (int i = in.readInt(); i > 0; i--) {
+						Map<String, byte[]> fam = new TreeMap<String, byte[]>();
+						changed.put(in.readUTF(), fam);
+						for (int j = in.readInt(); j > 0; j--) {
+							String col = in.readUTF();
+							int len = in.readInt();
+							byte[] val = null;
+							if (len >= 0) {
+								val = new byte[len];
+								in.readFully(val);
+							}
+							fam.put(col, val);
+						}
+					}
+					Map<String, Set<String>> removed = new TreeMap<String, Set<String>>();
+					for (int i = in.readInt(); i > 0; i--) {
+						Set<String> fam = new TreeSet<String>();
+						removed.put(in.readUTF(), fam);
+						for (int j = in.readInt(); j > 0; j--) {
+							fam.add(in.readUTF());
+						}
+					}
+					Map<String, Map<String, Number>> increments = new TreeMap<String, Map<String, Number>>();
+					for (int i = in.readInt(); i > 0; i--) {
+						Map<String, Number> fam = new TreeMap<String, Number>();
+						increments.put(in.readUTF(), fam);
+						for (int j = in.readInt(); j > 0; j--) {
+							String col = in.readUTF();
+							fam.put(col, in.readLong());
+						}
+					}
+					store.storeChanges(null, table, id, changed, removed, increments);
+				}
+				ret++;
+			} catch (IOException x) {
+				WriteRetentionStore.logger.log(Level.WARNING, "Unreadable record found in " + f + " at position " + pos + " ; ignoring end of segment", x);
+				break;
+			}
+
+			pos += HEADER_SIZE + length;
+		}
+		return ret;
+	}
+
+	private static int readInt(byte[] b, int pos) {
+		return ((b[pos] & 0xff) << 24) | ((b[pos+1] & 0xff) << 16) | ((b[pos+2] & 0xff) << 8) | (b[pos+3] & 0xff);
+	}
+
+	/**
+	 * Appends a row update.
+	 * @return the appended record ; {@link #delivered(Collection)} or {@link #failed(Collection)} must be called once sent
+	 */
+	Record appendUpdate(String table, String id, ColumnFamilyData changed,
+			Map<String, Set<String>> removed,
+			Map<String, Map<String, Number>> increments) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(UPDATE);
+			out.writeUTF(table);
+			out.writeUTF(id);
+			if (changed == null) {
+				out.writeInt(0);
+			} else {
+				out.writeInt(changed.size());
+				for (Entry<String, Map<String, byte[]>> fam : changed.entrySet()) {
+					out.writeUTF(fam.getKey());
+					out.writeInt(fam.getValue().size());
+					for (Entry<String, byte[]> col : fam.getValue().entrySet()) {
+						out.writeUTF(col.getKey());
+						byte[] val = col.getValue();
+						if (val == null) {
+							out.writeInt(-1);
+						} else {
+							out.writeInt(val.length);
+							out.write(val);
+						}
+					}
+				}
+			}
+			if (removed == null) {
+				out.writeInt(0);
+			} else {
+				out.writeInt(removed.size());
+				for (Entry<String, Set<String>> fam : removed.entrySet()) {
+					out.writeUTF(fam.getKey());
+					out.writeInt(fam.getValue().size());
+					for (String col : fam.getValue()) {
+						out.writeUTF(col);
+					}
+				}
+			}
+			if (increments == null) {
+				out.writeInt(0);
+			} else {
+				out.writeInt(increments.size());
+				for (Entry<String, Map<String, Number>> fam : increments.entrySet()) {
+					out.writeUTF(fam.getKey());
+					out.writeInt(fam.getValue().size());
+					for (Entry<String, Number> col : fam.getValue().entrySet()) {
+						out.writeUTF(col.getKey());
+						out.writeLong(col.getValue().longValue());
+					}
+				}
+			}
+			out.flush();
+			return this.append(table, id, bytes.toByteArray());
+		} catch (IOException x) {
+			throw new DatabaseNotReachedException(x);
+		}
+	}
+
+	/**
+	 * Appends a row delete.
+	 * @return the appended record ; {@link #delivered(Collection)} or {@link #failed(Collection)} must be called once sent
+	 */
+	Record appendDelete(String table, String id) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(DELETE);
+			out.writeUTF(table);
+			out.writeUTF(id);
+			out.flush();
+			return this.append(table, id, bytes.toByteArray());
+		} catch (IOException x) {
+			throw new DatabaseNotReachedException(x);
+		}
+	}
+
+	private synchronized Record append(String table, String id, byte[] record) throws IOException {
+		int size = HEADER_SIZE + record.length;
+		if (this.current == null || this.current.buffer.remaining() < size) {
+			if (this.current != null) {
+				Segment old = this.current;
+				if (old.pending.get() == 0)
+					old.delete();
+			} else if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+				throw new IOException("Cannot create journal directory " + this.directory);
+			}
+			this.current = new Segment(this.nextSegmentNumber++, Math.max(this.segmentSize, size));
+		}
+		CRC32 crc = new CRC32();
+		crc.update(record);
+		MappedByteBuffer buf = this.current.buffer;
+		int position = buf.position();
+		buf.putInt(record.length);
+		buf.putInt((int)crc.getValue());
+		buf.put(PENDING);
+		buf.put(record);
+		this.appended += size;
+		this.current.pending.incrementAndGet();
+		if (this.unsynced.isEmpty() || this.unsynced.get(this.unsynced.size()-1) != this.current)
+			this.unsynced.add(this.current);
+		return new Record(this.current, position, table, id);
+	}
+
+	/**
+	 * Called once records for a row were sent to the actual store: they are not replayed anymore,
+	 * and neither are records for the same row whose send previously {@link #failed(Collection) failed}
+	 * as they are superseded.
+	 */
+	synchronized void delivered(Collection<Record> records) {
+		for (Record r : records) {
+			Map<String, List<Record>> tableFailed = this.failed.get(r.table);
+			List<Record> superseded = tableFailed == null ? null : tableFailed.remove(r.id);
+			if (superseded != null) {
+				for (Record s : superseded) {
+					s.done();
+				}
+				if (tableFailed.isEmpty())
+					this.failed.remove(r.table);
+			}
+			r.done();
+		}
+	}
+
+	/**
+	 * Called in case records for a row could not be sent to the actual store: they are kept so that they are
+	 * replayed on next start unless a later write for the same row is {@link #delivered(Collection) delivered}.
+	 */
+	synchronized void failed(Collection<Record> records) {
+		for (Record r : records) {
+			Map<String, List<Record>> tableFailed = this.failed.get(r.table);
+			if (tableFailed == null) {
+				tableFailed = new TreeMap<String, List<Record>>();
+				this.failed.put(r.table, tableFailed);
+			}
+			List<Record> rowFailed = tableFailed.get(r.id);
+			if (rowFailed == null) {
+				rowFailed = new LinkedList<Record>();
+				tableFailed.put(r.id, rowFailed);
+			}
+			rowFailed.add(r);
+		}
+	}
+
+	/**
+	 * Deletes a segment whose records were all sent ; next records are appended to a new segment.
+	 */
+	private synchronized void drained(Segment segment) {
+		if (segment.pending.get() != 0)
+			return;
+		if (this.current == segment)
+			this.current = null;
+		segment.delete();
+	}
+
+	/**
+	 * Number of bytes appended so far ; to be given to {@link #sync(long)}.
+	 */
+	synchronized long getAppended() {
+		return this.appended;
+	}
+
+	/**
+	 * Waits for records appended up to position to be on disk.
+	 * The thread that gets the sync monitor forces segments to disk for all records
+	 * appended so far, so that threads waiting meanwhile usually need not force anymore.
+	 */
+	void sync(long position) {
+		synchronized(this.syncMonitor) {
+			if (this.synced >= position)
+				return;
+			long target;
+			List<Segment> toSync;
+			synchronized(this) {
+				target = this.appended;
+				toSync = new ArrayList<Segment>(this.unsynced);
+				this.unsynced.clear();
+			}
+			for (Segment s : toSync) {
+				MappedByteBuffer buf = s.buffer;
+				if (buf != null)
+					buf.force();
+			}
+			this.synced = target;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "write journal in " + this.directory;
+	}
+}
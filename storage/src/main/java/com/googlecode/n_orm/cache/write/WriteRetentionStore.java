@@ -1,32 +1,30 @@
 package com.googlecode.n_orm.cache.write;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ConcurrentNavigableMap;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.Delayed;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,11 +35,13 @@ import com.googlecode.n_orm.PersistingMixin;
 import com.googlecode.n_orm.StoreSelector;
 import com.googlecode.n_orm.Transient;
 import com.googlecode.n_orm.conversion.ConversionTools;
+import com.googlecode.n_orm.storeapi.Constraint;
 import com.googlecode.n_orm.storeapi.DefaultColumnFamilyData;
 import com.googlecode.n_orm.storeapi.DelegatingStore;
 import com.googlecode.n_orm.storeapi.MetaInformation;
 import com.googlecode.n_orm.storeapi.Store;
 import com.googlecode.n_orm.storeapi.Row.ColumnFamilyData;
+import com.googlecode.n_orm.storeapi.RowChanges;
 import com.googlecode.n_orm.utils.LongAdder;
 
 /**
@@ -57,11 +57,22 @@ import com.googlecode.n_orm.utils.LongAdder;
  * As an example, if a persisting element is stored at time t1, changed and stored again at time t2
  * such that t2-t1 is less than the {@link #getWriteRetentionMs() retention time}, only one store request
  * is issued to the {@link #getActualStore() actual store}, after t1+{@link #getWriteRetentionMs() retention time}.</p>
- * <p>Reads (as {@link #get(MetaInformation, String, String, Set)}, {@link PersistingElement#activate(String...)})
- * do not explore data "retended" here. As a example, activating, changing, storing, and then
- * activating again a persisting element using this kind of store can re-activate it as it was before the change.
- * Same remark holds for testing an element of existence, counting element, or getting a list of elements
- * that match criteria.</p>
+ * <p>Row reads (gets of a {@link #get(MetaInformation, String, String, String, String) column},
+ * a {@link #get(MetaInformation, String, String, String) family}, a {@link #get(MetaInformation, String, String, Set) row}
+ * or {@link #get(MetaInformation, String, Collection, Set) rows}, and {@link #exists(MetaInformation, String, String) existence tests})
+ * take retained changes into account, including those being sent: retained changes are overlaid on data read from
+ * the {@link #getActualStore() actual store}, which is not even requested in case retained changes are enough
+ * (e.g. a column set or a row deleted since last send).
+ * However, counting elements or getting a list of elements that match criteria do not explore data "retended" here.</p>
+ * <p>Due requests for rows of the same table can be sent together in a single
+ * {@link Store#storeChanges(List) multi-row store} by setting {@link #setMaxBatchSize(int)} above 1.</p>
+ * <p>Retained data can be bounded using {@link #setMaxRetainedRequests(long)} and
+ * {@link #setMaxRetainedBytes(long)} ; once reached, writers are either blocked until retained data is sent,
+ * or {@link #setBlockingWhenFull(boolean) written through}.
+ * {@link #getRetainedBytes()} and {@link #getBlockedTimeMs()} help sizing those limits.</p>
+ * <p>Retention time can be made {@link #setAdaptiveRetention(String, long, long) adaptive} so that
+ * frequently updated rows are retained longer than rarely updated ones.</p>
+ * <p>Retained writes can be made durable using a {@link #setJournal(WriteJournal) journal}.</p>
  * <p>This store can be deactivated ; in the latter case, it merely acts as a delegating store with no delay.
  * To en/de-activate, use {@link #setEnabledByDefault(boolean)}. A thread can anyway be authorized to activate for
  * itself (and only itself) any de-activated write retention store if calling before
@@ -137,6 +148,66 @@ public class WriteRetentionStore extends DelegatingStore {
 	 */
 	private static volatile int MAX_SENDER_THREADS = 20;
 	
+	/**
+	 * Threads sending requests to store, shared by all write-retention stores
+	 */
+	private static final SenderPool senders = new SenderPool("n-orm write cache sender", MAX_SENDER_THREADS, 5000);
+	
+	/**
+	 * Maximum number of prepared sends waiting for a sender thread
+	 */
+	private static volatile int MAX_QUEUED_SENDS = 100;
+	
+	/**
+	 * Maximum number of requests sent at once to a store for a given table ; 1 means no batching
+	 */
+	private static volatile int MAX_BATCH_SIZE = 1;
+	
+	/**
+	 * Maximum time a due request can wait for other requests to be sent in the same batch
+	 */
+	private static volatile long MAX_BATCH_LATENCY_MS = 0;
+	
+	/**
+	 * Maximum number of retained requests before writers are blocked or written through
+	 */
+	private static volatile long MAX_RETAINED_REQUESTS = Long.MAX_VALUE;
+	
+	/**
+	 * Maximum (estimated) size in bytes of retained data before writers are blocked or written through
+	 */
+	private static volatile long MAX_RETAINED_BYTES = Long.MAX_VALUE;
+	
+	/**
+	 * Whether writers should be blocked (or written through) when retention is full
+	 */
+	private static volatile boolean blockingWhenFull = true;
+	
+	/**
+	 * Number of retained requests, i.e. rows with retained writes
+	 */
+	private static final AtomicLong retainedRequests = new AtomicLong();
+	
+	/**
+	 * Estimated size in bytes of retained data
+	 */
+	private static final LongAdder retainedBytes = new LongAdder();
+	
+	/**
+	 * Number of writers waiting for retained data to be sent
+	 */
+	private static final AtomicLong blockedWriters = new AtomicLong();
+	
+	/**
+	 * Cumulative time writers spent waiting for retained data to be sent
+	 */
+	private static final LongAdder blockedTimeMs = new LongAdder();
+	
+	/**
+	 * Monitor on which blocked writers wait
+	 */
+	private static final Object capacityMonitor = new Object();
+	
 	/**
 	 * Known stores
 	 */
@@ -232,96 +303,886 @@ public class WriteRetentionStore extends DelegatingStore {
 		if (maxSenderThreads <= 0)
 			throw new IllegalArgumentException();
 		MAX_SENDER_THREADS = maxSenderThreads;
+		senders.setMaxThreads(maxSenderThreads);
+	}
+
+	/**
+	 * Maximum number of due requests (or batches) prepared for sending and waiting for a
+	 * {@link #getMaxSenderThreads() sender thread} ; default is 100.
+	 * Once reached, due requests stay retained (and can still be merged) until a send is started.
+	 * Waiting sends are picked fairly across tables, and by due time within a table.
+	 */
+	public static int getMaxQueuedSends() {
+		assert MAX_QUEUED_SENDS > 0;
+		return MAX_QUEUED_SENDS;
+	}
+
+	/**
+	 * Maximum number of due requests (or batches) prepared for sending and waiting for a sender thread.
+	 * @see #getMaxQueuedSends()
+	 */
+	public static void setMaxQueuedSends(int maxQueuedSends) {
+		if (maxQueuedSends <= 0)
+			throw new IllegalArgumentException();
+		MAX_QUEUED_SENDS = maxQueuedSends;
+		wakeUpEvictionThread();
+	}
+
+	/**
+	 * Maximum number of due requests sent at once to an actual store for a given table ;
+	 * default is 1, i.e. each request is sent on its own.
+	 * When greater than 1, the eviction thread drains due requests and sends those for the same
+	 * table using a single {@link Store#storeChanges(List) multi-row store},
+	 * and at most {@link #getMaxSenderThreads()} batches are sent in parallel.
+	 */
+	public static int getMaxBatchSize() {
+		assert MAX_BATCH_SIZE > 0;
+		return MAX_BATCH_SIZE;
+	}
+
+	/**
+	 * Maximum number of due requests sent at once to an actual store for a given table.
+	 * @see #getMaxBatchSize()
+	 */
+	public static void setMaxBatchSize(int maxBatchSize) {
+		if (maxBatchSize <= 0)
+			throw new IllegalArgumentException();
+		MAX_BATCH_SIZE = maxBatchSize;
+	}
+
+	/**
+	 * Maximum time (ms) a due request can wait for other requests to become due so that
+	 * they are sent in the same batch ; default is 0.
+	 * Only relevant in case {@link #getMaxBatchSize()} is greater than 1.
+	 */
+	public static long getMaxBatchLatencyMs() {
+		return MAX_BATCH_LATENCY_MS;
+	}
+
+	/**
+	 * Maximum time (ms) a due request can wait for other requests to become due so that
+	 * they are sent in the same batch.
+	 * @see #getMaxBatchLatencyMs()
+	 */
+	public static void setMaxBatchLatencyMs(long maxBatchLatencyMs) {
+		if (maxBatchLatencyMs < 0)
+			throw new IllegalArgumentException();
+		MAX_BATCH_LATENCY_MS = maxBatchLatencyMs;
+	}
+	
+	/**
+	 * Notifies the eviction thread in case it is waiting for the send queue to be available.
+	 */
+	private static void wakeUpEvictionThread() {
+		EvictionThread et = evictionThread.get();
+		if (et != null && et.waiting && !areSendersBusy())
+			synchronized(et) {
+				if (et.waiting && !areSendersBusy())
+					et.notify();
+			}
+	}
+	
+	/**
+	 * Whether the maximum number of sends waiting for a sender thread is reached.
+	 */
+	private static boolean areSendersBusy() {
+		return senders.getQueueDepth() >= getMaxQueuedSends();
+	}
+
+	/**
+	 * Maximum number of retained requests (i.e. rows with retained writes, for all stores) ;
+	 * once reached, writers are {@link #isBlockingWhenFull() blocked or written through} ;
+	 * default is {@link Long#MAX_VALUE}.
+	 */
+	public static long getMaxRetainedRequests() {
+		return MAX_RETAINED_REQUESTS;
+	}
+
+	/**
+	 * Maximum number of retained requests.
+	 * @see #getMaxRetainedRequests()
+	 */
+	public static void setMaxRetainedRequests(long maxRetainedRequests) {
+		if (maxRetainedRequests <= 0)
+			throw new IllegalArgumentException();
+		MAX_RETAINED_REQUESTS = maxRetainedRequests;
+		wakeUpBlockedWriters();
+	}
+
+	/**
+	 * Maximum estimated size in bytes of data retained by all stores ;
+	 * once reached, writers are {@link #isBlockingWhenFull() blocked or written through} ;
+	 * default is {@link Long#MAX_VALUE}.
+	 * @see #getRetainedBytes()
+	 */
+	public static long getMaxRetainedBytes() {
+		return MAX_RETAINED_BYTES;
+	}
+
+	/**
+	 * Maximum estimated size in bytes of data retained by all stores.
+	 * @see #getMaxRetainedBytes()
+	 */
+	public static void setMaxRetainedBytes(long maxRetainedBytes) {
+		if (maxRetainedBytes <= 0)
+			throw new IllegalArgumentException();
+		MAX_RETAINED_BYTES = maxRetainedBytes;
+		wakeUpBlockedWriters();
+	}
+
+	/**
+	 * Whether writers are blocked until some retained data is sent when
+	 * {@link #getMaxRetainedRequests()} or {@link #getMaxRetainedBytes()} is reached ;
+	 * if false, writes are merged with retained writes for the same row and sent immediately
+	 * to the actual store, as for a {@link #flush(String, String) flush}.
+	 * Default is true.
+	 */
+	public static boolean isBlockingWhenFull() {
+		return blockingWhenFull;
+	}
+
+	/**
+	 * Whether writers are blocked until some retained data is sent when retention is full.
+	 * @see #isBlockingWhenFull()
+	 */
+	public static void setBlockingWhenFull(boolean blockingWhenFull) {
+		WriteRetentionStore.blockingWhenFull = blockingWhenFull;
+		wakeUpBlockedWriters();
+	}
+
+	/**
+	 * The number of retained requests, i.e. rows with retained writes, for all stores.
+	 */
+	public static long getRetainedRequests() {
+		return retainedRequests.get();
+	}
+
+	/**
+	 * The estimated size in bytes of data retained (or being sent) by all stores.
+	 * This is an upper bound as overridden values are counted until their row is sent.
+	 */
+	public static long getRetainedBytes() {
+		return retainedBytes.sum();
+	}
+
+	/**
+	 * The cumulative time (ms) writers were blocked as retention was full.
+	 * @see #isBlockingWhenFull()
+	 */
+	public static long getBlockedTimeMs() {
+		return blockedTimeMs.longValue();
+	}
+	
+	/**
+	 * Whether {@link #getMaxRetainedRequests()} or {@link #getMaxRetainedBytes()} is reached.
+	 */
+	private static boolean isFull() {
+		return retainedRequests.get() >= MAX_RETAINED_REQUESTS || retainedBytes.sum() >= MAX_RETAINED_BYTES;
+	}
+	
+	/**
+	 * Waits for retention not to be {@link #isFull() full} in case {@link #isBlockingWhenFull() blocking}.
+	 * Meanwhile, retained requests are {@link #sendOldest() sent before they are due} unless senders are busy.
+	 */
+	private static void waitForCapacity() {
+		if (!blockingWhenFull || !isFull())
+			return;
+		long start = System.currentTimeMillis();
+		blockedWriters.incrementAndGet();
+		try {
+			while (blockingWhenFull && !shutdown && isFull()) {
+				if (!areSendersBusy())
+					sendOldest();
+				synchronized(capacityMonitor) {
+					if (blockingWhenFull && !shutdown && isFull())
+						capacityMonitor.wait(100);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			blockedWriters.decrementAndGet();
+			blockedTimeMs.add(System.currentTimeMillis()-start);
+		}
+	}
+	
+	/**
+	 * Sends the retained request that is due first, even though it is not due yet.
+	 * Otherwise, a full retention would only be emptied as requests reach their due time.
+	 */
+	private static void sendOldest() {
+		StoreRequest r = writeQueue.peek();
+		if (r == null || !writeQueue.remove(r))
+			return;
+		requestsBeingSending.incrementAndGet();
+		try {
+			r.send(senders, false);
+		} catch (RuntimeException x) {
+			logger.log(Level.SEVERE, "Problem while sending request out of write cache ; request " + r + " lost: " + x.getMessage(), x);
+		} finally {
+			requestsBeingSending.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Notifies blocked writers, if any, that retained data was released.
+	 */
+	private static void wakeUpBlockedWriters() {
+		if (blockedWriters.get() > 0)
+			synchronized(capacityMonitor) {
+				capacityMonitor.notifyAll();
+			}
+	}
+	
+	/**
+	 * Releases retained data from {@link #getRetainedBytes()}.
+	 */
+	private static void release(long bytes) {
+		if (bytes != 0) {
+			retainedBytes.add(-bytes);
+			wakeUpBlockedWriters();
+		}
+	}
+	
+	/**
+	 * Estimates the size in bytes that changes will occupy once retained.
+	 */
+	private static long estimateSize(ColumnFamilyData changed,
+			Map<String, Set<String>> removed,
+			Map<String, Map<String, Number>> increments) {
+		// Roughly a column state per column and a map entry per family
+		final int entryOverhead = 64;
+		long ret = 0;
+		if (changed != null) {
+			for (Entry<String, Map<String, byte[]>> fam : changed.entrySet()) {
+				ret += entryOverhead + 2*fam.getKey().length();
+				for (Entry<String, byte[]> col : fam.getValue().entrySet()) {
+					byte[] val = col.getValue();
+					ret += entryOverhead + 2*col.getKey().length() + (val == null ? 0 : val.length);
+				}
+			}
+		}
+		if (removed != null) {
+			for (Entry<String, Set<String>> fam : removed.entrySet()) {
+				ret += entryOverhead + 2*fam.getKey().length();
+				for (String col : fam.getValue()) {
+					ret += entryOverhead + 2*col.length();
+				}
+			}
+		}
+		if (increments != null) {
+			for (Entry<String, Map<String, Number>> fam : increments.entrySet()) {
+				ret += entryOverhead + 2*fam.getKey().length();
+				for (String col : fam.getValue().keySet()) {
+					// Number object
+					ret += 2*entryOverhead + 2*col.length();
+				}
+			}
+		}
+		return ret;
 	}
 
 	// For test purpose
 	/**
 	 * The approximate number of sending threads.
 	 * This number can be above {@link #getMaxSenderThreads()} in case it was recently set to a lower value.
-	 * @see ThreadPoolExecutor#getActiveCount()
 	 */
 	public static int getActiveSenderThreads() {
-		EvictionThread et = evictionThread.get();
-		return et == null ? 0 : et.sender.getActiveCount();
+		return senders.getActiveCount();
+	}
+
+	/**
+	 * The ratio of {@link #getMaxSenderThreads() sender threads} currently sending.
+	 */
+	public static double getSenderUtilization() {
+		return senders.getUtilization();
+	}
+
+	/**
+	 * The number of sends (requests or batches) waiting for a sender thread.
+	 */
+	public static int getQueuedSends() {
+		return senders.getQueueDepth();
+	}
+
+	/**
+	 * The number of sends (requests or batches) waiting for a sender thread for the given table.
+	 */
+	public static int getQueuedSends(String table) {
+		return senders.getQueueDepth(table);
+	}
+
+	/**
+	 * Time (ms) between the time at which the last send for the given table should have happened
+	 * and the time it was actually started.
+	 */
+	public static long getFlushLagMs(String table) {
+		return senders.getLastLagMs(table);
+	}
+
+	/**
+	 * Average time (ms) between the time at which sends for the given table should have happened
+	 * and the time they were actually started.
+	 * Reset by {@link #resetCapureHitRatioMetrics()}.
+	 */
+	public static long getAverageFlushLagMs(String table) {
+		return senders.getAverageLagMs(table);
+	}
+
+	/**
+	 * The approximate number of pending write requests.
+	 */
+	public static int getPendingRequests() {
+		return writeQueue.size() + requestsBeingSending.intValue();
+	}
+	
+	/**
+	 * Whether hit ratio metrics should be captured
+	 */
+	public static boolean isCapureHitRatio() {
+		return WriteRetentionStore.captureHitRatio;
+	}
+	
+	/**
+	 * Whether hit ratio metrics should be captured
+	 */
+	public static void setCapureHitRatio(boolean captureHitRatio) {
+		WriteRetentionStore.captureHitRatio = captureHitRatio;
+	}
+	
+	/**
+	 * Resets any hit-ratio-related metrics {@link #getHitRatio()}, {@link #getRequestsIn()}, {@link #getRequestsOut()}, and {@link #getAverageLatencyMs()}
+	 */
+	public static void resetCapureHitRatioMetrics() {
+		requestsLatencySamples.reset();
+		requestsCumulativeLatency.reset();
+		requestsIn.reset();
+		requestsIn.add(getPendingRequests());
+		requestsOut.reset();
+		senders.resetLagMetrics();
+	}
+
+	/**
+	 * Number of requests asked ; {@link #isCapureHitRatio()} should be on to capture this metric
+	 */
+	public static long getRequestsIn() {
+		return requestsIn.longValue();
+	}
+
+	/**
+	 * Number of requests sent ; {@link #isCapureHitRatio()} should be on to capture this metric
+	 */
+	public static long getRequestsOut() {
+		return requestsOut.longValue();
+	}
+	
+	/**
+	 * The hit ratio (requests asked / requests (to be)sent ; {@link #isCapureHitRatio()} should be on to capture this metric
+	 */
+	public static double getHitRatio() {
+		if (getRequestsIn() == 0)
+			return Double.NaN;
+		long in = getRequestsIn();
+		return (double)(in - getRequestsOut() - getPendingRequests()) / (double)(in);
+	}
+	
+	/**
+	 * The cumulative latency (ms) between time at which a request should have been sent and the time it is actually sent
+	 */
+	public static long getCumulativeLatencyMs() {
+		return requestsCumulativeLatency.longValue();
+	}
+	
+	/**
+	 * Number of latencies accumulated by {@link #getCumulativeLatencyMs()}
+	 */
+	public static long getLatencySamples() {
+		return requestsLatencySamples.longValue();
+	}
+	
+	/**
+	 * The average latency (ms) between time at which a request should have been sent and the time it is actually sent
+	 */
+	public static long getAverageLatencyMs() {
+		if (getLatencySamples() == 0)
+			return 0;
+		return getCumulativeLatencyMs() / getLatencySamples();
+	}
+
+	/**
+	 * Data of a request grabbed for sending, that readers should consider until the send is done.
+	 */
+	private static final class InFlight {
+		private final ConcurrentMap<String, ConcurrentMap<String, AtomicReference<ColumnState>>> elements;
+		private final boolean deleted;
+		
+		/**
+		 * Whether data is possibly already in the actual store
+		 */
+		private volatile boolean delivering = false;
+		
+		private final CountDownLatch done = new CountDownLatch(1);
+		
+		private InFlight(ConcurrentMap<String, ConcurrentMap<String, AtomicReference<ColumnState>>> elements, boolean deleted) {
+			this.elements = elements;
+			this.deleted = deleted;
+		}
+		
+		/**
+		 * Waits for this send to be over.
+		 */
+		private void awaitDone() {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					this.done.await();
+					break;
+				} catch (InterruptedException x) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Returned by {@link StoreRequest#mergeWith(ColumnFamilyData, Set, long)} in case data read from the actual store
+	 * should be read again.
+	 */
+	private static final ColumnFamilyData RETRY = new DefaultColumnFamilyData();
+	
+	/**
+	 * Returned by {@link StoreRequest#getRetainedValue(String, String)} in case retained data is not enough to know a value.
+	 */
+	private static final byte[] UNKNOWN_VALUE = new byte[0];
+	
+	/**
+	 * Overlays retained changes on a row.
+	 * 
+	 * @param data
+	 *            data for the row ; null in case row was not found
+	 * @param deleted
+	 *            whether row was deleted before elements were changed
+	 * @param elements
+	 *            retained changes
+	 * @param families
+	 *            the families to be returned
+	 * @return merged data, or null in case row does not exist
+	 */
+	private static ColumnFamilyData overlay(ColumnFamilyData data, boolean deleted,
+			ConcurrentMap<String, ConcurrentMap<String, AtomicReference<ColumnState>>> elements,
+			Set<String> families) {
+		// Data from the store is reset by a retained delete
+		if (deleted)
+			data = null;
+		
+		boolean exists = data != null;
+		if (!exists) {
+			// Row exists if any column was updated after last deletion
+			for (ConcurrentMap<String, AtomicReference<ColumnState>> famData : elements.values()) {
+				if (!famData.isEmpty()) {
+					exists = true;
+					break;
+				}
+			}
+		}
+		if (!exists)
+			return null;
+		
+		ColumnFamilyData ret = new DefaultColumnFamilyData();
+		for (String family : families) {
+			Map<String, byte[]> storedFam = data == null ? null : data.get(family);
+			ConcurrentMap<String, AtomicReference<ColumnState>> famData = elements.get(family);
+			if (famData == null || famData.isEmpty()) {
+				if (storedFam != null)
+					ret.put(family, storedFam);
+				continue;
+			}
+			
+			Map<String, byte[]> fam = new TreeMap<String, byte[]>();
+			if (storedFam != null)
+				fam.putAll(storedFam);
+			for (Entry<String, AtomicReference<ColumnState>> colData : famData.entrySet()) {
+				ColumnState state = colData.getValue().get();
+				if (state.isIncremented()) {
+					// Pending increments apply to the stored value
+					byte[] base = state.value == null ? fam.get(colData.getKey()) : state.value;
+					fam.put(colData.getKey(), ConversionTools.convertFromLong(toLong(base) + state.getIncrement()));
+				} else if (state.value == DELETED_VALUE) {
+					fam.remove(colData.getKey());
+				} else if (state.value != null) {
+					fam.put(colData.getKey(), state.value);
+				}
+			}
+			ret.put(family, fam);
+		}
+		return ret;
+	}
+
+	/**
+	 * Retained state of a column: latest value set, if any, and increments merged since then.
+	 * A new state is created each time the column is set, so that increments merged into a
+	 * state are those that happened after the value was set.
+	 */
+	private static final class ColumnState {
+		/**
+		 * The value set for this column, {@link WriteRetentionStore#NULL_VALUE}, {@link WriteRetentionStore#DELETED_VALUE},
+		 * or null in case the column was not set (only incremented)
+		 */
+		private final byte[] value;
+		
+		/**
+		 * Sum of increments merged after value was set ; null if not incremented yet
+		 */
+		private volatile LongAdder increments = null;
+
+		private ColumnState(byte[] value) {
+			this.value = value;
+		}
+		
+		private void increment(long increment) {
+			LongAdder incr = this.increments;
+			if (incr == null) {
+				synchronized(this) {
+					incr = this.increments;
+					if (incr == null) {
+						incr = new LongAdder();
+						this.increments = incr;
+					}
+				}
+			}
+			incr.add(increment);
+		}
+		
+		private boolean isIncremented() {
+			return this.increments != null;
+		}
+		
+		private long getIncrement() {
+			LongAdder incr = this.increments;
+			return incr == null ? 0 : incr.sum();
+		}
+	}
+	
+	/**
+	 * Converts a value to the long it represents ; null, empty or deleted values are considered as 0.
+	 */
+	private static long toLong(byte[] value) {
+		if (value == null || value.length == 0)
+			return 0;
+		return ConversionTools.convertToLong(value);
 	}
+	
+	/**
+	 * Changes merged into a {@link StoreRequest} since its last send or delete.
+	 * Merges enter the current epoch of a request without locking ; a send or a delete
+	 * retires that epoch so that later merges retry on the epoch replacing it, and waits
+	 * for merges already running to be over before reading or dropping merged data.
+	 */
+	private static final class Epoch {
+		private static final int RETIRED = 1 << 31;
+		private static final int USED = 1 << 30;
+		private static final int MERGES = USED - 1;
+		
+		/**
+		 * Number of running merges, plus whether this epoch was ever merged into and whether it is retired
+		 */
+		private final AtomicInteger status;
+		
+		/**
+		 * Retained state of each updated column.
+		 */
+		@Transient private final ConcurrentMap<
+			String /* family */,
+			ConcurrentMap<
+				String /* column */,
+				AtomicReference<ColumnState>
+		>> elements = new ConcurrentHashMap<String, ConcurrentMap<String, AtomicReference<ColumnState>>>();
+
+		/**
+		 * Whether this epoch started with a delete ; {@link #elements} are then
+		 * those changes that happened after deletion.
+		 */
+		@Transient private final boolean deleted;
+		
+		/**
+		 * The epoch replaced by the delete that started this epoch ; its changes are dropped,
+		 * but its writes, meta information, size and journal records are sent along with this epoch
+		 */
+		private final Epoch previous;
+		
+		/**
+		 * Number of writes merged into this epoch
+		 */
+		private final LongAdder writes = new LongAdder();
+		
+		/**
+		 * Merged meta information
+		 */
+		private final AtomicReference<MetaInformation> meta = new AtomicReference<MetaInformation>();
+		
+		/**
+		 * Estimated size of data merged into this epoch
+		 */
+		private final LongAdder retainedBytes = new LongAdder();
+		
+		/**
+		 * Journal records for data merged into this epoch
+		 */
+		private final ConcurrentLinkedQueue<WriteJournal.Record> journalRecords = new ConcurrentLinkedQueue<WriteJournal.Record>();
+		
+		private Epoch() {
+			this.status = new AtomicInteger(0);
+			this.deleted = false;
+			this.previous = null;
+		}
+		
+		/**
+		 * An epoch starting with a delete of the given retired epoch.
+		 */
+		private Epoch(Epoch previous) {
+			assert previous.isRetired();
+			this.status = new AtomicInteger(USED);
+			this.deleted = true;
+			this.previous = previous;
+			this.writes.increment();
+		}
+		
+		/**
+		 * Starts a merge ; {@link #exit()} must absolutely be eventually called if successful.
+		 * @return false if this epoch is retired and merge should be retried on the current epoch
+		 */
+		private boolean enter() {
+			while (true) {
+				int st = this.status.get();
+				if ((st & RETIRED) != 0)
+					return false;
+				if (this.status.compareAndSet(st, (st+1) | USED)) {
+					this.writes.increment();
+					return true;
+				}
+			}
+		}
+		
+		/**
+		 * Declares a merge end.
+		 */
+		private void exit() {
+			this.status.decrementAndGet();
+		}
+		
+		/**
+		 * Whether a merge or a delete happened in this epoch.
+		 */
+		private boolean isUsed() {
+			return (this.status.get() & USED) != 0;
+		}
+		
+		private boolean isRetired() {
+			return (this.status.get() & RETIRED) != 0;
+		}
+		
+		/**
+		 * Prevents new merges into this epoch ; only the thread that retired an epoch may replace it.
+		 * @return false if this epoch was already retired
+		 */
+		private boolean retire() {
+			while (true) {
+				int st = this.status.get();
+				if ((st & RETIRED) != 0)
+					return false;
+				if (this.status.compareAndSet(st, st | RETIRED))
+					return true;
+			}
+		}
+		
+		/**
+		 * Retires this epoch only in case no merge ever happened in it.
+		 */
+		private boolean retireIfUnused() {
+			return this.status.compareAndSet(0, RETIRED);
+		}
+		
+		/**
+		 * Accepts merges again in this epoch retired by the current thread.
+		 */
+		private void reopen() {
+			int st;
+			do {
+				st = this.status.get();
+				assert (st & RETIRED) != 0;
+			} while (!this.status.compareAndSet(st, st & ~RETIRED));
+		}
+		
+		/**
+		 * Waits for merges running in this retired epoch to be over.
+		 */
+		private void awaitDrained() {
+			assert this.isRetired();
+			while ((this.status.get() & MERGES) != 0)
+				Thread.yield();
+		}
+
+		/**
+		 * Accounts for newly retained data ; to be called within a merge
+		 */
+		private void retain(long bytes) {
+			this.retainedBytes.add(bytes);
+			WriteRetentionStore.retainedBytes.add(bytes);
+		}
+
+		/**
+		 * Accounts for a record appended to the journal ; to be called within a merge
+		 */
+		private void journaled(WriteJournal.Record record) {
+			this.journalRecords.add(record);
+		}
+
+		/**
+		 * Merging meta information
+		 */
+		private void addMeta(MetaInformation meta) {
+			if (meta != null && !this.meta.compareAndSet(null, meta)) {
+				// Or integrate it if it already exists
+				this.meta.get().integrate(meta);
+			}
+		}
+
+		/**
+		 * Gets family data for this epoch. Creates and integrates it if
+		 * necessary. Thread-safe.
+		 */
+		private ConcurrentMap<String, AtomicReference<ColumnState>> getFamilyData(
+				String family) {
+			ConcurrentMap<String, AtomicReference<ColumnState>> ret = this.elements
+					.get(family);
+			if (ret == null) {
+				ret = new ConcurrentHashMap<String, AtomicReference<ColumnState>>();
+				ConcurrentMap<String, AtomicReference<ColumnState>> put = this.elements
+						.putIfAbsent(family, ret);
+				if (put != null)
+					ret = put;
+			}
+			return ret;
+		}
 
-	/**
-	 * The approximate number of pending write requests.
-	 */
-	public static int getPendingRequests() {
-		return writeQueue.size() + requestsBeingSending.intValue();
-	}
-	
-	/**
-	 * Whether hit ratio metrics should be captured
-	 */
-	public static boolean isCapureHitRatio() {
-		return WriteRetentionStore.captureHitRatio;
-	}
-	
-	/**
-	 * Whether hit ratio metrics should be captured
-	 */
-	public static void setCapureHitRatio(boolean captureHitRatio) {
-		WriteRetentionStore.captureHitRatio = captureHitRatio;
+		/**
+		 * Gets column data for this epoch. Creates and integrates it if
+		 * necessary. Thread-safe.
+		 */
+		private AtomicReference<ColumnState> getColumnData(
+				ConcurrentMap<String, AtomicReference<ColumnState>> familyData,
+				String column) {
+			AtomicReference<ColumnState> ret = familyData.get(column);
+			if (ret == null) {
+				ret = new AtomicReference<ColumnState>(new ColumnState(null));
+				AtomicReference<ColumnState> put = familyData
+						.putIfAbsent(column, ret);
+				if (put != null)
+					ret = put;
+			}
+			return ret;
+		}
 	}
 	
 	/**
-	 * Resets any hit-ratio-related metrics {@link #getHitRatio()}, {@link #getRequestsIn()}, {@link #getRequestsOut()}, and {@link #getAverageLatencyMs()}
+	 * State of a {@link StoreRequest} ; never modified, but replaced using compare-and-set
+	 * so that readers get a consistent snapshot without locking.
 	 */
-	public static void resetCapureHitRatioMetrics() {
-		requestsLatencySamples.reset();
-		requestsCumulativeLatency.reset();
-		requestsIn.reset();
-		requestsIn.add(getPendingRequests());
-		requestsOut.reset();
-	}
+	private static final class RequestState {
+		/**
+		 * The epoch merges go to
+		 */
+		private final Epoch current;
+		
+		/**
+		 * Data being sent ; null if not sending
+		 */
+		private final InFlight inFlight;
+		
+		/**
+		 * Number of sends that are over
+		 */
+		private final long sends;
+		
+		/**
+		 * Whether this element is being sending
+		 */
+		private final boolean sending;
 
-	/**
-	 * Number of requests asked ; {@link #isCapureHitRatio()} should be on to capture this metric
-	 */
-	public static long getRequestsIn() {
-		return requestsIn.longValue();
+		/**
+		 * Whether this request was sent and this request object must not be used anymore
+		 */
+		private final boolean dead;
+		
+		private RequestState(Epoch current, InFlight inFlight, long sends, boolean sending, boolean dead) {
+			this.current = current;
+			this.inFlight = inFlight;
+			this.sends = sends;
+			this.sending = sending;
+			this.dead = dead;
+		}
+		
+		private RequestState withCurrent(Epoch current) {
+			return new RequestState(current, this.inFlight, this.sends, this.sending, this.dead);
+		}
+		
+		private RequestState withSendOver(boolean dead) {
+			return new RequestState(this.current, null, this.sends+1, false, dead);
+		}
 	}
 
 	/**
-	 * Number of requests sent ; {@link #isCapureHitRatio()} should be on to capture this metric
+	 * Retention time learnt for a row in case of {@link WriteRetentionStore#setAdaptiveRetention(String, long, long) adaptive retention}.
 	 */
-	public static long getRequestsOut() {
-		return requestsOut.longValue();
+	private static final class RowRetention {
+		private final long retentionMs;
+		/**
+		 * Last time the row was sent
+		 */
+		private final long lastSendMs;
+
+		private RowRetention(long retentionMs, long lastSendMs) {
+			this.retentionMs = retentionMs;
+			this.lastSendMs = lastSendMs;
+		}
 	}
 	
 	/**
-	 * The hit ratio (requests asked / requests (to be)sent ; {@link #isCapureHitRatio()} should be on to capture this metric
+	 * Maximum number of rows for which adaptive retention time is kept.
 	 */
-	public static double getHitRatio() {
-		if (getRequestsIn() == 0)
-			return Double.NaN;
-		long in = getRequestsIn();
-		return (double)(in - getRequestsOut() - getPendingRequests()) / (double)(in);
-	}
+	private static final int MAX_ADAPTIVE_ROWS = 100000;
 	
 	/**
-	 * The cumulative latency (ms) between time at which a request should have been sent and the time it is actually sent
+	 * Number of rows for which adaptive retention time is kept once rows were {@link WriteRetentionStore#forgetColdRows(long) forgotten}.
 	 */
-	public static long getCumulativeLatencyMs() {
-		return requestsCumulativeLatency.longValue();
-	}
+	private static final int ADAPTIVE_ROWS_LOW_WATERMARK = MAX_ADAPTIVE_ROWS * 3 / 4;
 	
 	/**
-	 * Number of latencies accumulated by {@link #getCumulativeLatencyMs()}
+	 * Minimum number of writes merged in a single send for adaptive retention of a row to grow.
 	 */
-	public static long getLatencySamples() {
-		return requestsLatencySamples.longValue();
-	}
-	
+	private static final long MERGED_WRITES_TO_GROW = 2;
+
 	/**
-	 * The average latency (ms) between time at which a request should have been sent and the time it is actually sent
+	 * Minimum and maximum retention time for adaptive retention
 	 */
-	public static long getAverageLatencyMs() {
-		if (getLatencySamples() == 0)
-			return 0;
-		return getCumulativeLatencyMs() / getLatencySamples();
+	private static class RetentionBounds {
+		private final long minMs, maxMs;
+
+		private RetentionBounds(long minMs, long maxMs) {
+			if (minMs < 0 || maxMs < minMs)
+				throw new IllegalArgumentException("Invalid retention bounds: " + minMs + "ms to " + maxMs + "ms");
+			this.minMs = minMs;
+			this.maxMs = maxMs;
+		}
+		
+		/**
+		 * The given retention time within those bounds.
+		 */
+		private long bound(long retentionMs) {
+			return Math.min(this.maxMs, Math.max(this.minMs, retentionMs));
+		}
 	}
 
 	/**
@@ -401,32 +1262,11 @@ public class WriteRetentionStore extends DelegatingStore {
 	 * with another request.
 	 */
 	private class StoreRequest implements Delayed {
-
-		/**
-		 * A merged datum is stored with a transaction index
-		 */
-		private final AtomicLong transactionDistributor = new AtomicLong(
-				Long.MIN_VALUE);
-		
-		/**
-		 * Last transaction that was sent, be it completed or not ; negative if not sent yet
-		 */
-		private volatile Long lastSentTransaction = null;
 		
 		/**
-		 * Whether this element is being sending
-		 */
-		private volatile boolean sending = false;
-
-		/**
-		 * Whether this request was sent and this request object must not be used anymore
-		 */
-		private volatile boolean dead = false;
-
-		/**
-		 * A lock to ensure this request is not updated while it's sent
+		 * Current state, replaced as a whole
 		 */
-		private final ReentrantReadWriteLock sendLock = new ReentrantReadWriteLock();
+		private final AtomicReference<RequestState> state = new AtomicReference<RequestState>(new RequestState(new Epoch(), null, 0, false, false));
 
 		/**
 		 * The epoch date in nanoseconds at which this request should be sent to
@@ -434,104 +1274,94 @@ public class WriteRetentionStore extends DelegatingStore {
 		 */
 		private final AtomicLong outDateMs = new AtomicLong(-1);
 		
-		/**
-		 * Merged meta information
-		 */
-		private final AtomicReference<MetaInformation> meta = new AtomicReference<MetaInformation>();
-		
 		/**
 		 * The updated row (table and id)
 		 */
 		private final RowInTable row;
 		
-		/**
-		 * A map storing request data according to transaction number. Column
-		 * can be a {@link byte[]}, a {@link WriteRetentionStore#DELETED_VALUE
-		 * delete marker}, or a {@link Number}. If {@link byte[]} or
-		 * {@link WriteRetentionStore#DELETED_VALUE delete marker}, only latest
-		 * value is valid; if {@link Number}, datum corresponds to an increment
-		 * and all values for all transactions should be summed to get the actual
-		 * increment.
-		 */
-		@Transient private volatile ConcurrentMap<
-			String /* family */,
-			ConcurrentMap<
-				String /* column */,
-				ConcurrentNavigableMap<
-					Long /* transaction id */,
-					Object /* byte[] || Long (increment) || DELETED_VALUE */
-		>>> elements = new ConcurrentHashMap<String, ConcurrentMap<String, ConcurrentNavigableMap<Long, Object>>>();
-
-		/**
-		 * When this element was last deleted.
-		 */
-		@Transient private volatile ConcurrentSkipListSet<Long> deletions = new ConcurrentSkipListSet<Long>();
-		
 		private StoreRequest(RowInTable row) {
 			super();
 			this.row = row;
 		}
 
 		/**
-		 * Starts an update ; {@link #doneUpdate()} must absolutely be
-		 * eventually called.
+		 * Starts an update in the current epoch ; {@link Epoch#exit()} must absolutely be
+		 * eventually called on the returned epoch.
 		 * 
-		 * @return transaction number
 		 * @throws RequestIsOutException
-		 *             in case this request is {@link #dead}
+		 *             in case this request is dead
 		 */
-		private long startUpdate() throws RequestIsOutException {
-			if (this.dead) {
-				throw new RequestIsOutException();
-			}
-			
-			this.sendLock.readLock().lock();
-
-			if (this.dead) {
-				this.sendLock.readLock().unlock();
-				throw new RequestIsOutException();
+		private Epoch startUpdate() throws RequestIsOutException {
+			while (true) {
+				RequestState s = this.state.get();
+				if (s.dead) {
+					throw new RequestIsOutException();
+				}
+				if (s.current.enter())
+					return s.current;
+				// Epoch is being replaced by a send or a delete
+				Thread.yield();
 			}
-
-			long ret = this.transactionDistributor.incrementAndGet();
-			
-			assert this.lastSentTransaction == null || ret > this.lastSentTransaction;
-
-			return ret;
 		}
-
+		
 		/**
-		 * Declares an update end.
-		 * 
-		 * @throws RequestIsOutException
+		 * Replaces the current epoch, which must have been retired by this thread.
 		 */
-		private void doneUpdate(long transaction) throws RequestIsOutException {
-			assert this.lastSentTransaction == null || transaction > this.lastSentTransaction;
-			
-			this.sendLock.readLock().unlock();
+		private void setCurrent(Epoch current) {
+			RequestState s;
+			do {
+				s = this.state.get();
+				assert s.current.isRetired();
+			} while (!this.state.compareAndSet(s, s.withCurrent(current)));
+		}
+		
+		/**
+		 * Declares the running send over.
+		 */
+		private RequestState sendOver(boolean dead) {
+			RequestState s;
+			do {
+				s = this.state.get();
+			} while (!this.state.compareAndSet(s, s.withSendOver(dead)));
+			return s;
 		}
 
 		/**
 		 * Marks this request as a delete.
 		 * 
 		 * @throws RequestIsOutException
-		 *             in case this request is {@link #dead}
+		 *             in case this request is dead
 		 */
 		public void delete(MetaInformation meta) throws RequestIsOutException {
-			long transaction = this.startUpdate();
-			try {
-				this.addMeta(meta);
+			while (true) {
+				RequestState s = this.state.get();
+				if (s.dead)
+					throw new RequestIsOutException();
+				Epoch old = s.current;
+				if (!old.retire()) {
+					// Epoch is being replaced by a send or another delete
+					Thread.yield();
+					continue;
+				}
 				
-				this.deletions.add(transaction);
-
-				// Cleaning up memory from all merged data before this transaction
-				this.deletions.headSet(transaction, false).clear();
-				for (Entry<String, ConcurrentMap<String, ConcurrentNavigableMap<Long, Object>>> fam : this.elements.entrySet()) {
-					for (Entry<String, ConcurrentNavigableMap<Long, Object>> col : fam.getValue().entrySet()) {
-						col.getValue().headMap(transaction, false).clear();
+				// A delete drops all merged columns ; merges still running must be over
+				// so that they are not journaled after the delete
+				old.awaitDrained();
+				Epoch e = new Epoch(old);
+				e.addMeta(meta);
+				e.retain(16);
+				WriteJournal j = journal;
+				if (j != null) {
+					try {
+						e.journaled(j.appendDelete(this.row.table, this.row.id));
+					} catch (RuntimeException x) {
+						release(16);
+						old.reopen();
+						throw x;
 					}
 				}
-			} finally {
-				this.doneUpdate(transaction);
+				this.setCurrent(e);
+				return;
 			}
 		}
 
@@ -539,36 +1369,33 @@ public class WriteRetentionStore extends DelegatingStore {
 		 * Thread-safe merge with new data.
 		 * 
 		 * @throws RequestIsOutException
-		 *             in case this request is {@link #dead}
+		 *             in case this request is dead
 		 */
 		public void update(MetaInformation meta, ColumnFamilyData changed,
 				Map<String, Set<String>> removed,
 				Map<String, Map<String, Number>> increments)
 				throws RequestIsOutException {
 
-			long transactionId = this.startUpdate();
+			Epoch e = this.startUpdate();
 			try {
-				addMeta(meta);
+				e.addMeta(meta);
+				e.retain(estimateSize(changed, removed, increments));
+				WriteJournal j = journal;
+				if (j != null)
+					e.journaled(j.appendUpdate(this.row.table, this.row.id, changed, removed, increments));
 				
 				// Adding changes
 				if (changed != null) {
 					for (Entry<String, Map<String, byte[]>> famChanges : changed
 							.entrySet()) {
-						ConcurrentMap<String, ConcurrentNavigableMap<Long, Object>> famData = this
+						ConcurrentMap<String, AtomicReference<ColumnState>> famData = e
 								.getFamilyData(famChanges.getKey());
 						for (Entry<String, byte[]> colChange : famChanges
 								.getValue().entrySet()) {
-							ConcurrentNavigableMap<Long, Object> columnData = this
-									.getColumnData(famChanges.getKey(),
-											famData, colChange.getKey());
 							byte[] chval = colChange.getValue();
-							Object old = columnData.put(transactionId,
-									chval == null ? NULL_VALUE : chval);
-							// There must not have a previous put for the same transaction
-							assert old == null;		
-							
-							// Cleaning up memory from overridden values
-							columnData.headMap(transactionId, false).clear();
+							// Overriding any previous value or increment
+							e.getColumnData(famData, colChange.getKey())
+								.set(new ColumnState(chval == null ? NULL_VALUE : chval));
 						}
 					}
 				}
@@ -577,19 +1404,14 @@ public class WriteRetentionStore extends DelegatingStore {
 				if (increments != null) {
 					for (Entry<String, Map<String, Number>> famincrements : increments
 							.entrySet()) {
-						ConcurrentMap<String, ConcurrentNavigableMap<Long, Object>> famData = this
+						ConcurrentMap<String, AtomicReference<ColumnState>> famData = e
 								.getFamilyData(famincrements.getKey());
 						for (Entry<String, Number> colIncrements : famincrements
 								.getValue().entrySet()) {
-							ConcurrentNavigableMap<Long, Object> columnData = this
-									.getColumnData(famincrements.getKey(),
-											famData, colIncrements.getKey());
-							Object old = columnData.put(transactionId,
-									colIncrements.getValue());
-							// There must not have a previous put for the same transaction
-							assert old == null;
-							
-							// NOT cleaning up memory as actual increment is the sum of all transactions
+							// A concurrent change may replace the state we increment ;
+							// this increment is then considered as happening before that change
+							e.getColumnData(famData, colIncrements.getKey())
+								.get().increment(colIncrements.getValue().longValue());
 						}
 					}
 				}
@@ -598,73 +1420,102 @@ public class WriteRetentionStore extends DelegatingStore {
 				if (removed != null) {
 					for (Entry<String, Set<String>> famRemoves : removed
 							.entrySet()) {
-						ConcurrentMap<String, ConcurrentNavigableMap<Long, Object>> famData = this
+						ConcurrentMap<String, AtomicReference<ColumnState>> famData = e
 								.getFamilyData(famRemoves.getKey());
 						for (String colRemoved : famRemoves.getValue()) {
-							ConcurrentNavigableMap<Long, Object> columnData = this
-									.getColumnData(famRemoves.getKey(),
-											famData, colRemoved);
-							Object old = columnData.put(transactionId,
-									DELETED_VALUE);
-							// There must not have a previous put for the same transaction
-							assert old == null;
-							
-							// Cleaning up memory from overridden values
-							columnData.headMap(transactionId, false).clear();
+							e.getColumnData(famData, colRemoved)
+								.set(new ColumnState(DELETED_VALUE));
 						}
 					}
 				}
 			} finally {
-				this.doneUpdate(transactionId);
+				e.exit();
 			}
 		}
-
+		
 		/**
-		 * Merging meta information
+		 * Number of sends for this row that are over ; to be read before reading the actual store
+		 * and given to {@link #mergeWith(ColumnFamilyData, Set, long)}.
 		 */
-		private void addMeta(MetaInformation meta) {
-			if (meta != null && !this.meta.compareAndSet(null, meta)) {
-				// Or integrate it if it already exists
-				this.meta.get().integrate(meta);
+		public long getSends() {
+			return this.state.get().sends;
+		}
+		
+		/**
+		 * Overlays retained changes, including those being sent, on data read from the actual store.
+		 * In case a send ended or reached the actual store while data was read, data cannot be merged
+		 * consistently: waits for the send to be over and returns {@link WriteRetentionStore#RETRY}.
+		 * 
+		 * @param data
+		 *            data for this row as found in the actual store ; null
+		 *            in case row was not found
+		 * @param families
+		 *            the families to be returned
+		 * @param sends
+		 *            as returned by {@link #getSends()} before data was read from the actual store
+		 * @return merged data, null in case row does not exist, or {@link WriteRetentionStore#RETRY}
+		 */
+		public ColumnFamilyData mergeWith(ColumnFamilyData data, Set<String> families, long sends) {
+			RequestState s = this.state.get();
+			if (s.sends != sends)
+				return RETRY;
+			
+			if (s.dead)
+				return data;
+			
+			InFlight f = s.inFlight;
+			if (f != null) {
+				if (f.delivering) {
+					// Data read might already contain sent changes (e.g. increments)
+					f.awaitDone();
+					return RETRY;
+				}
+				data = overlay(data, f.deleted, f.elements, families);
 			}
+			
+			return overlay(data, s.current.deleted, s.current.elements, families);
 		}
-
+		
 		/**
-		 * Gets family data for this object. Creates and integrates it if
-		 * necessary. Thread-safe.
+		 * Whether row exists according to retained changes only.
+		 * @return null in case the actual store should be requested
 		 */
-		private ConcurrentMap<String, ConcurrentNavigableMap<Long, Object>> getFamilyData(
-				String family) {
-			ConcurrentMap<String, ConcurrentNavigableMap<Long, Object>> ret = this.elements
-					.get(family);
-			if (ret == null) {
-				ret = new ConcurrentHashMap<String, ConcurrentNavigableMap<Long, Object>>();
-				ConcurrentMap<String, ConcurrentNavigableMap<Long, Object>> put = this.elements
-						.putIfAbsent(family, ret);
-				if (put != null)
-					ret = put;
+		public Boolean existsRetained() {
+			RequestState s = this.state.get();
+			if (s.dead)
+				return null;
+			for (ConcurrentMap<String, AtomicReference<ColumnState>> famData : s.current.elements.values()) {
+				if (!famData.isEmpty())
+					return Boolean.TRUE;
 			}
-			return ret;
+			if (s.current.deleted)
+				return Boolean.FALSE;
+			return null;
 		}
-
+		
 		/**
-		 * Gets column data for this object. Creates and integrates it if
-		 * necessary. Thread-safe.
+		 * The value of a column according to retained changes only.
+		 * @return the value, null if column was removed, or {@link WriteRetentionStore#UNKNOWN_VALUE} in case
+		 *  the actual store should be requested
 		 */
-		private ConcurrentNavigableMap<Long, Object> getColumnData(
-				String family,
-				ConcurrentMap<String, ConcurrentNavigableMap<Long, Object>> familyData,
-				String column) {
-			assert this.elements.get(family) == familyData;
-			ConcurrentNavigableMap<Long, Object> ret = familyData.get(column);
-			if (ret == null) {
-				ret = new ConcurrentSkipListMap<Long, Object>();
-				ConcurrentNavigableMap<Long, Object> put = familyData
-						.putIfAbsent(column, ret);
-				if (put != null)
-					ret = put;
+		public byte[] getRetainedValue(String family, String column) {
+			RequestState s = this.state.get();
+			if (s.dead)
+				return UNKNOWN_VALUE;
+			ConcurrentMap<String, AtomicReference<ColumnState>> famData = s.current.elements.get(family);
+			AtomicReference<ColumnState> colData = famData == null ? null : famData.get(column);
+			ColumnState state = colData == null ? null : colData.get();
+			if (state != null && state.value != null) {
+				// Column was set since last send
+				if (state.isIncremented())
+					return ConversionTools.convertFromLong(toLong(state.value) + state.getIncrement());
+				return state.value == DELETED_VALUE ? null : state.value;
 			}
-			return ret;
+			if (s.current.deleted) {
+				// Stored value was deleted ; column is at most incremented since then
+				return state == null ? null : ConversionTools.convertFromLong(state.getIncrement());
+			}
+			return UNKNOWN_VALUE;
 		}
 		
 		@Override
@@ -691,269 +1542,211 @@ public class WriteRetentionStore extends DelegatingStore {
 		 * Sending this request. Waits for current updates to be done.
 		 * 
 		 * @param sender
-		 *            the executor for sending the request
-		 * @param counter
-		 *            a counter to be decremented when the request is sent
+		 *            the pool for sending the request ; null to send in the current thread
 		 * @param flushing
 		 *            whether this send is a normal operation of a flush operation
 		 */
-		public void send(ExecutorService sender, final boolean flushing) {
-			// Not sending this request before delay is expired unless we flush
-			assert flushing || this.outDateMs.get() <= System.currentTimeMillis();
-			long lastTransactionTmp;
-			Long lastSentTransaction;
-			long outDateTmp;
-			// A copy of the elements, deletes and meta to be sent now
-			ConcurrentMap<String, ConcurrentMap<String, ConcurrentNavigableMap<Long, Object>>> elements;
-			ConcurrentSkipListSet<Long> deletions;
-			MetaInformation metaTmp;
-			this.sendLock.writeLock().lock();
-			try {
-				// This code cannot be executed concurrently with an update or another send start/stop
-				
-				outDateTmp = this.outDateMs.get();
-				if (!flushing)
-					this.outDateMs.set(-1);
-
-				lastTransactionTmp = transactionDistributor.get();
-				boolean shouldLeave = false;
-				if (this.sending) {
-					// Already sending ? (e.g. long flush just before) => giving up
-					shouldLeave = true;
-				
-				} else {
-					// Newer transaction was sent, giving up
-					if (this.lastSentTransaction != null && lastTransactionTmp <= this.lastSentTransaction) {
-						shouldLeave = true;
+		public void send(SenderPool sender, final boolean flushing) {
+			final PendingSend p = this.prepareSend(flushing);
+			if (p == null)
+				return;
+
+			// The action to be ran for sending this request
+			Runnable action = new Runnable() {
+
+				@Override
+				public void run() {
+					boolean delivered = false;
+					try {
+						try {
+							p.captureLatency();
+						} finally {
+							p.delivering();
+						
+							// Deleting all cells if necessary
+							if (p.delete)
+								getActualStore().delete(p.meta, row.table, row.id);
+							
+							if (p.store)
+								getActualStore().storeChanges(p.meta, row.table, row.id,
+										p.changes, p.removed, p.increments);
+							delivered = true;
+						}
+						
+					} catch (RuntimeException x) {
+						logger.log(Level.WARNING, "Catched problem while " + (p.store ? "updating " : "deleting ") + StoreRequest.this + " ; some data might have been lost: " + x.getMessage(), x);
+						throw x;
+					} finally {
+						p.sent(delivered);
 					}
 				}
-				
-				if (shouldLeave) {
+			};
+			
+			if (sender == null)
+				action.run();
+			else {
+				sender.submit(this.row.table, p.outDate, action);
+			}
+		}
+		
+		/**
+		 * Grabs data to be sent for this request. Waits for current updates to be done.
+		 * In case a non-null value is returned, {@link PendingSend#sent(boolean)} must absolutely
+		 * be eventually called.
+		 * 
+		 * @param flushing
+		 *            whether this send is a normal operation of a flush operation
+		 * @return data to be sent, or null in case this request should not be sent now
+		 */
+		private PendingSend prepareSend(final boolean flushing) {
+			// Not sending this request before delay is expired unless we flush or retention is full
+			long outDate = this.outDateMs.get();
+			if (!flushing)
+				this.outDateMs.set(-1);
+			Epoch sent;
+			while (true) {
+				RequestState s = this.state.get();
+				// Already sending ? (e.g. long flush just before) or nothing new to send => giving up
+				if (s.dead || s.sending || !s.current.isUsed()) {
 					if (! flushing) {
 						// Replanning
 						try {
 							this.plan();
 						} catch (RequestIsOutException x) {
-							assert this.lastSentTransaction == null ? this.transactionDistributor.get() == Long.MIN_VALUE : this.lastSentTransaction == this.transactionDistributor.get();
+							assert s.dead;
 						}
 					}
-					return;
+					return null;
 				}
-				
-				// As from this line, there MUST be a send request
-				this.sending = true;
-				
-				lastSentTransaction = this.lastSentTransaction;
-				this.lastSentTransaction = lastTransactionTmp;
-
-				// This request should be the one for this row
-				assert this == writesByRows.get(this.row);
-				// Preparing this request to be used while current status is being sent by resetting all
-				elements = this.elements;
-				this.elements = new ConcurrentHashMap<String, ConcurrentMap<String,ConcurrentNavigableMap<Long,Object>>>();
-				deletions = this.deletions;
-				this.deletions = new ConcurrentSkipListSet<Long>();
-				metaTmp = this.meta.getAndSet(null);
-				requestsBeingSending.incrementAndGet();
-				
-			} finally {
-				this.sendLock.writeLock().unlock();
+				sent = s.current;
+				if (sent.retire())
+					break;
+				// Epoch is being replaced by a delete
+				Thread.yield();
 			}
-			final MetaInformation meta = metaTmp;
-			final long lastTransaction = lastTransactionTmp;
-			final long outDate = outDateTmp;
+			
+			// As from this line, there MUST be a send request
+			// This request should be the one for this row
+			assert this == writesByRows.get(this.row);
+			// Later merges go to a new epoch while current status is being sent
+			InFlight inFlight = new InFlight(sent.elements, sent.deleted);
+			RequestState s;
+			do {
+				s = this.state.get();
+				assert s.current == sent && !s.sending;
+			} while (!this.state.compareAndSet(s, new RequestState(new Epoch(), inFlight, s.sends, true, false)));
+			requestsBeingSending.incrementAndGet();
+			sent.awaitDrained();
+
+			// Grabbing what was merged, including before deletes
+			long writes = 0, bytes = 0;
+			MetaInformation meta = null;
+			Collection<WriteJournal.Record> records = new ArrayList<WriteJournal.Record>();
+			for (Epoch e = sent; e != null; e = e.previous) {
+				writes += e.writes.sum();
+				bytes += e.retainedBytes.sum();
+				MetaInformation m = e.meta.get();
+				if (meta == null)
+					meta = m;
+				else if (m != null)
+					meta.integrate(m);
+				records.addAll(e.journalRecords);
+			}
+			if (!flushing)
+				this.adaptRetention(writes);
+			final ConcurrentMap<String, ConcurrentMap<String, AtomicReference<ColumnState>>> elements = sent.elements;
+			final boolean deleted = sent.deleted;
 
-			// The action to be ran for sending this request
-			Runnable action;				
 			try {
-				
-				// As from this line, we are not considering transactions later than lastTransaction
-				// If a new transaction happens, request will be planned again once sent
-				
-				Long lastDeletion = deletions.isEmpty() ? null : deletions.last();
-				if (lastDeletion != null && lastSentTransaction != null && lastDeletion < lastSentTransaction) {
-					assert false;
-					lastDeletion = null;
-				}
-				// Last no-delete update in order to know whether this element should be deleted or not
-				long lastStore = Long.MIN_VALUE;
-	
-				// Grabbing changed values.
-				final ColumnFamilyData changes = new DefaultColumnFamilyData();
-				final Map<String, Set<String>> removed = new TreeMap<String, Set<String>>();
-				final Map<String, Map<String, Number>> increments = new TreeMap<String, Map<String, Number>>();
-				for (Entry<String, ConcurrentMap<String, ConcurrentNavigableMap<Long, Object>>> famData : elements
-						.entrySet()) {
-					for (Entry<String, ConcurrentNavigableMap<Long, Object>> colData : famData
-							.getValue().entrySet()) {
-						Entry<Long, Object> lastEntry = colData.getValue()
-								.lastEntry();
-						// There can be no entry in case of a row delete after a column update
-						if (lastEntry == null)
-							continue;
-						Long transaction = lastEntry.getKey();
-						if (lastSentTransaction != null && transaction < lastSentTransaction) {
-							assert false;
-							continue;
-						}
-						lastStore = Math.max(lastStore, transaction);
-						// Considering only those values after last deletion
-						if (lastDeletion == null || lastDeletion < transaction) {
-							Object latest = lastEntry.getValue();
-							if (latest instanceof byte[]) {
-								if (latest == DELETED_VALUE) {
-									// Column should be deleted
-									Set<String> remCols = removed.get(famData
-											.getKey());
-									if (remCols == null) {
-										remCols = new TreeSet<String>();
-										removed.put(famData.getKey(), remCols);
-									}
-									remCols.add(colData.getKey());
-								} else {
-									// Column should be changed
-									Map<String, byte[]> chgCols = changes
-											.get(famData.getKey());
-									if (chgCols == null) {
-										chgCols = new TreeMap<String, byte[]>();
-										changes.put(famData.getKey(), chgCols);
-									}
-									chgCols.put(colData.getKey(), latest == null ? null : (byte[]) latest);
-								}
-							} else {
-								assert latest instanceof Number;
-								// Column should be incremented
-								// Summing all values to know the actual increment
-								long sum = 0;
-								for (Entry<Long, Object> incr : colData.getValue()
-										.entrySet()) {
-									Object val = incr.getValue();
-									try {
-										sum += ((Number) val).longValue();
-									} catch (ClassCastException x) {
-										// Just in case datum was updated (not incremented) meanwhile
-										// This is robustness code as it's not likely to happen
-										if (val == DELETED_VALUE)
-											sum = 0;
-										else // if (val instanceof byte[]) 
-											sum = ConversionTools.convert(Long.class, (byte[])val).longValue();
-									}
-								}
-	
-								Map<String, Number> incCols = increments
-										.get(famData.getKey());
-								if (incCols == null) {
-									incCols = new TreeMap<String, Number>();
-									increments.put(famData.getKey(), incCols);
-								}
-								incCols.put(colData.getKey(), sum);
-							}
-						}
-					}
-				}
-	
-				assert lastDeletion == null || lastTransaction >= lastDeletion;
-				assert lastTransaction >= lastStore;
-				
-				// Sending using the executor
-				// Checking whether it's a store or a delete
-				if (lastDeletion == null || lastDeletion < lastStore) {
-					
-					// A delete resets all columns ;
-					// cannot simulate that just using a store
-					final boolean shouldDelete = lastDeletion != null;
-					
-					action = new Runnable() {
-	
-						@Override
-						public void run() {
-							try {
-								try {
-									if (!flushing && outDate != -1) {
-										requestsLatencySamples.increment();
-										long delay = System.currentTimeMillis()-outDate;
-										assert delay > 0;
-										requestsCumulativeLatency.add(delay);
-									}
-								} finally {
-								
-									// Deleting all cells if necessary
-									if (shouldDelete)
-										getActualStore().delete(meta, row.table, row.id);
-									
-									getActualStore().storeChanges(meta, row.table, row.id,
-											changes, removed, increments);
-								}
-								
-							} catch (RuntimeException x) {
-								logger.log(Level.WARNING, "Catched problem while updating " + StoreRequest.this + " ; some data might have been lost: " + x.getMessage(), x);
-								throw x;
-							} finally {
-								requestSent(flushing, lastTransaction);
-							}
-						}
-					};
-				} else {
-					action = new Runnable() {
+				
+				// As from this line, we are not considering later updates
+				// If a new update happens, request will be planned again once sent
 	
-						@Override
-						public void run() {
-							try {
-								try {
-									if (!flushing && outDate != -1) {
-										requestsLatencySamples.increment();
-										long delay = System.currentTimeMillis()-outDate;
-										assert delay > 0;
-										requestsCumulativeLatency.add(delay);
-									}
-								} finally {
-								
-									getActualStore().delete(meta, row.table, row.id);
-								}
-							} catch (RuntimeException x) {
-								logger.log(Level.WARNING, "Catched problem while deleting " + StoreRequest.this + " ; some data might have been be lost: " + x.getMessage(), x);
-								throw x;
-							} finally {
-								requestSent(flushing, lastTransaction);
+				// Grabbing changed values.
+				final ColumnFamilyData changes = new DefaultColumnFamilyData();
+				final Map<String, Set<String>> removed = new TreeMap<String, Set<String>>();
+				final Map<String, Map<String, Number>> increments = new TreeMap<String, Map<String, Number>>();
+				for (Entry<String, ConcurrentMap<String, AtomicReference<ColumnState>>> famData : elements
+						.entrySet()) {
+					for (Entry<String, AtomicReference<ColumnState>> colData : famData
+							.getValue().entrySet()) {
+						ColumnState state = colData.getValue().get();
+						if (state.isIncremented() && state.value == null) {
+							// Column should be incremented
+							Map<String, Number> incCols = increments
+									.get(famData.getKey());
+							if (incCols == null) {
+								incCols = new TreeMap<String, Number>();
+								increments.put(famData.getKey(), incCols);
+							}
+							incCols.put(colData.getKey(), state.getIncrement());
+						} else if (state.value == DELETED_VALUE && !state.isIncremented()) {
+							// Column should be deleted
+							Set<String> remCols = removed.get(famData
+									.getKey());
+							if (remCols == null) {
+								remCols = new TreeSet<String>();
+								removed.put(famData.getKey(), remCols);
+							}
+							remCols.add(colData.getKey());
+						} else if (state.value != null) {
+							// Column should be changed
+							// In case it was incremented after being set, increments apply to the set value
+							byte[] value = state.isIncremented() ? ConversionTools.convertFromLong(toLong(state.value) + state.getIncrement()) : state.value;
+							Map<String, byte[]> chgCols = changes
+									.get(famData.getKey());
+							if (chgCols == null) {
+								chgCols = new TreeMap<String, byte[]>();
+								changes.put(famData.getKey(), chgCols);
 							}
+							chgCols.put(colData.getKey(), value);
 						}
-					};
+					}
 				}
+				
+				// Checking whether it's a store or a delete
+				// A delete resets all columns ; cannot simulate that just using a store
+				boolean shouldStore = !deleted || !changes.isEmpty() || !removed.isEmpty() || !increments.isEmpty();
+				return new PendingSend(this, meta, changes, removed, increments, deleted, shouldStore, flushing, outDate, bytes, records, inFlight);
 			
 			} catch (Throwable r) {
 				requestsBeingSending.decrementAndGet();
+				release(bytes);
+				RequestState st;
+				do {
+					st = this.state.get();
+				} while (!this.state.compareAndSet(st, new RequestState(st.current, null, st.sends+1, st.sending, st.dead)));
+				inFlight.done.countDown();
 				throw r instanceof RuntimeException ? (RuntimeException)r : new RuntimeException(r);
 			}
-			
-			if (sender == null)
-				action.run();
-			else {
-				sender.submit(action);
-			}
 		}
 		
 		/**
 		 * Called once request was actually sent
-		 * @param lastTransactionBeforeSending the sent transaction
-		 * @param expectedOutDate time at which request was planned ; null in case of a flush
+		 * @param afterFlush whether request was sent due to a flush
 		 */
-		private void requestSent(boolean afterFlush, long lastTransactionBeforeSending) {
-			long rbs = requestsBeingSending.decrementAndGet();
+		private void requestSent(boolean afterFlush) {
+			requestsBeingSending.decrementAndGet();
 			if (captureHitRatio)
 				requestsOut.increment();
-			assert this.lastSentTransaction == lastTransactionBeforeSending;
-			assert this.sending;
-			this.sendLock.writeLock().lock();
+			InFlight sent;
 			try {
-				this.sending = false;
-
-				// No update can happen when executing this section
-				if (this.transactionDistributor.get() > this.lastSentTransaction) {
+				// Killing this object and releasing memory in case no update happened since send ;
+				// merges then retry on a new request
+				if (this.state.get().current.retireIfUnused()) {
+					RequestState s = this.sendOver(true);
+					assert s.sending;
+					sent = s.inFlight;
+					this.close();
+				} else {
+					RequestState s = this.sendOver(false);
+					assert s.sending;
+					sent = s.inFlight;
 					// This request is THE only request for its row
 					assert this == writesByRows.get(this.row);
 					
 					if (!afterFlush) {
-						// A transaction happened while sending ; re-planning
+						// An update happened while sending ; re-planning
 						try {
 							this.plan();
 							logger.fine(this.toString() + " sent on " + new Date(System.currentTimeMillis()) + " replanned for " + new Date(this.outDateMs.get()));
@@ -963,43 +1756,78 @@ public class WriteRetentionStore extends DelegatingStore {
 							assert false;
 						}
 					}
-				} else {
-					// No transaction happened ; killing this object and releasing memory
-					this.close();
 				}
 				
 			} finally {
-				this.sendLock.writeLock().unlock();
-				EvictionThread et = evictionThread.get();
-				if (et != null && et.waiting && rbs < getMaxSenderThreads())
-					synchronized(et) {
-						if (et.waiting && rbs < getMaxSenderThreads())
-							et.notify();
-					}
+				wakeUpEvictionThread();
 			}
+			if (sent != null)
+				sent.done.countDown();
 		}
 		
 		/**
-		 * Closing request definitively ; MUST be invoked within a write lock
+		 * Closing request definitively ; MUST be invoked once request is dead
 		 */
 		private void close() {
-			assert this.sendLock.writeLock().isHeldByCurrentThread();
-			this.dead = true;
+			assert this.state.get().dead;
 			StoreRequest s = writesByRows.remove(this.row);
+			retainedRequests.decrementAndGet();
+			wakeUpBlockedWriters();
 			// This request was THE only request for its row
 			assert this == s;
 			logger.fine(this.toString() + " sent on " + new Date(System.currentTimeMillis()) + " and not replanned");
 		}
 
+		/**
+		 * The time this request should be retained before being sent.
+		 */
+		private long getRetentionMs() {
+			RetentionBounds bounds = getAdaptiveRetention(this.row.table);
+			if (bounds == null)
+				return WriteRetentionStore.this.writeRetentionMs;
+			RowRetention r = rowRetentions.get(this.row);
+			return r == null ? bounds.minMs : bounds.bound(r.retentionMs);
+		}
+		
+		/**
+		 * Adapts retention time for this row in case of {@link WriteRetentionStore#setAdaptiveRetention(String, long, long) adaptive retention} :
+		 * retention is doubled in case at least {@link WriteRetentionStore#MERGED_WRITES_TO_GROW} writes were merged
+		 * since last send, and halved otherwise as there was nothing to coalesce.
+		 * Retention time is stored in {@link WriteRetentionStore#rowRetentions} as this request
+		 * may be discarded once sent.
+		 * @param writes number of writes sent at once
+		 */
+		private void adaptRetention(long writes) {
+			RetentionBounds bounds = getAdaptiveRetention(this.row.table);
+			if (bounds == null)
+				return;
+			long now = System.currentTimeMillis();
+			RowRetention r = rowRetentions.get(this.row);
+			long current = r == null ? bounds.minMs : bounds.bound(r.retentionMs);
+			long next;
+			if (writes >= MERGED_WRITES_TO_GROW)
+				next = Math.min(bounds.maxMs, Math.max(1, current*2));
+			else
+				next = Math.max(bounds.minMs, current/2);
+			rowRetentions.put(this.row, new RowRetention(next, now));
+			if (rowRetentions.size() > MAX_ADAPTIVE_ROWS && forgettingColdRows.compareAndSet(false, true)) {
+				try {
+					forgetColdRows(now);
+				} finally {
+					forgettingColdRows.set(false);
+				}
+			}
+		}
+
 		/**
 		 * Computing next update and registering in the delay queue
 		 */
 		private void plan() throws RequestIsOutException {
 			// Cannot plan if this request is out of indexed requests
-			if (this.dead)
+			if (this.state.get().dead)
 				throw new RequestIsOutException();
 
-			long nextExecutionDate = WriteRetentionStore.this.writeRetentionMs + System.currentTimeMillis();
+			long nextExecutionDate = this.getRetentionMs() + System.currentTimeMillis();
 			
 			// Placing this request in the to-do list
 			boolean shouldSubmit = this.outDateMs.compareAndSet(-1, nextExecutionDate);
@@ -1026,7 +1854,7 @@ public class WriteRetentionStore extends DelegatingStore {
 				}
 				
 				done = et.running;
-			} while (!done && !this.dead);
+			} while (!done && !this.state.get().dead);
 			// Not necessary to continue if this request is already out...
 			
 			assert evictionThread.get() != null || writeQueue.isEmpty();
@@ -1034,11 +1862,12 @@ public class WriteRetentionStore extends DelegatingStore {
 		
 		@Override
 		public String toString() {
+			boolean dead = this.state.get().dead;
 			return "write-cached "
-					+ (this.dead ? "sent" : "")
+					+ (dead ? "sent" : "")
 					+ " request for "
 					+ this.row
-					+ (this.dead ? 
+					+ (dead ? 
 							"" :
 							"planned for " +
 								new Date(this.outDateMs.get()) +
@@ -1048,27 +1877,116 @@ public class WriteRetentionStore extends DelegatingStore {
 		}
 	}
 
+	/**
+	 * Data grabbed from a {@link StoreRequest} that is about to be sent to the
+	 * {@link #getActualStore() actual store}.
+	 */
+	private class PendingSend {
+		private final StoreRequest request;
+		private final MetaInformation meta;
+		private final ColumnFamilyData changes;
+		private final Map<String, Set<String>> removed;
+		private final Map<String, Map<String, Number>> increments;
+		/**
+		 * Whether row should be deleted before being stored
+		 */
+		private final boolean delete;
+		/**
+		 * Whether changes should be stored
+		 */
+		private final boolean store;
+		private final boolean flushing;
+		private final long outDate;
+		/**
+		 * Estimated size of sent data
+		 */
+		private final long bytes;
+		/**
+		 * Journal records for sent data
+		 */
+		private final Collection<WriteJournal.Record> records;
+		/**
+		 * Sent data as seen by readers
+		 */
+		private final InFlight inFlight;
+
+		private PendingSend(StoreRequest request, MetaInformation meta,
+				ColumnFamilyData changes, Map<String, Set<String>> removed,
+				Map<String, Map<String, Number>> increments, boolean delete,
+				boolean store, boolean flushing, long outDate, long bytes, Collection<WriteJournal.Record> records,
+				InFlight inFlight) {
+			this.request = request;
+			this.meta = meta;
+			this.changes = changes;
+			this.removed = removed;
+			this.increments = increments;
+			this.delete = delete;
+			this.store = store;
+			this.flushing = flushing;
+			this.outDate = outDate;
+			this.bytes = bytes;
+			this.records = records;
+			this.inFlight = inFlight;
+		}
+		
+		/**
+		 * The store this request was retained by
+		 */
+		private WriteRetentionStore getStore() {
+			return WriteRetentionStore.this;
+		}
+		
+		private String getTable() {
+			return this.request.row.table;
+		}
+		
+		private RowChanges toRowChanges() {
+			return new RowChanges(this.meta, this.request.row.table, this.request.row.id, this.changes, this.removed, this.increments);
+		}
+
+		/**
+		 * To be called just before data is sent to the actual store
+		 */
+		private void delivering() {
+			this.inFlight.delivering = true;
+		}
+
+		private void captureLatency() {
+			if (!this.flushing && this.outDate != -1) {
+				requestsLatencySamples.increment();
+				// Requests sent early as retention is full are not late
+				long delay = Math.max(0, System.currentTimeMillis()-this.outDate);
+				requestsCumulativeLatency.add(delay);
+			}
+		}
+		
+		/**
+		 * To be called once request was actually sent
+		 * @param delivered whether the actual store accepted data ; if not, journaled
+		 *  data is kept so that it is replayed on next start unless a later send for the same row is delivered
+		 */
+		private void sent(boolean delivered) {
+			try {
+				this.request.requestSent(this.flushing);
+			} finally {
+				release(this.bytes);
+				WriteJournal j = journal;
+				if (j != null && !this.records.isEmpty()) {
+					if (delivered)
+						j.delivered(this.records);
+					else
+						j.failed(this.records);
+				}
+			}
+		}
+	}
+
 	/**
 	 * Code for the thread responsible for reading {@link WriteRetentionStore#writeQueue the queue} and
-	 * {@link StoreRequest#send(ExecutorService, LongAdder) sending requests}. Only one thread should 
-	 * live. A shutdown hook sends all pending requests.
+	 * {@link StoreRequest#send(SenderPool, boolean) sending requests} to {@link WriteRetentionStore#senders sender threads}.
+	 * Only one thread should live. A shutdown hook sends all pending requests.
 	 */
 	private static class EvictionThread extends Thread {
-		private final ThreadPoolExecutor sender = new ThreadPoolExecutor(1, Integer.MAX_VALUE,
-                5L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
-			
-			@Override
-			public Thread newThread(Runnable r) {
-				int cps = sender.getCorePoolSize();
-				assert cps <= WriteRetentionStore.getMaxSenderThreads() :
-					"Too many sender threads running (found " + cps + " instead of " + WriteRetentionStore.getMaxSenderThreads() + ')';
-				
-				Thread ret = new Thread(r, "n-orm write cache sender #" + cps);
-				ret.setDaemon(false);
-				
-				return ret;
-			}
-		});
 
 		private volatile boolean alreadyStarted = false;
 		private volatile boolean running = true;
@@ -1094,9 +2012,9 @@ public class WriteRetentionStore extends DelegatingStore {
 			while (evictionThread.get() == this) {
 				StoreRequest r = null;
 				try {
-					while (requestsBeingSending.get() >= getMaxSenderThreads()) {
+					while (areSendersBusy()) {
 						synchronized(this) {
-							if (requestsBeingSending.get() >= getMaxSenderThreads()) {
+							if (areSendersBusy()) {
 								this.waiting = true;
 								this.wait(100);
 								this.waiting = false;
@@ -1113,12 +2031,16 @@ public class WriteRetentionStore extends DelegatingStore {
 							if (!writeQueue.isEmpty() || requestsBeingSending.get() != 0)
 								evictionThread.compareAndSet(null, this);
 						}
+					} else if (getMaxBatchSize() > 1) {
+						
+						this.sendBatches(r);
+						
 					} else {
 					
 						// Requests in preparation of sending are marked twice so that a "0" is
 						// a bit less likely to be a false 0
 						requestsBeingSending.incrementAndGet();
-						r.send(this.sender, false);
+						r.send(senders, false);
 						requestsBeingSending.decrementAndGet();
 					}
 					
@@ -1133,13 +2055,82 @@ public class WriteRetentionStore extends DelegatingStore {
 				}
 			}
 			
-			// Stopping
+			// Stopping ; sender threads stop on their own once idle
 			this.running = false;
-			this.sender.shutdown();
+		}
+		
+		/**
+		 * Drains due requests (up to {@link WriteRetentionStore#getMaxBatchSize()}, waiting at most
+		 * {@link WriteRetentionStore#getMaxBatchLatencyMs()} for requests to become due) and sends
+		 * them grouped by store and table.
+		 * @param first a due request, already out of the queue
+		 */
+		private void sendBatches(StoreRequest first) throws InterruptedException {
+			int maxBatchSize = getMaxBatchSize();
+			List<StoreRequest> due = new ArrayList<StoreRequest>(Math.min(maxBatchSize, 1024));
+			due.add(first);
+			// Marking drained requests as being sending so that a "0" is not a false 0
+			requestsBeingSending.incrementAndGet();
 			try {
-				this.sender.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
-			} catch (InterruptedException e) {
-				logger.log(Level.SEVERE, "Problem while shutting down n-orm write retention cache: " + e.getMessage(), e);
+				long deadline = System.currentTimeMillis() + getMaxBatchLatencyMs();
+				while (due.size() < maxBatchSize) {
+					StoreRequest r = writeQueue.poll();
+					if (r == null) {
+						long wait = deadline - System.currentTimeMillis();
+						if (wait <= 0)
+							break;
+						r = writeQueue.poll(wait, TimeUnit.MILLISECONDS);
+						if (r == null)
+							break;
+					}
+					requestsBeingSending.incrementAndGet();
+					due.add(r);
+				}
+				
+				// Grouping by store and table
+				Map<WriteRetentionStore, Map<String, List<PendingSend>>> batches = new HashMap<WriteRetentionStore, Map<String, List<PendingSend>>>();
+				for (StoreRequest r : due) {
+					PendingSend p;
+					try {
+						p = r.prepareSend(false);
+					} catch (RuntimeException x) {
+						logger.log(Level.SEVERE, "Problem while sending request out of write cache ; request " + r + " lost: " + x.getMessage(), x);
+						continue;
+					}
+					if (p == null)
+						continue;
+					Map<String, List<PendingSend>> storeBatches = batches.get(p.getStore());
+					if (storeBatches == null) {
+						storeBatches = new TreeMap<String, List<PendingSend>>();
+						batches.put(p.getStore(), storeBatches);
+					}
+					List<PendingSend> batch = storeBatches.get(p.getTable());
+					if (batch == null) {
+						batch = new ArrayList<PendingSend>();
+						storeBatches.put(p.getTable(), batch);
+					}
+					batch.add(p);
+				}
+				
+				for (Map<String, List<PendingSend>> storeBatches : batches.values()) {
+					for (final List<PendingSend> batch : storeBatches.values()) {
+						final WriteRetentionStore store = batch.get(0).getStore();
+						// Requests were drained by due time: first one is the most late
+						senders.submit(batch.get(0).getTable(), batch.get(0).outDate, new Runnable() {
+							
+							@Override
+							public void run() {
+								try {
+									store.sendBatch(batch);
+								} finally {
+									wakeUpEvictionThread();
+								}
+							}
+						});
+					}
+				}
+			} finally {
+				requestsBeingSending.addAndGet(-due.size());
 			}
 		}
 
@@ -1175,6 +2166,32 @@ public class WriteRetentionStore extends DelegatingStore {
 	 */
 	private boolean enabledByDefault = true;
 	
+	/**
+	 * Bounds for adaptive retention of any table ; null if retention is not adaptive by default
+	 */
+	private volatile RetentionBounds defaultAdaptiveRetention = null;
+	
+	/**
+	 * Bounds for adaptive retention according to table
+	 */
+	private final ConcurrentMap<String, RetentionBounds> adaptiveRetentions = new ConcurrentHashMap<String, RetentionBounds>();
+	
+	/**
+	 * Retention time learnt for rows in case of {@link #setAdaptiveRetention(String, long, long) adaptive retention}
+	 */
+	@Transient
+	private final ConcurrentMap<RowInTable, RowRetention> rowRetentions = new ConcurrentHashMap<RowInTable, RowRetention>();
+	
+	/**
+	 * Whether a thread is {@link #forgetColdRows(long) forgetting rows} from {@link #rowRetentions}
+	 */
+	private final AtomicBoolean forgettingColdRows = new AtomicBoolean(false);
+	
+	/**
+	 * Journal for retained writes ; null if none
+	 */
+	private volatile WriteJournal journal = null;
+	
 	private WriteRetentionStore(long writeRetentionMs, Store s) {
 		super(s);
 		this.writeRetentionMs = writeRetentionMs;
@@ -1207,10 +2224,110 @@ public class WriteRetentionStore extends DelegatingStore {
 		this.enabledByDefault = enabled;
 	}
 
+	/**
+	 * Makes retention adaptive for all tables with no {@link #setAdaptiveRetention(String, long, long) specific bounds}.
+	 * @see #setAdaptiveRetention(String, long, long)
+	 */
+	public void setAdaptiveRetention(long minMs, long maxMs) {
+		this.defaultAdaptiveRetention = new RetentionBounds(minMs, maxMs);
+	}
+
+	/**
+	 * Makes retention adaptive for a given table.
+	 * Instead of {@link #getWriteRetentionMs()}, a row is first retained during minMs ;
+	 * each time it is sent, its retention time is doubled (up to maxMs) in case several writes
+	 * were merged, and halved (down to minMs) in case it was sent for a single write.
+	 * Retention time is remembered per row across sends.
+	 * As such, frequently updated rows (e.g. counters) are merged over longer periods while
+	 * rarely updated rows are sent with a low latency.
+	 */
+	public void setAdaptiveRetention(String table, long minMs, long maxMs) {
+		this.adaptiveRetentions.put(table, new RetentionBounds(minMs, maxMs));
+	}
+
+	/**
+	 * Makes retention fixed to {@link #getWriteRetentionMs()} for all tables.
+	 */
+	public void resetAdaptiveRetention() {
+		this.defaultAdaptiveRetention = null;
+		this.adaptiveRetentions.clear();
+		this.rowRetentions.clear();
+	}
+	
+	/**
+	 * Forgets retention time of rows not sent for longer than their maximum retention time
+	 * or retained for their minimum retention time, and then of arbitrary rows until
+	 * {@link #ADAPTIVE_ROWS_LOW_WATERMARK} rows are known so that next sends do not scan again.
+	 * Only one thread at a time should run this method.
+	 */
+	private void forgetColdRows(long now) {
+		Iterator<Entry<RowInTable, RowRetention>> it = this.rowRetentions.entrySet().iterator();
+		while (it.hasNext()) {
+			Entry<RowInTable, RowRetention> r = it.next();
+			RetentionBounds bounds = this.getAdaptiveRetention(r.getKey().table);
+			if (bounds == null || now - r.getValue().lastSendMs > bounds.maxMs || r.getValue().retentionMs <= bounds.minMs)
+				it.remove();
+		}
+		it = this.rowRetentions.entrySet().iterator();
+		while (this.rowRetentions.size() > ADAPTIVE_ROWS_LOW_WATERMARK && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Bounds for adaptive retention of a table ; null if retention is fixed for this table.
+	 */
+	private RetentionBounds getAdaptiveRetention(String table) {
+		RetentionBounds ret = this.adaptiveRetentions.get(table);
+		return ret == null ? this.defaultAdaptiveRetention : ret;
+	}
+
+	/**
+	 * Minimum retention time for a table ; {@link #getWriteRetentionMs()} if retention is not adaptive.
+	 */
+	public long getMinRetentionMs(String table) {
+		RetentionBounds b = this.getAdaptiveRetention(table);
+		return b == null ? this.writeRetentionMs : b.minMs;
+	}
+
+	/**
+	 * Maximum retention time for a table ; {@link #getWriteRetentionMs()} if retention is not adaptive.
+	 */
+	public long getMaxRetentionMs(String table) {
+		RetentionBounds b = this.getAdaptiveRetention(table);
+		return b == null ? this.writeRetentionMs : b.maxMs;
+	}
+
+	/**
+	 * The journal where retained writes are recorded before being merged ; null if none.
+	 */
+	public WriteJournal getJournal() {
+		return this.journal;
+	}
+
+	/**
+	 * Sets the journal where retained writes are recorded before being merged.
+	 * Writes found in the journal are sent to the {@link #getActualStore() actual store}
+	 * on {@link #start()}.
+	 * @throws IllegalStateException if this store is already started
+	 */
+	public void setJournal(WriteJournal journal) {
+		if (this.started.get())
+			throw new IllegalStateException("Cannot set journal for started " + this);
+		this.journal = journal;
+	}
+
 	@Override
 	public void start() throws DatabaseNotReachedException {
 		if (started.compareAndSet(false, true)) {
 			super.start();
+			WriteJournal j = this.journal;
+			if (j != null) {
+				int replayed = j.replay(this.getActualStore());
+				if (replayed > 0)
+					logger.info(replayed + " writes replayed from " + j);
+			}
 		}
 	}
 	
@@ -1268,6 +2385,254 @@ public class WriteRetentionStore extends DelegatingStore {
 		});
 	}
 
+	@Override
+	public void storeChanges(List<RowChanges> changes)
+			throws DatabaseNotReachedException {
+		if (!isRetending()) {
+			this.getActualStore().storeChanges(changes);
+			return;
+		}
+		
+		for (final RowChanges change : changes) {
+			this.runLater(change.getTable(), change.getId(), new Operation() {
+				
+				@Override
+				public void run(StoreRequest req) throws RequestIsOutException {
+					req.update(change.getMeta(), change.getChanged(),
+							change.getRemoved(), change.getIncrements());
+				}
+			});
+		}
+	}
+
+	/**
+	 * Reads a row from the {@link #getActualStore() actual store}.
+	 */
+	private static abstract class RowReader {
+		/**
+		 * @return data found for the row ; null in case row was not found
+		 */
+		public abstract ColumnFamilyData read() throws DatabaseNotReachedException;
+	}
+	
+	/**
+	 * Reads a row from the {@link #getActualStore() actual store} and overlays retained changes,
+	 * including those being sent.
+	 * @return merged data, or null in case row does not exist
+	 */
+	private ColumnFamilyData readMerged(String table, String id, Set<String> families, RowReader reader) {
+		RowInTable row = new RowInTable(table, id);
+		while (true) {
+			StoreRequest req = this.writesByRows.get(row);
+			if (req == null)
+				return reader.read();
+			long sends = req.getSends();
+			ColumnFamilyData ret = req.mergeWith(reader.read(), families, sends);
+			if (ret != RETRY)
+				return ret;
+		}
+	}
+	
+	private static ColumnFamilyData toColumnFamilyData(String family, Map<String, byte[]> values) {
+		if (values == null)
+			return null;
+		ColumnFamilyData ret = new DefaultColumnFamilyData();
+		ret.put(family, values);
+		return ret;
+	}
+
+	/**
+	 * Checks the {@link #getActualStore() actual store} unless retained changes tell whether row exists.
+	 */
+	@Override
+	public boolean exists(final MetaInformation meta, final String table, final String row)
+			throws DatabaseNotReachedException {
+		StoreRequest req = this.writesByRows.get(new RowInTable(table, row));
+		if (req == null)
+			return this.getActualStore().exists(meta, table, row);
+		Boolean ret = req.existsRetained();
+		if (ret != null)
+			return ret;
+		return this.readMerged(table, row, Collections.<String>emptySet(), new RowReader() {
+			
+			@Override
+			public ColumnFamilyData read() throws DatabaseNotReachedException {
+				return getActualStore().exists(meta, table, row) ? new DefaultColumnFamilyData() : null;
+			}
+		}) != null;
+	}
+
+	/**
+	 * Checks the {@link #getActualStore() actual store} and retained changes.
+	 */
+	@Override
+	public boolean exists(MetaInformation meta, String table, String row,
+			String family) throws DatabaseNotReachedException {
+		if (this.writesByRows.get(new RowInTable(table, row)) == null)
+			return this.getActualStore().exists(meta, table, row, family);
+		Map<String, byte[]> ret = this.get(meta, table, row, family);
+		return ret != null && !ret.isEmpty();
+	}
+
+	/**
+	 * Gets a column from retained changes, or from the {@link #getActualStore() actual store}
+	 * and merges result with retained changes.
+	 */
+	@Override
+	public byte[] get(final MetaInformation meta, final String table, final String row,
+			final String family, final String key) throws DatabaseNotReachedException {
+		StoreRequest req = this.writesByRows.get(new RowInTable(table, row));
+		if (req == null)
+			return this.getActualStore().get(meta, table, row, family, key);
+		byte[] ret = req.getRetainedValue(family, key);
+		if (ret != UNKNOWN_VALUE)
+			return ret;
+		ColumnFamilyData data = this.readMerged(table, row, Collections.singleton(family), new RowReader() {
+			
+			@Override
+			public ColumnFamilyData read() throws DatabaseNotReachedException {
+				Map<String, byte[]> values = new TreeMap<String, byte[]>();
+				byte[] value = getActualStore().get(meta, table, row, family, key);
+				if (value != null)
+					values.put(key, value);
+				return toColumnFamilyData(family, values);
+			}
+		});
+		Map<String, byte[]> values = data == null ? null : data.get(family);
+		return values == null ? null : values.get(key);
+	}
+
+	/**
+	 * Gets a family from the {@link #getActualStore() actual store} and merges result with retained changes.
+	 */
+	@Override
+	public Map<String, byte[]> get(final MetaInformation meta, final String table,
+			final String id, final String family) throws DatabaseNotReachedException {
+		if (this.writesByRows.get(new RowInTable(table, id)) == null)
+			return this.getActualStore().get(meta, table, id, family);
+		ColumnFamilyData data = this.readMerged(table, id, Collections.singleton(family), new RowReader() {
+			
+			@Override
+			public ColumnFamilyData read() throws DatabaseNotReachedException {
+				return toColumnFamilyData(family, getActualStore().get(meta, table, id, family));
+			}
+		});
+		return data == null ? null : data.get(family);
+	}
+
+	/**
+	 * Gets a family from the {@link #getActualStore() actual store} and merges result with retained changes
+	 * for columns within the constraint.
+	 */
+	@Override
+	public Map<String, byte[]> get(final MetaInformation meta, final String table,
+			final String id, final String family, final Constraint c)
+			throws DatabaseNotReachedException {
+		if (c == null || this.writesByRows.get(new RowInTable(table, id)) == null)
+			return this.getActualStore().get(meta, table, id, family, c);
+		ColumnFamilyData data = this.readMerged(table, id, Collections.singleton(family), new RowReader() {
+			
+			@Override
+			public ColumnFamilyData read() throws DatabaseNotReachedException {
+				return toColumnFamilyData(family, getActualStore().get(meta, table, id, family, c));
+			}
+		});
+		Map<String, byte[]> values = data == null ? null : data.get(family);
+		if (values == null)
+			return null;
+		Map<String, byte[]> ret = new TreeMap<String, byte[]>();
+		for (Entry<String, byte[]> col : values.entrySet()) {
+			if ((c.getStartKey() == null || col.getKey().compareTo(c.getStartKey()) >= 0)
+					&& (c.getEndKey() == null || col.getKey().compareTo(c.getEndKey()) <= 0))
+				ret.put(col.getKey(), col.getValue());
+		}
+		return ret;
+	}
+
+	/**
+	 * Gets a row from the {@link #getActualStore() actual store} and merges result with retained changes.
+	 */
+	@Override
+	public ColumnFamilyData get(final MetaInformation meta, final String table, final String id,
+			final Set<String> families) throws DatabaseNotReachedException {
+		if (this.writesByRows.get(new RowInTable(table, id)) == null)
+			return this.getActualStore().get(meta, table, id, families);
+		return this.readMerged(table, id, families, new RowReader() {
+			
+			@Override
+			public ColumnFamilyData read() throws DatabaseNotReachedException {
+				return getActualStore().get(meta, table, id, families);
+			}
+		});
+	}
+
+	/**
+	 * Gets rows from the {@link #getActualStore() actual store} in a single call,
+	 * and merges results with retained changes for those rows.
+	 * Rows for which a send reached the actual store meanwhile are read again one by one.
+	 */
+	@Override
+	public Map<String, ColumnFamilyData> get(MetaInformation meta,
+			String table, Collection<String> ids, Set<String> families)
+			throws DatabaseNotReachedException {
+		if (this.writesByRows.isEmpty())
+			return this.getActualStore().get(meta, table, ids, families);
+		
+		Map<String, StoreRequest> reqs = new HashMap<String, StoreRequest>();
+		Map<String, Long> sends = new HashMap<String, Long>();
+		for (String id : ids) {
+			StoreRequest req = this.writesByRows.get(new RowInTable(table, id));
+			if (req != null) {
+				reqs.put(id, req);
+				sends.put(id, req.getSends());
+			}
+		}
+		
+		Map<String, ColumnFamilyData> ret = this.getActualStore().get(meta, table, ids, families);
+		for (Entry<String, StoreRequest> req : reqs.entrySet()) {
+			String id = req.getKey();
+			ColumnFamilyData data = req.getValue().mergeWith(ret.get(id), families, sends.get(id));
+			if (data == RETRY)
+				data = this.get(meta, table, id, families);
+			if (data == null)
+				ret.remove(id);
+			else
+				ret.put(id, data);
+		}
+		return ret;
+	}
+
+	/**
+	 * Sends a set of requests for rows of the same table in a single
+	 * {@link Store#storeChanges(List) multi-row store} to the {@link #getActualStore() actual store}.
+	 * Rows that were deleted are deleted one by one beforehand as a delete cannot be part of
+	 * such a store.
+	 */
+	private void sendBatch(List<PendingSend> batch) {
+		boolean delivered = false;
+		try {
+			List<RowChanges> changes = new ArrayList<RowChanges>(batch.size());
+			for (PendingSend p : batch) {
+				p.captureLatency();
+				p.delivering();
+				if (p.delete)
+					this.getActualStore().delete(p.meta, p.request.row.table, p.request.row.id);
+				if (p.store)
+					changes.add(p.toRowChanges());
+			}
+			if (!changes.isEmpty())
+				this.getActualStore().storeChanges(changes);
+			delivered = true;
+		} catch (RuntimeException x) {
+			logger.log(Level.WARNING, "Catched problem while sending " + batch.size() + " write-cached requests for table " + batch.get(0).getTable() + " ; some data might have been lost: " + x.getMessage(), x);
+			throw x;
+		} finally {
+			for (PendingSend p : batch) {
+				p.sent(delivered);
+			}
+		}
+	}
+
 	/**
 	 * Whether this store is actually retending writes.
 	 * It will return true if JVM is not in a shutdown process and if store is
@@ -1280,7 +2645,8 @@ public class WriteRetentionStore extends DelegatingStore {
 
 	/**
 	 * Plans a request sending. Sends immediately in case this thread in case we
-	 * are about to shutdown.
+	 * are about to shutdown. In case retention is full, waits for retained data
+	 * to be sent or sends immediately according to {@link #isBlockingWhenFull()}.
 	 * 
 	 * @param table
 	 *            table of the element
@@ -1292,12 +2658,14 @@ public class WriteRetentionStore extends DelegatingStore {
 	private void runLater(String table, String id, Operation r) {
 		if (captureHitRatio)
 			requestsIn.increment();
+		waitForCapacity();
 		RowInTable element = new RowInTable(table, id);
 		while(true) {
 			StoreRequest req = new StoreRequest(element);
 			StoreRequest tmp = writesByRows.putIfAbsent(element, req);
 			try {
 				if (tmp == null) {
+					retainedRequests.incrementAndGet();
 					// req was added ; should also be put in the delay queue
 					req.plan();
 					logger.fine("Request planned for " + table + ':' + id + " on " + System.currentTimeMillis() + " by " + req);
@@ -1306,6 +2674,13 @@ public class WriteRetentionStore extends DelegatingStore {
 					req = tmp;
 				}
 				r.run(req);
+				// Waiting for the journal to be on disk
+				WriteJournal j = this.journal;
+				if (j != null)
+					j.sync(j.getAppended());
+				// Retention is full and writers should not be blocked: writing through
+				if (isFull() && !blockingWhenFull)
+					req.send(null, true);
 				// Request is planned and merged ; leaving the infinite loop
 				break;
 			} catch (RequestIsOutException x) {
@@ -17,6 +17,7 @@ import com.googlecode.n_orm.Incrementing;
 import com.googlecode.n_orm.PersistingElement;
 import com.googlecode.n_orm.PropertyManagement;
 import com.googlecode.n_orm.consoleannotations.Continuator;
+import com.googlecode.n_orm.conversion.Codec;
 import com.googlecode.n_orm.conversion.ConversionTools;
 import com.googlecode.n_orm.storeapi.Constraint;
 import com.googlecode.n_orm.storeapi.MetaInformation;
@@ -26,6 +27,7 @@ public abstract class ColumnFamily<T> implements Comparable<ColumnFamily<T>> {
 	public static enum ChangeKind {SET, DELETE};
 	
 	protected final Class<T> clazz;
+	protected final Codec<T> codec;
 	protected final Field property;
 	protected final String name;
 	protected final PersistingElement owner;
@@ -41,6 +43,7 @@ public abstract class ColumnFamily<T> implements Comparable<ColumnFamily<T>> {
 	
 	public ColumnFamily() { //For compile-time purpose only ; should be replaced by Around of ColumnFamilyManagement
 		this.clazz = null;
+		this.codec = null;
 		this.property = null;
 		this.name = null;
 		this.owner = null;
@@ -51,6 +54,7 @@ public abstract class ColumnFamily<T> implements Comparable<ColumnFamily<T>> {
 	public ColumnFamily(Class<T> clazz, Field property, String name, PersistingElement owner) {
 		super();
 		this.clazz = clazz;
+		this.codec = ConversionTools.getCodec(clazz);
 		this.property = property;
 		this.name = name;
 		this.owner = owner;
@@ -83,6 +87,13 @@ public abstract class ColumnFamily<T> implements Comparable<ColumnFamily<T>> {
 	public Class<T> getClazz() {
 		return clazz;
 	}
+	
+	/**
+	 * The codec for elements of this column family.
+	 */
+	public Codec<T> getCodec() {
+		return codec;
+	}
 
 	/**
 	 * @return the property corresponding to that column family ; may be null, e.g. for the properties or increments column families
@@ -164,7 +175,7 @@ public abstract class ColumnFamily<T> implements Comparable<ColumnFamily<T>> {
 	}
 
 	protected T preparePut(String key, byte [] rep) {
-		return ConversionTools.convert(this.clazz, rep);
+		return this.codec.fromBytes(rep);
 	}
 
 	/**
@@ -231,7 +242,7 @@ public abstract class ColumnFamily<T> implements Comparable<ColumnFamily<T>> {
 		if(lhs == rhs)
 			return false;
 		
-		return !Arrays.equals(ConversionTools.convert(lhs, this.clazz), ConversionTools.convert(rhs, this.clazz));
+		return !Arrays.equals(this.codec.toBytes(lhs), this.codec.toBytes(rhs));
 	}
 	
 	/**
@@ -0,0 +1,92 @@
+package com.googlecode.n_orm.conversion;
+
+import com.googlecode.n_orm.PropertyManagement;
+
+/**
+ * A binary converter bound once and for all to a declared type, e.g. the type of a property or of a column family element.
+ * The converter for the type is looked up when the codec is created, so that conversions do not search for it again.
+ * Values or representations the bound converter cannot handle (e.g. an instance of a subclass)
+ * are converted the usual way using {@link ConversionTools}.
+ * A compact codec writes {@link com.googlecode.n_orm.Compact compact} representations when possible,
+ * and reads both compact and default representations.
+ * @see ConversionTools#getCodec(Class)
+ * @see ConversionTools#getCodec(Class, boolean)
+ */
+public final class Codec<T> {
+	private final Class<T> type;
+	private final Converter<Object> converter;
+	private final boolean compact;
+
+	@SuppressWarnings("unchecked")
+	Codec(Class<T> type, Converter<?> converter, boolean compact) {
+		this.type = type;
+		this.converter = (Converter<Object>) converter;
+		this.compact = compact;
+	}
+
+	/**
+	 * The declared type this codec converts.
+	 */
+	public Class<T> getType() {
+		return type;
+	}
+
+	/**
+	 * Whether a converter could be bound to the declared type.
+	 * If not, all conversions go through {@link ConversionTools}.
+	 */
+	public boolean isPrecompiled() {
+		return this.converter != null;
+	}
+
+	/**
+	 * Whether this codec writes compact representations.
+	 */
+	public boolean isCompact() {
+		return this.compact;
+	}
+
+	/**
+	 * Same as {@link ConversionTools#convert(Object, Class)} with the declared type as expected class,
+	 * unless this codec is compact.
+	 */
+	public byte[] toBytes(Object value) {
+		if (value instanceof PropertyManagement.Property)
+			value = ((PropertyManagement.Property) value).getValue();
+
+		if (value == null)
+			return null;
+
+		if (this.compact) {
+			byte[] ret = CompactEncoding.toBytes(value, this.type);
+			if (ret != null)
+				return ret;
+		}
+
+		if (this.converter != null && this.converter.canConvertToBytes(value))
+			return this.converter.toBytes(value, this.type);
+
+		return ConversionTools.convert(value, this.type);
+	}
+
+	/**
+	 * Same as {@link ConversionTools#convert(Class, byte[])} with the declared type as expected class ;
+	 * a compact codec also reads compact representations.
+	 */
+	@SuppressWarnings("unchecked")
+	public T fromBytes(byte[] representation) {
+		if (representation == null)
+			return null;
+
+		if (this.compact) {
+			Object ret = CompactEncoding.fromBytes(representation, this.type);
+			if (ret != null)
+				return (T) ret;
+		}
+
+		if (this.converter != null && this.converter.canConvertFromBytes(representation, this.type))
+			return (T) this.converter.fromBytes(representation, this.type);
+
+		return ConversionTools.convert(this.type, representation);
+	}
+}
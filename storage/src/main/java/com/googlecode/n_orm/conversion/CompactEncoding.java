@@ -0,0 +1,241 @@
+package com.googlecode.n_orm.conversion;
+
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Compact binary representations used by {@link Codec codecs} for {@link com.googlecode.n_orm.Compact} properties,
+ * and compact string representations for {@link com.googlecode.n_orm.Key#compact() compact keys}.
+ * Naturals are written as zig-zag varints and dates as a zig-zag varint delta from {@link #DATE_ORIGIN}.
+ * A compact representation is only used when it is strictly shorter than the default fixed-width one,
+ * so that both can be told apart by their length.
+ * Enumerations are written as a 0 byte followed by the varint ordinal ; default representations are names, which do not start with a 0 byte.
+ */
+class CompactEncoding {
+	/**
+	 * 2000-01-01T00:00:00Z
+	 */
+	static final long DATE_ORIGIN = 946684800000l;
+
+	private static final byte ENUM_MARKER = 0;
+
+	/**
+	 * Digits for compact strings, in ascending order so that strings of same length sort as their values.
+	 */
+	private static final char[] DIGITS = "-0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz".toCharArray();
+	private static final int[] DIGIT_VALUES = new int[128];
+	private static final int DIGIT_BITS = 6;
+
+	static {
+		Arrays.fill(DIGIT_VALUES, -1);
+		for (int i = 0; i < DIGITS.length; i++) {
+			DIGIT_VALUES[DIGITS[i]] = i;
+		}
+	}
+
+	/**
+	 * Fixed width of the default representation, or -1 if type has no compact representation.
+	 */
+	private static int defaultWidth(Class<?> type) {
+		if (Long.class.equals(type) || long.class.equals(type) || Date.class.equals(type))
+			return Long.SIZE/Byte.SIZE;
+		if (Integer.class.equals(type) || int.class.equals(type))
+			return Integer.SIZE/Byte.SIZE;
+		if (Short.class.equals(type) || short.class.equals(type))
+			return Short.SIZE/Byte.SIZE;
+		return -1;
+	}
+
+	static boolean canEncode(Class<?> type) {
+		return type.isEnum() || defaultWidth(type) > 0;
+	}
+
+	private static int varintSize(long zigzag) {
+		int ret = 1;
+		while ((zigzag & ~0x7fl) != 0) {
+			zigzag >>>= 7;
+			ret++;
+		}
+		return ret;
+	}
+
+	private static void writeVarint(byte[] rep, int offset, long zigzag) {
+		while ((zigzag & ~0x7fl) != 0) {
+			rep[offset++] = (byte) ((zigzag & 0x7f) | 0x80);
+			zigzag >>>= 7;
+		}
+		rep[offset] = (byte) zigzag;
+	}
+
+	private static long readVarint(byte[] rep, int offset) {
+		long ret = 0;
+		int shift = 0;
+		for (int i = offset; i < rep.length; i++) {
+			ret |= (long) (rep[i] & 0x7f) << shift;
+			if ((rep[i] & 0x80) == 0) {
+				if (i != rep.length-1)
+					break;
+				return ret;
+			}
+			shift += 7;
+		}
+		throw new IllegalArgumentException("Invalid compact representation of length " + rep.length);
+	}
+
+	/**
+	 * The compact representation for value, or null if the default representation should be used instead.
+	 */
+	static byte[] toBytes(Object value, Class<?> type) {
+		if (type.isEnum()) {
+			if (!type.isInstance(value))
+				return null;
+			int ordinal = ((Enum<?>) value).ordinal();
+			byte[] ret = new byte[1 + varintSize(ordinal)];
+			ret[0] = ENUM_MARKER;
+			writeVarint(ret, 1, ordinal);
+			return ret;
+		}
+
+		int width = defaultWidth(type);
+		if (width <= 0)
+			return null;
+		long v;
+		if (value instanceof Date)
+			v = ((Date) value).getTime() - DATE_ORIGIN;
+		else if (value instanceof Long || value instanceof Integer || value instanceof Short)
+			v = ((Number) value).longValue();
+		else
+			return null;
+		long zigzag = (v << 1) ^ (v >> 63);
+		int size = varintSize(zigzag);
+		if (size >= width)
+			return null;
+		byte[] ret = new byte[size];
+		writeVarint(ret, 0, zigzag);
+		return ret;
+	}
+
+	/**
+	 * The value for a compact representation, or null if rep is a default representation.
+	 */
+	static Object fromBytes(byte[] rep, Class<?> type) {
+		if (type.isEnum()) {
+			if (rep.length < 2 || rep[0] != ENUM_MARKER)
+				return null;
+			Object[] constants = type.getEnumConstants();
+			long ordinal = readVarint(rep, 1);
+			if (ordinal >= constants.length)
+				throw new IllegalArgumentException("No constant with ordinal " + ordinal + " in " + type);
+			return constants[(int) ordinal];
+		}
+
+		int width = defaultWidth(type);
+		if (width <= 0 || rep.length == 0 || rep.length >= width)
+			return null;
+		long zigzag = readVarint(rep, 0);
+		long v = (zigzag >>> 1) ^ -(zigzag & 1);
+		if (Date.class.equals(type))
+			return new Date(v + DATE_ORIGIN);
+		if (width == Long.SIZE/Byte.SIZE)
+			return v;
+		if (width == Integer.SIZE/Byte.SIZE)
+			return (int) v;
+		return (short) v;
+	}
+
+	/**
+	 * Number of bits of the natural or date type, or -1 if type is not a natural or a date.
+	 */
+	private static int naturalBits(Class<?> type) {
+		if (Byte.class.equals(type) || byte.class.equals(type))
+			return Byte.SIZE;
+		int width = defaultWidth(type);
+		return width <= 0 ? -1 : width*Byte.SIZE;
+	}
+
+	private static int enumBits(Class<?> type) {
+		int constants = type.getEnumConstants().length, ret = 1;
+		while ((1l << ret) < constants)
+			ret++;
+		return ret;
+	}
+
+	/**
+	 * The order-preserving compact string representation for a natural, a date or an enumeration.
+	 * @param reverted whether the order should be reverted ; not possible for enumerations
+	 */
+	static String toString(Object value, Class<?> type, boolean reverted) {
+		long v;
+		int bits;
+		if (type.isEnum()) {
+			if (reverted)
+				throw new UnreversibleTypeException(type);
+			v = ((Enum<?>) value).ordinal();
+			bits = enumBits(type);
+		} else {
+			bits = naturalBits(type);
+			if (bits <= 0)
+				throw new IllegalArgumentException("No compact string representation for " + type);
+			v = value instanceof Date ? ((Date) value).getTime() : ((Number) value).longValue();
+			if (reverted)
+				v = -v;
+			v ^= 1l << (bits-1); //Removing sign so that elements are sorted as expected
+			if (bits < Long.SIZE)
+				v &= (1l << bits) - 1;
+		}
+		char[] ret = new char[(bits + DIGIT_BITS - 1) / DIGIT_BITS];
+		for (int i = ret.length-1; i >= 0; i--) {
+			ret[i] = DIGITS[(int) (v & (DIGITS.length-1))];
+			v >>>= DIGIT_BITS;
+		}
+		return new String(ret);
+	}
+
+	/**
+	 * Reads a string written by {@link #toString(Object, Class, boolean)}.
+	 */
+	static Object fromString(String rep, Class<?> type, boolean reverted) {
+		boolean isEnum = type.isEnum();
+		if (isEnum && reverted)
+			throw new UnreversibleTypeException(type);
+		int bits = isEnum ? enumBits(type) : naturalBits(type);
+		if (bits <= 0)
+			throw new IllegalArgumentException("No compact string representation for " + type);
+		if (rep.length() != (bits + DIGIT_BITS - 1) / DIGIT_BITS)
+			throw new IllegalArgumentException("Invalid compact representation " + rep + " for " + type);
+		long v = 0;
+		for (int i = 0; i < rep.length(); i++) {
+			char c = rep.charAt(i);
+			int d = c < DIGIT_VALUES.length ? DIGIT_VALUES[c] : -1;
+			if (d < 0)
+				throw new IllegalArgumentException("Invalid compact representation " + rep + " for " + type);
+			v = (v << DIGIT_BITS) | d;
+		}
+		if (bits < Long.SIZE && (v >>> bits) != 0)
+			throw new IllegalArgumentException("Invalid compact representation " + rep + " for " + type);
+
+		if (isEnum) {
+			Object[] constants = type.getEnumConstants();
+			if (v >= constants.length)
+				throw new IllegalArgumentException("No constant with ordinal " + v + " in " + type);
+			return constants[(int) v];
+		}
+
+		v ^= 1l << (bits-1);
+		v = (v << (Long.SIZE-bits)) >> (Long.SIZE-bits); //Sign extension
+		if (reverted)
+			v = -v;
+		if (Date.class.equals(type))
+			return new Date(v);
+		switch (bits) {
+		case Long.SIZE:
+			return v;
+		case Integer.SIZE:
+			return (int) v;
+		case Short.SIZE:
+			return (short) v;
+		default:
+			return (byte) v;
+		}
+	}
+}
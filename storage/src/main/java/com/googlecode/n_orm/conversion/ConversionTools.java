@@ -1,9 +1,8 @@
 package com.googlecode.n_orm.conversion;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.googlecode.n_orm.PropertyManagement;
 
@@ -20,7 +19,14 @@ public class ConversionTools {
 	static final IntegerConverter intConverter;
 	static final ByteConverter byteConverter;
 
-	private static final Map<Class<?>, Set<Converter<?>>> knownConverters = new HashMap<Class<?>, Set<Converter<?>>>();
+	/**
+	 * Converters already known to work for a class.
+	 * Arrays are never modified once published so that they can be read without locking.
+	 */
+	private static final ConcurrentMap<Class<?>, Converter<?>[]> knownConverters = new ConcurrentHashMap<Class<?>, Converter<?>[]>();
+
+	private static final ConcurrentMap<Class<?>, Codec<?>> codecs = new ConcurrentHashMap<Class<?>, Codec<?>>();
+	private static final ConcurrentMap<Class<?>, Codec<?>> compactCodecs = new ConcurrentHashMap<Class<?>, Codec<?>>();
 
 	static {
 		stringConverter = new StringConverter();
@@ -82,11 +88,31 @@ public class ConversionTools {
 		}
 	}
 	
+	private static String errorMessage(Object o, Class<?> type, ConversionKind kind) {
+		switch (kind) {
+		case FromBytes:
+			return "Cannot create a " + type + " from byte array "
+					+ stringConverter.fromBytes((byte[]) o, String.class);
+		case ToBytes:
+			return "Cannot create a binary representation for " + o + " of class " + o.getClass() + " while expecting " + type.getName();
+		case FromString:
+			return "Cannot create a " + type + " from string " + o;
+		case FromStringReverted:
+			return "Cannot create a " + type + " from reverted string " + o;
+		case ToString:
+			return "Cannot create a string representation for " + o;
+		case ToStringReverted:
+			return "Cannot create a reverted string representation for " + o;
+		default:
+			return null;
+		}
+	}
+	
 	public static boolean canConvert(Class<?> clazz) {
 		if (clazz == null)
 			return false;
 		
-		if (knownConverters.containsKey(clazz))
+		if (knownConverters.get(clazz) != null)
 			return true;
 		
 		for (Converter<?> conv : converters) {
@@ -99,11 +125,47 @@ public class ConversionTools {
 		return false;
 	}
 
+	/**
+	 * A codec for the given declared type, with its converter already looked up.
+	 * Codecs are cached, so that this method is cheap enough to be called for each conversion.
+	 */
+	public static <T> Codec<T> getCodec(Class<T> type) {
+		return getCodec(type, false);
+	}
+
+	/**
+	 * A codec for the given declared type, with its converter already looked up.
+	 * @param compact whether the codec should write {@link com.googlecode.n_orm.Compact compact} representations ;
+	 *  ignored for types with no compact representation
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Codec<T> getCodec(Class<T> type, boolean compact) {
+		compact = compact && CompactEncoding.canEncode(type);
+		ConcurrentMap<Class<?>, Codec<?>> cache = compact ? compactCodecs : codecs;
+		Codec<T> ret = (Codec<T>) cache.get(type);
+		if (ret == null) {
+			Converter<?> conv = null;
+			for (Converter<?> c : converters) {
+				if (c.canConvert(type)) {
+					conv = c;
+					registerConverter(type, c);
+					break;
+				}
+			}
+			ret = new Codec<T>(type, conv, compact);
+			Codec<T> old = (Codec<T>) cache.putIfAbsent(type, ret);
+			if (old != null)
+				ret = old;
+		}
+		return ret;
+	}
+
 	private static Object convertInternal(Object o, Class<?> type,
-			ConversionKind kind, String errorMessage) {
+			ConversionKind kind) {
 		Class<?> clazz = type == null ? o.getClass() : type;
-		if (knownConverters.containsKey(clazz)) {
-			for (Converter<?> conv : knownConverters.get(clazz)) {
+		Converter<?>[] known = knownConverters.get(clazz);
+		if (known != null) {
+			for (Converter<?> conv : known) {
 				if (test(conv, o, type, kind))
 					return convert(conv, o, type, kind);
 			}
@@ -115,16 +177,26 @@ public class ConversionTools {
 				registerConverter(clazz, conv);
 				return ret;
 			}
-		throw new IllegalArgumentException(errorMessage);
+		throw new IllegalArgumentException(errorMessage(o, type, kind));
 	}
 
 	private static void registerConverter(Class<?> clazz, Converter<?> conv) {
-		Set<Converter<?>> cachedConverters = knownConverters.get(clazz);
-		if (cachedConverters == null) {
-			cachedConverters = new HashSet<Converter<?>>();
-			knownConverters.put(clazz, cachedConverters);
+		while (true) {
+			Converter<?>[] cachedConverters = knownConverters.get(clazz);
+			if (cachedConverters == null) {
+				if (knownConverters.putIfAbsent(clazz, new Converter<?>[] { conv }) == null)
+					return;
+			} else {
+				for (Converter<?> c : cachedConverters) {
+					if (c == conv)
+						return;
+				}
+				Converter<?>[] newConverters = Arrays.copyOf(cachedConverters, cachedConverters.length + 1);
+				newConverters[cachedConverters.length] = conv;
+				if (knownConverters.replace(clazz, cachedConverters, newConverters))
+					return;
+			}
 		}
-		cachedConverters.add(conv);
 	}
 
 	@SuppressWarnings("unchecked")
@@ -133,15 +205,8 @@ public class ConversionTools {
 		if (representation == null)
 			return null;
 
-		return (U) convertInternal(
-				representation,
-				type,
-				ConversionKind.FromBytes,
-				"Cannot create a "
-						+ type
-						+ " from byte array "
-						+ stringConverter.fromBytes(representation,
-								String.class));
+		return (U) convertInternal(representation, type,
+				ConversionKind.FromBytes);
 
 	}
 
@@ -151,8 +216,7 @@ public class ConversionTools {
 			return null;
 
 		return (U) convertInternal(representation, type,
-				ConversionKind.FromString, "Cannot create a " + type
-						+ " from string " + representation);
+				ConversionKind.FromString);
 	}
 
 	@SuppressWarnings("unchecked")
@@ -161,8 +225,7 @@ public class ConversionTools {
 			return null;
 
 		return (U) convertInternal(representation, type,
-				ConversionKind.FromStringReverted, "Cannot create a " + type
-						+ " from reverted string " + representation);
+				ConversionKind.FromStringReverted);
 	}
 	
 	public static  byte[] convert(Object o) {
@@ -176,8 +239,25 @@ public class ConversionTools {
 		if (o == null)
 			return null;
 		
-		return (byte[]) convertInternal(o, expected, ConversionKind.ToBytes,
-				"Cannot create a binary representation for " + o + " of class " + o.getClass() + " while expecting " + expected.getName());
+		return (byte[]) convertInternal(o, expected, ConversionKind.ToBytes);
+	}
+	
+	/**
+	 * Binary representation for a long, as {@link #convert(Object)} would do for a {@link Long}, without boxing.
+	 */
+	public static byte[] convertFromLong(long value) {
+		return longConverter.unparseBytes(value);
+	}
+	
+	/**
+	 * Reads a long from its binary representation, as {@link #convert(Class, byte[])} would do for a {@link Long}, without boxing.
+	 */
+	public static long convertToLong(byte[] representation) {
+		if (representation == null)
+			throw new IllegalArgumentException("Cannot create a long from a null byte array");
+		if (!longConverter.canConvert(representation))
+			throw new IllegalArgumentException(errorMessage(representation, long.class, ConversionKind.FromBytes));
+		return longConverter.parseBytes(representation);
 	}
 	
 	public static String convertToString(Object o) {
@@ -189,8 +269,7 @@ public class ConversionTools {
 		if (o == null)
 			return null;
 
-		return (String) convertInternal(o, expected, ConversionKind.ToString,
-				"Cannot create a string representation for " + o);
+		return (String) convertInternal(o, expected, ConversionKind.ToString);
 	}
 
 	public static String convertToStringReverted(Object o, Class<?> expected) {
@@ -198,12 +277,48 @@ public class ConversionTools {
 		if (o == null)
 			return null;
 
-		return (String) convertInternal(o, expected, ConversionKind.ToStringReverted,
-				"Cannot create a reverted string representation for " + o);
+		return (String) convertInternal(o, expected, ConversionKind.ToStringReverted);
+	}
+	
+	/**
+	 * An order-preserving compact string representation for a natural, a date or an enumeration.
+	 * @see com.googlecode.n_orm.Key#compact()
+	 */
+	public static String convertToCompactString(Object o, Class<?> expected) {
+		if (o == null)
+			return null;
+		
+		return CompactEncoding.toString(o, expected, false);
+	}
+
+	/**
+	 * Same as {@link #convertToCompactString(Object, Class)}, but in reverse order ; enumerations cannot be reverted.
+	 */
+	public static String convertToCompactStringReverted(Object o, Class<?> expected) {
+		if (o == null)
+			return null;
+		
+		return CompactEncoding.toString(o, expected, true);
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <U> U convertFromCompactString(Class<U> type, String representation) {
+		if (representation == null)
+			return null;
+		
+		return (U) CompactEncoding.fromString(representation, type, false);
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <U> U convertFromCompactStringReverted(Class<U> type, String representation) {
+		if (representation == null)
+			return null;
+		
+		return (U) CompactEncoding.fromString(representation, type, true);
 	}
 	
 	@SuppressWarnings("unchecked")
 	public static <T> T getDefaultValue(Class<T> expected) {
-		return (T) convertInternal(null, expected, ConversionKind.Default, null);
+		return (T) convertInternal(null, expected, ConversionKind.Default);
 	}
 }
@@ -1,5 +1,6 @@
 package com.googlecode.n_orm.memory;
 
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -463,7 +464,7 @@ public class Memory implements SimpleStore {
 					
 					@Override
 					public byte[] getBytes() {
-						return ConversionTools.convert(this.value.get());
+						return ConversionTools.convertFromLong(this.value.get());
 					}
 				}
 			}
@@ -656,6 +657,21 @@ public class Memory implements SimpleStore {
 		return ret;
 	}
 
+	@Override
+	public Map<String, ColumnFamilyData> get(String table, Collection<String> ids, Set<String> families) throws DatabaseNotReachedException {
+		Map<String, ColumnFamilyData> ret = new TreeMap<String, ColumnFamilyData>();
+		if (this.getTable(table, false) == null)
+			return ret;
+		
+		for (String id : ids) {
+			ColumnFamilyData data = this.get(table, id, families);
+			if (data != null)
+				ret.put(id, data);
+		}
+		
+		return ret;
+	}
+
 	@Override
 	public CloseableKeyIterator get(final String table, Constraint c, final int limit, Set<String> families)
 			throws DatabaseNotReachedException {
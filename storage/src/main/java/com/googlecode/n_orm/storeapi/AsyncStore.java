@@ -0,0 +1,48 @@
+package com.googlecode.n_orm.storeapi;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import com.googlecode.n_orm.storeapi.Row.ColumnFamilyData;
+
+/**
+ * Asynchronous version of the most common {@link Store} operations.
+ * Each operation returns immediately ; the result, or the
+ * {@link com.googlecode.n_orm.DatabaseNotReachedException} thrown by the
+ * data store (wrapped into an {@link java.util.concurrent.ExecutionException}),
+ * is made available by the returned {@link Future}.
+ * Any {@link Store} can be made asynchronous using an {@link AsyncStoreAdapter}.
+ */
+public interface AsyncStore {
+
+	/**
+	 * @see Store#get(MetaInformation, String, String, Set)
+	 */
+	public Future<ColumnFamilyData> get(MetaInformation meta, String table,
+			String id, Set<String> families);
+
+	/**
+	 * @see Store#exists(MetaInformation, String, String)
+	 */
+	public Future<Boolean> exists(MetaInformation meta, String table,
+			String row);
+
+	/**
+	 * @see Store#storeChanges(MetaInformation, String, String, ColumnFamilyData, Map, Map)
+	 */
+	public Future<Void> storeChanges(MetaInformation meta, String table,
+			String id, ColumnFamilyData changed,
+			Map<String, Set<String>> removed,
+			Map<String, Map<String, Number>> increments);
+
+	/**
+	 * @see Store#delete(MetaInformation, String, String)
+	 */
+	public Future<Void> delete(MetaInformation meta, String table, String id);
+
+	/**
+	 * @see Store#count(MetaInformation, String, Constraint)
+	 */
+	public Future<Long> count(MetaInformation meta, String table, Constraint c);
+}
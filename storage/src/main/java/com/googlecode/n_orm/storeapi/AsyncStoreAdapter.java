@@ -0,0 +1,169 @@
+package com.googlecode.n_orm.storeapi;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.googlecode.n_orm.storeapi.Row.ColumnFamilyData;
+
+/**
+ * Makes any {@link Store} {@link AsyncStore asynchronous} by running its
+ * operations on an executor.
+ * Unless specified, operations are run on the {@link #getDefaultExecutor()
+ * default executor}, which is bounded both in number of threads and in
+ * number of waiting operations ; when full, operations are run by the
+ * calling thread.
+ */
+public class AsyncStoreAdapter implements AsyncStore {
+
+	/**
+	 * Maximum number of threads for the default executor
+	 */
+	public static final int DEFAULT_MAX_THREADS = 20;
+
+	/**
+	 * Maximum number of waiting operations for the default executor
+	 */
+	public static final int DEFAULT_MAX_PENDING = 1000;
+
+	private static volatile ExecutorService defaultExecutor = null;
+
+	/**
+	 * The executor used for adapters that were not given an explicit one,
+	 * and for {@link com.googlecode.n_orm.PersistingElement#storeAsync()} and
+	 * {@link com.googlecode.n_orm.PersistingElement#activateAsync(String...)}.
+	 */
+	public static ExecutorService getDefaultExecutor() {
+		ExecutorService ret = defaultExecutor;
+		if (ret == null) {
+			synchronized(AsyncStoreAdapter.class) {
+				ret = defaultExecutor;
+				if (ret == null) {
+					ThreadPoolExecutor tpe = new ThreadPoolExecutor(DEFAULT_MAX_THREADS, DEFAULT_MAX_THREADS,
+							5L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(DEFAULT_MAX_PENDING), new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread ret = new Thread(r, "n-orm async store #" + count.incrementAndGet());
+							ret.setDaemon(true);
+							return ret;
+						}
+					}, new ThreadPoolExecutor.CallerRunsPolicy());
+					tpe.allowCoreThreadTimeOut(true);
+					ret = defaultExecutor = tpe;
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Replaces the {@link #getDefaultExecutor() default executor} ; already
+	 * created adapters are not affected.
+	 * The previous executor is not shut down.
+	 */
+	public static void setDefaultExecutor(ExecutorService executor) {
+		if (executor == null)
+			throw new IllegalArgumentException("Cannot use a null executor");
+		defaultExecutor = executor;
+	}
+
+	private final Store actualStore;
+	private final ExecutorService executor;
+
+	public AsyncStoreAdapter(Store actualStore) {
+		this(actualStore, getDefaultExecutor());
+	}
+
+	public AsyncStoreAdapter(Store actualStore, ExecutorService executor) {
+		this.actualStore = actualStore;
+		this.executor = executor;
+	}
+
+	/**
+	 * The store actually performing operations.
+	 */
+	public Store getActualStore() {
+		return actualStore;
+	}
+
+	/**
+	 * The executor running operations.
+	 */
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	@Override
+	public Future<ColumnFamilyData> get(final MetaInformation meta,
+			final String table, final String id, final Set<String> families) {
+		return this.executor.submit(new Callable<ColumnFamilyData>() {
+
+			@Override
+			public ColumnFamilyData call() throws Exception {
+				return actualStore.get(meta, table, id, families);
+			}
+		});
+	}
+
+	@Override
+	public Future<Boolean> exists(final MetaInformation meta, final String table,
+			final String row) {
+		return this.executor.submit(new Callable<Boolean>() {
+
+			@Override
+			public Boolean call() throws Exception {
+				return actualStore.exists(meta, table, row);
+			}
+		});
+	}
+
+	@Override
+	public Future<Void> storeChanges(final MetaInformation meta,
+			final String table, final String id,
+			final ColumnFamilyData changed,
+			final Map<String, Set<String>> removed,
+			final Map<String, Map<String, Number>> increments) {
+		return this.executor.submit(new Callable<Void>() {
+
+			@Override
+			public Void call() throws Exception {
+				actualStore.storeChanges(meta, table, id, changed, removed, increments);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public Future<Void> delete(final MetaInformation meta, final String table,
+			final String id) {
+		return this.executor.submit(new Callable<Void>() {
+
+			@Override
+			public Void call() throws Exception {
+				actualStore.delete(meta, table, id);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public Future<Long> count(final MetaInformation meta, final String table,
+			final Constraint c) {
+		return this.executor.submit(new Callable<Long>() {
+
+			@Override
+			public Long call() throws Exception {
+				return actualStore.count(meta, table, c);
+			}
+		});
+	}
+}
@@ -0,0 +1,312 @@
+package com.googlecode.n_orm.storeapi;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.googlecode.n_orm.DatabaseNotReachedException;
+import com.googlecode.n_orm.storeapi.Row.ColumnFamilyData;
+import com.googlecode.n_orm.utils.AggregatingIterator;
+
+/**
+ * A store that spreads rows over a fixed number of buckets by prefixing row
+ * keys sent to the actual store with a deterministic hash of the key.
+ * Elements with increasing keys (e.g. a leading date) are thus written to
+ * different regions of the actual store instead of always the last one.
+ * Prefixes are transparent for users of this store: keys it returns are not
+ * prefixed.<br>
+ * Searches are run as one search per bucket, and results are merged back in
+ * key order.<br>
+ * Changing the number of buckets for a table makes existing rows unreachable.
+ * @see com.googlecode.n_orm.Persisting#keyBuckets()
+ */
+public class BucketedStore extends DelegatingStore {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final int buckets;
+	private final String[] prefixes;
+
+	public BucketedStore(Store actualStore, int buckets) {
+		super(actualStore);
+		if (buckets < 2)
+			throw new IllegalArgumentException("Cannot spread rows over " + buckets + " bucket(s)");
+		this.buckets = buckets;
+		int width = 1;
+		while ((buckets-1) >>> (4*width) != 0)
+			width++;
+		this.prefixes = new String[buckets];
+		for (int b = 0; b < buckets; b++) {
+			char[] prefix = new char[width];
+			for (int i = width-1, v = b; i >= 0; i--, v >>>= 4)
+				prefix[i] = HEX[v & 0xf];
+			this.prefixes[b] = new String(prefix);
+		}
+	}
+
+	/**
+	 * The number of buckets rows are spread over.
+	 */
+	public int getBuckets() {
+		return buckets;
+	}
+
+	/**
+	 * The prefix for the bucket a row belongs to.
+	 */
+	public String getPrefix(String id) {
+		return this.prefixes[(id.hashCode() & Integer.MAX_VALUE) % this.buckets];
+	}
+
+	/**
+	 * The row key as sent to the actual store.
+	 */
+	public String toBucketedKey(String id) {
+		return this.getPrefix(id) + id;
+	}
+
+	private String fromBucketedKey(String key) {
+		return key.substring(this.prefixes[0].length());
+	}
+
+	/**
+	 * The constraint for rows of the given bucket matching c.
+	 * Upper bound is found the same way {@link Constraint} does, i.e. by incrementing last char of the prefix.
+	 */
+	private Constraint bucketConstraint(String prefix, Constraint c) {
+		String start = c == null || c.getStartKey() == null ? prefix : prefix + c.getStartKey();
+		String end;
+		if (c == null || c.getEndKey() == null) {
+			char last = prefix.charAt(prefix.length()-1);
+			last++;
+			end = prefix.substring(0, prefix.length()-1) + last;
+		} else
+			end = prefix + c.getEndKey();
+		return new Constraint(start, end);
+	}
+
+	@Override
+	public void delete(MetaInformation meta, String table, String id)
+			throws DatabaseNotReachedException {
+		super.delete(meta, table, this.toBucketedKey(id));
+	}
+
+	@Override
+	public boolean exists(MetaInformation meta, String table, String row)
+			throws DatabaseNotReachedException {
+		return super.exists(meta, table, this.toBucketedKey(row));
+	}
+
+	@Override
+	public boolean exists(MetaInformation meta, String table, String row,
+			String family) throws DatabaseNotReachedException {
+		return super.exists(meta, table, this.toBucketedKey(row), family);
+	}
+
+	@Override
+	public CloseableKeyIterator get(MetaInformation meta, String table,
+			Constraint c, int limit, Set<String> families)
+			throws DatabaseNotReachedException {
+		AggregatingIterator ret = new AggregatingIterator();
+		try {
+			for (String prefix : this.prefixes) {
+				ret.addIterator(new BucketIterator(super.get(meta, table, this.bucketConstraint(prefix, c), limit, families)));
+			}
+		} catch (RuntimeException x) {
+			ret.close();
+			throw x;
+		}
+		return new LimitedIterator(ret, limit);
+	}
+
+	@Override
+	public byte[] get(MetaInformation meta, String table, String row,
+			String family, String key) throws DatabaseNotReachedException {
+		return super.get(meta, table, this.toBucketedKey(row), family, key);
+	}
+
+	@Override
+	public Map<String, byte[]> get(MetaInformation meta, String table,
+			String id, String family) throws DatabaseNotReachedException {
+		return super.get(meta, table, this.toBucketedKey(id), family);
+	}
+
+	@Override
+	public Map<String, byte[]> get(MetaInformation meta, String table,
+			String id, String family, Constraint c)
+			throws DatabaseNotReachedException {
+		return super.get(meta, table, this.toBucketedKey(id), family, c);
+	}
+
+	@Override
+	public ColumnFamilyData get(MetaInformation meta, String table, String id,
+			Set<String> families) throws DatabaseNotReachedException {
+		return super.get(meta, table, this.toBucketedKey(id), families);
+	}
+
+	@Override
+	public Map<String, ColumnFamilyData> get(MetaInformation meta,
+			String table, Collection<String> ids, Set<String> families)
+			throws DatabaseNotReachedException {
+		List<String> bucketedIds = new ArrayList<String>(ids.size());
+		for (String id : ids) {
+			bucketedIds.add(this.toBucketedKey(id));
+		}
+		Map<String, ColumnFamilyData> res = super.get(meta, table, bucketedIds, families);
+		if (res == null)
+			return null;
+		Map<String, ColumnFamilyData> ret = new HashMap<String, ColumnFamilyData>(res.size()*2);
+		for (Entry<String, ColumnFamilyData> row : res.entrySet()) {
+			ret.put(this.fromBucketedKey(row.getKey()), row.getValue());
+		}
+		return ret;
+	}
+
+	@Override
+	public void storeChanges(MetaInformation meta, String table, String id,
+			ColumnFamilyData changed, Map<String, Set<String>> removed,
+			Map<String, Map<String, Number>> increments)
+			throws DatabaseNotReachedException {
+		super.storeChanges(meta, table, this.toBucketedKey(id), changed, removed, increments);
+	}
+
+	@Override
+	public void storeChanges(List<RowChanges> changes)
+			throws DatabaseNotReachedException {
+		List<RowChanges> bucketed = new ArrayList<RowChanges>(changes.size());
+		for (RowChanges rc : changes) {
+			bucketed.add(new RowChanges(rc.getMeta(), rc.getTable(), this.toBucketedKey(rc.getId()), rc.getChanged(), rc.getRemoved(), rc.getIncrements()));
+		}
+		super.storeChanges(bucketed);
+	}
+
+	@Override
+	public long count(MetaInformation meta, String table, Constraint c)
+			throws DatabaseNotReachedException {
+		long ret = 0;
+		for (String prefix : this.prefixes) {
+			ret += super.count(meta, table, this.bucketConstraint(prefix, c));
+		}
+		return ret;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + this.getActualStore().hashCode();
+		result = prime * result + buckets;
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		BucketedStore other = (BucketedStore) obj;
+		if (buckets != other.buckets)
+			return false;
+		return this.getActualStore().equals(other.getActualStore());
+	}
+
+	@Override
+	public String toString() {
+		return this.getActualStore() + " with rows spread over " + this.buckets + " buckets";
+	}
+
+	/**
+	 * Iterates over the rows of a bucket, removing the bucket prefix from keys.
+	 */
+	private class BucketIterator implements CloseableKeyIterator {
+		private final CloseableKeyIterator it;
+
+		private BucketIterator(CloseableKeyIterator it) {
+			this.it = it;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return it.hasNext();
+		}
+
+		@Override
+		public Row next() {
+			final Row row = it.next();
+			final String key = fromBucketedKey(row.getKey());
+			return new Row() {
+
+				@Override
+				public String getKey() {
+					return key;
+				}
+
+				@Override
+				public ColumnFamilyData getValues() {
+					return row.getValues();
+				}
+			};
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+			it.close();
+		}
+
+		@Override
+		public String toString() {
+			return it.toString();
+		}
+	}
+
+	/**
+	 * Stops iterating over merged buckets once limit is reached.
+	 */
+	private static class LimitedIterator implements CloseableKeyIterator {
+		private final CloseableKeyIterator it;
+		private int remaining;
+
+		private LimitedIterator(CloseableKeyIterator it, int limit) {
+			this.it = it;
+			this.remaining = limit;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (this.remaining > 0 && it.hasNext())
+				return true;
+			it.close();
+			return false;
+		}
+
+		@Override
+		public Row next() {
+			if (this.remaining <= 0)
+				throw new NoSuchElementException();
+			this.remaining--;
+			return it.next();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+			it.close();
+		}
+	}
+}
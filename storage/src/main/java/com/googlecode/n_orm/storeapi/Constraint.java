@@ -11,7 +11,6 @@ import org.apache.commons.beanutils.ConvertUtils;
 import com.googlecode.n_orm.Key;
 import com.googlecode.n_orm.KeyManagement;
 import com.googlecode.n_orm.PropertyManagement;
-import com.googlecode.n_orm.conversion.ConversionTools;
 
 /**
  * A restriction to a {@link SimpleStore} search.
@@ -24,14 +23,10 @@ public class Constraint {
 		if (values == null)
 			return null;
 		
-		Map<String, Field> fields = new HashMap<String, Field>();
-		for (Field f : PropertyManagement.getInstance().getProperties(clazz)) {
-			fields.put(f.getName(), f);
-		}
-		
+		PropertyManagement pm = PropertyManagement.getInstance();
 		Map<Field, Object> ret = new HashMap<Field, Object>();
 		for (Entry<String, Object> field : values.entrySet()) {
-			ret.put(fields.get(field.getKey()), field.getValue());
+			ret.put(pm.getProperty(clazz, field.getKey()), field.getValue());
 		}
 		
 		return ret;
@@ -70,12 +65,10 @@ public class Constraint {
 		if (searchedKey == null) {
 			start = null;
 			end = null;
-		} else if (searchedKey.getAnnotation(Key.class).reverted()) {
-			start = ConversionTools.convertToStringReverted(startValue, searchedKey.getType());
-			end = ConversionTools.convertToStringReverted(endValue, searchedKey.getType());
 		} else {
-			start = ConversionTools.convertToString(startValue, searchedKey.getType());
-			end = ConversionTools.convertToString(endValue, searchedKey.getType());
+			KeyManagement km = KeyManagement.getInstance();
+			start = startValue == null ? null : km.convertKeyToString(searchedKey, startValue);
+			end = endValue == null ? null : km.convertKeyToString(searchedKey, endValue);
 		}
 		this.startKey = createStart(fixedPart, startValue == null ? null : start);
 		this.endKey = createEnd(fixedPart, endValue == null ? null : end, true);
@@ -145,9 +138,7 @@ public class Constraint {
 					} else
 						actualVal = ConvertUtils.convert((String)actualVal, type);
 				}
-				String rep = f.getAnnotation(Key.class).reverted() ?
-							ConversionTools.convertToStringReverted(actualVal, type)
-						:	ConversionTools.convertToString(actualVal, type);
+				String rep = KeyManagement.getInstance().convertKeyToString(f, actualVal);
 				fixedPartb.append(rep);
 				if (allKeysThere && i == length-1)
 					fixedPartb.append(KeyManagement.KEY_END_SEPARATOR);
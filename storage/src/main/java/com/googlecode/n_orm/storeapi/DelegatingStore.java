@@ -1,5 +1,7 @@
 package com.googlecode.n_orm.storeapi;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -43,11 +45,12 @@ public class DelegatingStore implements Store {
 	
 	
 	/**
-	 * Returns the leaf {@link Store} of the delegation chain.
+	 * Returns the leaf {@link Store} of the delegation chain, or the first {@link BucketedStore}
+	 * in this chain as keys it sends to its actual store are not the keys it is given.
 	 */
 	public Store getDeepActualStore() {
 		Store ret = this.getActualStore();
-		while (ret instanceof DelegatingStore)
+		while (ret instanceof DelegatingStore && !(ret instanceof BucketedStore))
 			ret = ((DelegatingStore)ret).getActualStore();
 		return ret;
 	}
@@ -103,6 +106,12 @@ public class DelegatingStore implements Store {
 		return actualStore.get(meta, table, id, families);
 	}
 
+	public Map<String, ColumnFamilyData> get(MetaInformation meta,
+			String table, Collection<String> ids, Set<String> families)
+			throws DatabaseNotReachedException {
+		return actualStore.get(meta, table, ids, families);
+	}
+
 	public void storeChanges(MetaInformation meta, String table, String id,
 			ColumnFamilyData changed, Map<String, Set<String>> removed,
 			Map<String, Map<String, Number>> increments)
@@ -110,6 +119,11 @@ public class DelegatingStore implements Store {
 		actualStore.storeChanges(meta, table, id, changed, removed, increments);
 	}
 
+	public void storeChanges(List<RowChanges> changes)
+			throws DatabaseNotReachedException {
+		actualStore.storeChanges(changes);
+	}
+
 	public long count(MetaInformation meta, String table, Constraint c)
 			throws DatabaseNotReachedException {
 		return actualStore.count(meta, table, c);
@@ -0,0 +1,61 @@
+package com.googlecode.n_orm.storeapi;
+
+import java.util.Map;
+import java.util.Set;
+
+import com.googlecode.n_orm.storeapi.Row.ColumnFamilyData;
+
+/**
+ * Changes to be stored for a given row in a given table, as sent to
+ * {@link Store#storeChanges(java.util.List)}.
+ * Parameters have the same meaning as for
+ * {@link Store#storeChanges(MetaInformation, String, String, ColumnFamilyData, Map, Map)}.
+ */
+public class RowChanges {
+	private final MetaInformation meta;
+	private final String table;
+	private final String id;
+	private final ColumnFamilyData changed;
+	private final Map<String, Set<String>> removed;
+	private final Map<String, Map<String, Number>> increments;
+
+	public RowChanges(MetaInformation meta, String table, String id,
+			ColumnFamilyData changed, Map<String, Set<String>> removed,
+			Map<String, Map<String, Number>> increments) {
+		this.meta = meta;
+		this.table = table;
+		this.id = id;
+		this.changed = changed;
+		this.removed = removed;
+		this.increments = increments;
+	}
+
+	public MetaInformation getMeta() {
+		return meta;
+	}
+
+	public String getTable() {
+		return table;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public ColumnFamilyData getChanged() {
+		return changed;
+	}
+
+	public Map<String, Set<String>> getRemoved() {
+		return removed;
+	}
+
+	public Map<String, Map<String, Number>> getIncrements() {
+		return increments;
+	}
+
+	@Override
+	public String toString() {
+		return "changes for row " + this.id + " in table " + this.table;
+	}
+}
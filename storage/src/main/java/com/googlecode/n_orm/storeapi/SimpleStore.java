@@ -1,5 +1,6 @@
 package com.googlecode.n_orm.storeapi;
 
+import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
 
@@ -75,6 +76,15 @@ public interface SimpleStore {
 	 */
 	ColumnFamilyData get(String table, String id, Set<String> families) throws DatabaseNotReachedException;
 	
+	/**
+	 * Returns all elements in families for a set of rows ; no side-effect.
+	 * @param table the table from which to find the elements
+	 * @param ids the unique identifiers (i.e. the keys) with which the elements were stored
+	 * @param families the set of column families to be activated ; should never be null or empty
+	 * @return the data stored for each family according to row identifier ; an id is missing from the result if and only if it does not exist in the table
+	 */
+	Map<String, ColumnFamilyData> get(String table, Collection<String> ids, Set<String> families) throws DatabaseNotReachedException;
+	
 	/**
 	 * Stores given piece of information.
 	 * In case an element is missing in the data store (table, row, family, ...), it is created.
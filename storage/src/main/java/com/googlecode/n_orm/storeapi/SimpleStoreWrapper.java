@@ -1,6 +1,8 @@
 package com.googlecode.n_orm.storeapi;
 
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -175,6 +177,13 @@ public class SimpleStoreWrapper implements Store {
 		return store.get(table, id, families);
 	}
 
+	@Override
+	public Map<String, ColumnFamilyData> get(MetaInformation meta,
+			String table, Collection<String> ids, Set<String> families)
+			throws DatabaseNotReachedException {
+		return store.get(table, ids, families);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -192,6 +201,19 @@ public class SimpleStoreWrapper implements Store {
 		store.storeChanges(table, id, changed, removed, increments);
 	}
 
+	/**
+	 * Stores changes one row after the other.
+	 */
+	@Override
+	public void storeChanges(List<RowChanges> changes)
+			throws DatabaseNotReachedException {
+		for (RowChanges change : changes) {
+			store.storeChanges(change.getTable(), change.getId(),
+					change.getChanged(), change.getRemoved(),
+					change.getIncrements());
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
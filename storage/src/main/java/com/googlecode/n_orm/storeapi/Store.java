@@ -1,5 +1,7 @@
 package com.googlecode.n_orm.storeapi;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -103,6 +105,28 @@ public interface Store {
 	public ColumnFamilyData get(MetaInformation meta, String table, String id,
 			Set<String> families) throws DatabaseNotReachedException;
 
+	/**
+	 * Returns all elements in families for a set of rows ; no side-effect.
+	 * Should be preferred to repeated calls to
+	 * {@link #get(MetaInformation, String, String, Set)} as it can be performed
+	 * using a single request to the data store.
+	 * 
+	 * @param table
+	 *            the table from which to find the elements
+	 * @param ids
+	 *            the unique identifiers (i.e. the keys) with which the elements
+	 *            were stored
+	 * @param families
+	 *            the set of column families to be activated ; should never be
+	 *            null or empty
+	 * @return the data stored for each family according to row identifier ;
+	 *         an id is missing from the result if and only if it does not
+	 *         exist within the given table
+	 */
+	public Map<String, ColumnFamilyData> get(MetaInformation meta,
+			String table, Collection<String> ids, Set<String> families)
+			throws DatabaseNotReachedException;
+
 	/**
 	 * Stores given piece of information. In case an element is missing in the
 	 * data store (table, row, family, ...), it is created.
@@ -112,6 +136,16 @@ public interface Store {
 			Map<String, Map<String, Number>> increments)
 			throws DatabaseNotReachedException;
 
+	/**
+	 * Stores changes for a set of rows, possibly in different tables.
+	 * Should be preferred to repeated calls to
+	 * {@link #storeChanges(MetaInformation, String, String, ColumnFamilyData, Map, Map)}
+	 * as it can be performed using a few requests to the data store.
+	 * Changes for a same row must be applied in the order of the list.
+	 */
+	public void storeChanges(List<RowChanges> changes)
+			throws DatabaseNotReachedException;
+
 	/**
 	 * Counts the number of element satisfying the constraint.
 	 */
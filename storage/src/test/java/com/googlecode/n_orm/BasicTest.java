@@ -7,12 +7,15 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Future;
 
 import org.easymock.Capture;
 import org.easymock.EasyMock;
@@ -28,6 +31,8 @@ import com.googlecode.n_orm.StoreSelector;
 import com.googlecode.n_orm.KeyManagement;
 import com.googlecode.n_orm.ProcessTest.InrementNovel;
 import com.googlecode.n_orm.cf.ColumnFamily;
+import com.googlecode.n_orm.storeapi.AsyncStoreAdapter;
+import com.googlecode.n_orm.storeapi.MetaInformation;
 
 public class BasicTest {
 
@@ -97,7 +102,63 @@ public class BasicTest {
 		 assertFalse( p.exists());
 		 assertFalse( p.existsInStore());
 	 }
-	 
+
+	 @Test public void bookStoresRetrieve() throws DatabaseNotReachedException {
+		 BookStore bs2 = new BookStore("testbookstore2");
+		 bs2.setName("bookstore2 name");
+		 bs2.store();
+		 String unknownId = new BookStore("gdcfknueghficlnehfuci").getIdentifier();
+		 KeyManagement.getInstance().cleanupKnownPersistingElements();
+
+		 List<BookStore> found = StorageManagement.getElements(BookStore.class, Arrays.asList(bs2.getIdentifier(), unknownId, bssut.getIdentifier()));
+		 assertEquals(2, found.size());
+		 assertEquals("bookstore2 name", found.get(0).getName());
+		 assertTrue(found.get(0).exists());
+		 assertEquals("bookstore name", found.get(1).getName());
+		 assertTrue(found.get(1).exists());
+		 assertTrue(StorageManagement.getElement(BookStore.class, unknownId).isKnownAsNotExistingInStore());
+
+		 bs2.delete();
+	 }
+
+	 @Test public void bookStoresStore() throws DatabaseNotReachedException {
+		 BookStore bs2 = new BookStore("testbookstore2");
+		 bs2.setName("bookstore2 name");
+		 BookStore bs3 = new BookStore("testbookstore3");
+		 bssut.setName("bookstore new name");
+		 StorageManagement.storeAll(Arrays.asList(bs2, bs3, bssut));
+		 assertTrue(bs2.exists());
+		 KeyManagement.getInstance().cleanupKnownPersistingElements();
+
+		 List<BookStore> found = StorageManagement.getElements(BookStore.class, Arrays.asList(bs2.getIdentifier(), bs3.getIdentifier(), bssut.getIdentifier()));
+		 assertEquals(3, found.size());
+		 assertEquals("bookstore2 name", found.get(0).getName());
+		 assertNull(found.get(1).getName());
+		 assertEquals("bookstore new name", found.get(2).getName());
+
+		 bs2.delete();
+		 bs3.delete();
+	 }
+
+	 @Test public void bookStoreAsync() throws Exception {
+		 BookStore bs2 = new BookStore("testbookstore2");
+		 bs2.setName("bookstore2 name");
+		 bs2.storeAsync().get();
+		 assertTrue(bs2.existsInStore());
+		 KeyManagement.getInstance().cleanupKnownPersistingElements();
+
+		 BookStore p = new BookStore("testbookstore2");
+		 Future<Void> activation = p.activateAsync();
+		 activation.get();
+		 assertEquals("bookstore2 name", p.getName());
+		 assertTrue(p.exists());
+
+		 Future<Boolean> exists = new AsyncStoreAdapter(p.getStore()).exists(new MetaInformation().forElement(p), p.getTable(), p.getIdentifier());
+		 assertTrue(exists.get());
+
+		 bs2.delete();
+	 }
+
 	 @Test public void bookStoreSetNull() throws DatabaseNotReachedException {
 		 bssut.setName(null);
 		 bssut.store();
@@ -536,6 +597,32 @@ public class BasicTest {
 		 bs.store();
 	 }
 	 
+	 @Test(expected=IllegalStateException.class)
+	 public void changedKeyStoreStoreStore() {
+		 BookStore bs = new BookStore("krfljskflsj");
+		 bs.store();
+		 bs.store();
+		 bs.setHashcode("nkjhjkmuk");
+		 bs.store();
+	 }
+	 
+	 @Test(expected=IllegalStateException.class)
+	 public void changedDateKeyContentStoreStore() {
+		 Book b = new Book(bssut, new Date(1234567890), new Date(1234567890));
+		 b.store();
+		 b.store();
+		 b.getSellerDate().setTime(987654321);
+		 b.store();
+	 }
+	 
+	 @Test
+	 public void sameKeyValueStoreStore() {
+		 Book b = new Book(bssut, new Date(1234567890), new Date(1234567890));
+		 b.store();
+		 b.setSellerDate(new Date(1234567890));
+		 b.store();
+	 }
+	 
 	 @Test(expected=IllegalStateException.class)
 	 public void changedKeyFindActivate() {
 		 BookStore bs = StorageManagement.findElements().ofClass(BookStore.class).any();
@@ -0,0 +1,209 @@
+package com.googlecode.n_orm;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.n_orm.storeapi.BucketedStore;
+import com.googlecode.n_orm.storeapi.Store;
+
+public class BucketedKeysTest {
+	private static final int ELEMENTS = 100;
+
+	public BucketedKeysTest() throws Exception {
+		StoreTestLauncher.registerStorePropertiesForInnerClasses(getClass());
+	}
+
+	@Persisting(keyBuckets=8)
+	public static class Event {
+		private static final long serialVersionUID = 4329744093614547017L;
+		@Key(order=1) public Date date;
+		@Key(order=2) public long number;
+		public String value;
+	}
+	
+	@Persisting(keyBuckets=8)
+	public static class SpecialEvent extends Event {
+		private static final long serialVersionUID = -2617394045238413067L;
+		public String detail;
+	}
+	
+	@Persisting(keyBuckets=4)
+	public static class MisbucketedEvent extends Event {
+		private static final long serialVersionUID = 6031938203846261405L;
+	}
+
+	public static class CollectEvent implements Process<Event> {
+		private static final long serialVersionUID = -1360532125938306125L;
+		public static final Set<Long> collected = new ConcurrentSkipListSet<Long>();
+
+		@Override
+		public void process(Event element) throws Throwable {
+			assertEquals("event " + element.number, element.value);
+			collected.add(element.number);
+		}
+	}
+
+	@After
+	public void truncate() {
+		for (Event elt : StorageManagement.findElements().ofClass(Event.class).withAtMost(10000).elements().go()) {
+			elt.delete();
+		}
+	}
+
+	private Event storeEvent(long time) {
+		Event ret = new Event();
+		ret.date = new Date(time);
+		ret.number = time;
+		ret.value = "event " + time;
+		ret.store();
+		return ret;
+	}
+
+	@Before
+	public void storeEvents() {
+		this.truncate();
+		for (long i = 1; i <= ELEMENTS; ++i) {
+			this.storeEvent(i*1000);
+		}
+	}
+
+	@Test
+	public void bucketedStore() {
+		Store s = StoreSelector.getInstance().getStoreFor(Event.class);
+		assertTrue(s instanceof BucketedStore);
+		assertEquals(8, ((BucketedStore)s).getBuckets());
+	}
+
+	@Test
+	public void activate() {
+		Event e = new Event();
+		e.date = new Date(42000);
+		e.number = 42000;
+		assertTrue(e.existsInStore());
+		e.activate();
+		assertEquals("event 42000", e.value);
+	}
+
+	@Test
+	public void searchAll() {
+		CloseableIterator<Event> found = StorageManagement.findElements().ofClass(Event.class).withAtMost(1000).andActivate().iterate();
+		try {
+			Event last = null;
+			int count = 0;
+			while (found.hasNext()) {
+				Event e = found.next();
+				assertEquals("event " + e.number, e.value);
+				if (last != null)
+					assertTrue(last.compareTo(e) < 0);
+				last = e;
+				count++;
+			}
+			assertEquals(ELEMENTS, count);
+		} finally {
+			found.close();
+		}
+		assertEquals(ELEMENTS, StorageManagement.findElements().ofClass(Event.class).count());
+	}
+
+	@Test
+	public void searchRangeInOrder() {
+		CloseableIterator<Event> found = StorageManagement.findElements().ofClass(Event.class)
+				.withKey("date").between(new Date(20000)).and(new Date(29000)).withAtMost(1000).elements().iterate();
+		try {
+			for (long i = 20; i <= 29; ++i) {
+				assertTrue(found.hasNext());
+				assertEquals(i*1000, found.next().number);
+			}
+			assertFalse(found.hasNext());
+		} finally {
+			found.close();
+		}
+		assertEquals(10, StorageManagement.findElements().ofClass(Event.class)
+				.withKey("date").between(new Date(20000)).and(new Date(29000)).count());
+	}
+
+	@Test
+	public void searchWithLimit() {
+		Set<Event> found = StorageManagement.findElements().ofClass(Event.class)
+				.withKey("date").greaterOrEqualsThan(new Date(50000)).withAtMost(5).elements().go();
+		assertEquals(5, found.size());
+		long expected = 50000;
+		for (Event e : found) {
+			assertEquals(expected, e.number);
+			expected += 1000;
+		}
+	}
+
+	@Test
+	public void remoteForEach() throws Exception {
+		// Bucket prefixes cannot be bypassed
+		assertTrue(StoreSelector.getInstance().getActualStoreFor(Event.class) instanceof BucketedStore);
+		
+		CollectEvent.collected.clear();
+		WaitingCallBack cb = new WaitingCallBack();
+		StorageManagement.findElements().ofClass(Event.class)
+				.withKey("date").between(new Date(20000)).and(new Date(29000)).withAtMost(1000).elements().andActivate()
+				.remoteForEach(new CollectEvent(), cb, 2, 20000);
+		cb.waitProcessCompleted();
+		assertNull(cb.getError());
+		assertEquals(10, CollectEvent.collected.size());
+		for (long i = 20; i <= 29; ++i) {
+			assertTrue(CollectEvent.collected.contains(i*1000));
+		}
+	}
+
+	@Test
+	public void delete() {
+		Event e = this.storeEvent(1000000);
+		assertTrue(e.existsInStore());
+		e.delete();
+		assertFalse(e.existsInStore());
+		assertEquals(ELEMENTS, StorageManagement.findElements().ofClass(Event.class).count());
+	}
+	
+	@Test
+	public void inheritance() {
+		SpecialEvent se = new SpecialEvent();
+		se.date = new Date(42500);
+		se.number = 42500;
+		se.value = "event 42500";
+		se.detail = "special";
+		se.store();
+		
+		Store s = StoreSelector.getInstance().getStoreFor(SpecialEvent.class);
+		assertTrue(s instanceof BucketedStore);
+		assertEquals(8, ((BucketedStore)s).getBuckets());
+		
+		// Rows for se in the Event table are found from the same bucket as other events
+		Iterator<Event> found = StorageManagement.findElements().ofClass(Event.class)
+				.withKey("date").between(new Date(42000)).and(new Date(43000)).withAtMost(1000).elements().go().iterator();
+		assertEquals(42000, found.next().number);
+		Event e = found.next();
+		assertEquals(se, e);
+		assertTrue(e instanceof SpecialEvent);
+		assertEquals(43000, found.next().number);
+		assertFalse(found.hasNext());
+		assertEquals(ELEMENTS+1, StorageManagement.findElements().ofClass(Event.class).count());
+		
+		KeyManagement.getInstance().cleanupKnownPersistingElements();
+		SpecialEvent se2 = StorageManagement.findElements().ofClass(SpecialEvent.class).withAtMost(1000).elements().andActivate().any();
+		assertEquals(se, se2);
+		assertEquals("special", se2.detail);
+		
+		se2.delete();
+		assertEquals(ELEMENTS, StorageManagement.findElements().ofClass(Event.class).count());
+	}
+	
+	@Test(expected=IllegalStateException.class)
+	public void inheritanceWithOtherBuckets() {
+		StoreSelector.getInstance().getStoreFor(MisbucketedEvent.class);
+	}
+}
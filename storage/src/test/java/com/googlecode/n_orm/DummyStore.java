@@ -1,5 +1,7 @@
 package com.googlecode.n_orm;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -7,6 +9,7 @@ import com.googlecode.n_orm.storeapi.CloseableKeyIterator;
 import com.googlecode.n_orm.storeapi.Constraint;
 import com.googlecode.n_orm.storeapi.MetaInformation;
 import com.googlecode.n_orm.storeapi.Row.ColumnFamilyData;
+import com.googlecode.n_orm.storeapi.RowChanges;
 import com.googlecode.n_orm.storeapi.Store;
 
 public class DummyStore implements Store {
@@ -106,6 +109,14 @@ public class DummyStore implements Store {
 		return null;
 	}
 
+	@Override
+	public Map<String, ColumnFamilyData> get(MetaInformation meta,
+			String table, Collection<String> ids, Set<String> families)
+			throws DatabaseNotReachedException {
+		// TODO Auto-generated method stub
+		return null;
+	}
+
 	@Override
 	public void storeChanges(MetaInformation meta, String table, String id,
 			ColumnFamilyData changed, Map<String, Set<String>> removed,
@@ -115,6 +126,13 @@ public class DummyStore implements Store {
 
 	}
 
+	@Override
+	public void storeChanges(List<RowChanges> changes)
+			throws DatabaseNotReachedException {
+		// TODO Auto-generated method stub
+
+	}
+
 	@Override
 	public boolean hasTable(String tableName)
 			throws DatabaseNotReachedException {
@@ -15,6 +15,8 @@ import com.googlecode.n_orm.cf.CollectionStorageTest;
 		PersistableSearchTest.class,
 		InheritanceTest.class,
 		ReveresedOrderSearchTest.class,
+		TrackChangesTest.class,
+		BucketedKeysTest.class,
 		EvolutionTest.class,
 		ElementWithWriteRetensionTest.class,
 		ImportExportTest.class
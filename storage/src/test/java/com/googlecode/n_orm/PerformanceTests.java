@@ -5,10 +5,16 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 import com.googlecode.n_orm.performance.BasicPerformanceTest;
+import com.googlecode.n_orm.performance.CodecPerformanceTest;
+import com.googlecode.n_orm.performance.KeyParsingPerformanceTest;
+import com.googlecode.n_orm.performance.StoreSelectorPerformanceTest;
 
 @RunWith(Suite.class)
 @SuiteClasses(value={
-		BasicPerformanceTest.class
+		BasicPerformanceTest.class,
+		StoreSelectorPerformanceTest.class,
+		CodecPerformanceTest.class,
+		KeyParsingPerformanceTest.class
 })
 
 public class PerformanceTests {
@@ -0,0 +1,87 @@
+package com.googlecode.n_orm;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class PropertyManagementTest {
+	private final PropertyManagement pm = PropertyManagement.getInstance();
+
+	public static class Parent {
+		public String name;
+		public int value;
+		private long hidden;
+	}
+
+	public static class Child extends Parent {
+		public String value;
+		public transient String notAProperty;
+	}
+
+	@Test
+	public void propertyByName() {
+		Set<Field> props = pm.getProperties(Book.class);
+		for (Field f : props) {
+			assertSame(f, pm.getProperty(Book.class, f.getName()));
+		}
+		assertNull(pm.getProperty(Book.class, "noSuchProperty"));
+	}
+
+	@Test
+	public void inheritedProperties() throws Exception {
+		assertEquals(4, pm.getProperties(Child.class).size());
+		assertTrue(pm.getProperties(Child.class).containsAll(pm.getProperties(Parent.class)));
+		assertSame(pm.getProperty(Parent.class, "name"), pm.getProperty(Child.class, "name"));
+		assertEquals(Child.class, pm.getProperty(Child.class, "value").getDeclaringClass());
+		assertEquals(Parent.class, pm.getProperty(Parent.class, "value").getDeclaringClass());
+		assertNull(pm.getProperty(Child.class, "notAProperty"));
+	}
+
+	@Test
+	public void privateProperty() throws Exception {
+		Child c = new Child();
+		Field hidden = pm.getProperty(Child.class, "hidden");
+		pm.setValue(c, hidden, 12l);
+		assertEquals(12l, pm.readValue(c, hidden));
+	}
+
+	@Test
+	public void parallelLookups() throws Exception {
+		final Set<Field> expected = pm.getProperties(BookStore.class);
+		ExecutorService exec = Executors.newFixedThreadPool(8);
+		try {
+			Collection<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int i = 0; i < 8; i++) {
+				results.add(exec.submit(new Callable<Boolean>() {
+
+					@Override
+					public Boolean call() throws Exception {
+						for (int j = 0; j < 10000; j++) {
+							if (pm.getProperties(BookStore.class) != expected)
+								return false;
+							for (Field f : expected) {
+								if (pm.getProperty(BookStore.class, f.getName()) != f)
+									return false;
+							}
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> f : results) {
+				assertTrue(f.get());
+			}
+		} finally {
+			exec.shutdown();
+		}
+	}
+}
@@ -24,6 +24,7 @@ import com.googlecode.n_orm.conversion.ConversionTools;
 import com.googlecode.n_orm.storeapi.Constraint;
 import com.googlecode.n_orm.storeapi.MetaInformation;
 import com.googlecode.n_orm.storeapi.Row.ColumnFamilyData;
+import com.googlecode.n_orm.storeapi.RowChanges;
 import com.googlecode.n_orm.storeapi.Store;
 
 public class SendingToStoreTest {
@@ -328,4 +329,23 @@ public class SendingToStoreTest {
 		verify(this.store).storeChanges(eq(new MetaInformation().forElement(this.element).withColumnFamilies(this.getMap(false, true, false, true))), eq(table), eq(id), this.getExpectedChange(null), this.getExpectedDelete(true, "DummyKey2"), getExpectedIncr(null));
 	}
 	
+	@Test
+	public void storeAllFailureKeepsChanges() {
+		this.element.prop = "1234856453";
+		this.element.incr += 12;
+		doThrow(new DatabaseNotReachedException("test")).when(this.store).storeChanges(anyListOf(RowChanges.class));
+		try {
+			StorageManagement.storeAll(Collections.singletonList(this.element));
+			fail("Expected store failure");
+		} catch (DatabaseNotReachedException x) {
+		}
+		verify(this.store).storeChanges(anyListOf(RowChanges.class));
+		assertTrue(this.element.hasChanged());
+		
+		// Changes that could not be sent are sent again
+		this.element.store();
+		verify(this.store).storeChanges(eq(new MetaInformation().forElement(this.element).withColumnFamilies(this.getMap(false, true, true, false))), eq(table), eq(id), this.getExpectedChange(this.element.prop), this.getExpectedDelete(false), getExpectedIncr(12));
+		assertFalse(this.element.hasChanged());
+	}
+	
 }
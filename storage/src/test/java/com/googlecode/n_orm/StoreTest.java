@@ -6,6 +6,8 @@ import org.junit.Test;
 
 import com.googlecode.n_orm.storeapi.SimpleStoreWrapper;
 import com.googlecode.n_orm.storeapi.Store;
+import com.googlecode.n_orm.cache.read.CachedStore;
+import com.googlecode.n_orm.cache.read.HeapCache;
 import com.googlecode.n_orm.cache.write.WriteRetentionStore;
 import com.googlecode.n_orm.memory.Memory;
 
@@ -149,4 +151,25 @@ public class StoreTest {
 		s2 = p.getStore();
 		assertSame(s1, s2);
 	}
+	
+	@Test public void testReadCacheStoreStorageFile() {
+		com.googlecode.n_orm.readcachestoragefile.Element p = new com.googlecode.n_orm.readcachestoragefile.Element();
+		Store s = p.getStore();
+		assertEquals(CachedStore.class, s.getClass());
+		assertEquals(DummyStore.class, ((CachedStore)s).getActualStore().getClass());
+		HeapCache cache = (HeapCache)((CachedStore)s).getCache();
+		assertEquals(1048576, cache.getMaxWeight());
+		assertEquals(1000, cache.getTimeToLiveMs("othertable", "somefamily"));
+		assertEquals(2000, cache.getTimeToLiveMs("sometable", "otherfamily"));
+		assertEquals(3000, cache.getTimeToLiveMs("sometable", "somefamily"));
+		assertEquals(1000, ((CachedStore)s).getNegativeCache().getMaxSize());
+		assertEquals(500, ((CachedStore)s).getNegativeCache().getTimeToLiveMs());
+		assertEquals(50, ((CachedStore)s).getScanCache().getMaxSize());
+		assertEquals(200, ((CachedStore)s).getScanCache().getTimeToLiveMs());
+		
+		//Checking access from cache
+		p = new com.googlecode.n_orm.readcachestoragefile.Element();
+		Store s2 = p.getStore();
+		assertSame(s, s2);
+	}
 }
@@ -0,0 +1,98 @@
+package com.googlecode.n_orm;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.googlecode.n_orm.cf.MapColumnFamily;
+import com.googlecode.n_orm.cf.SetColumnFamily;
+
+public class TrackChangesTest {
+
+	public TrackChangesTest() throws Exception {
+		StoreTestLauncher.registerStorePropertiesForInnerClasses(getClass());
+	}
+
+	@Persisting(trackChanges=true)
+	public static class Tracked {
+		private static final long serialVersionUID = 2875466473926498215L;
+		@Key public String key;
+		public String name;
+		public int value;
+		public Set<String> aSet = new TreeSet<String>();
+		public Map<String, Integer> aMap = new TreeMap<String, Integer>();
+	}
+
+	private Tracked sut(String key) {
+		Tracked ret = new Tracked();
+		ret.key = key;
+		return ret;
+	}
+
+	@After
+	public void truncate() {
+		for (Tracked elt : StorageManagement.findElements().ofClass(Tracked.class).withAtMost(1000).elements().go()) {
+			elt.delete();
+		}
+	}
+
+	@Test
+	public void columnFamiliesRecordChanges() {
+		Tracked t = this.sut("cf");
+		assertTrue(t.aSet instanceof SetColumnFamily);
+		assertTrue(t.aMap instanceof MapColumnFamily);
+		t.aSet.add("e1");
+		t.aMap.put("k1", 1);
+		assertTrue(t.getColumnFamily("aSet").hasChanged());
+		assertTrue(t.getColumnFamily("aMap").hasChanged());
+		t.store();
+		assertFalse(t.hasChanged());
+
+		t.aSet.remove("e1");
+		t.aSet.add("e2");
+		t.aMap.put("k1", 2);
+		t.store();
+
+		Tracked t2 = this.sut("cf");
+		t2.activate("aSet", "aMap");
+		assertEquals(1, t2.aSet.size());
+		assertTrue(t2.aSet.contains("e2"));
+		assertEquals(Integer.valueOf(2), t2.aMap.get("k1"));
+	}
+
+	@Test
+	public void writtenPropertiesAreStored() {
+		Tracked t = this.sut("props");
+		t.name = "first";
+		t.value = 1;
+		t.store();
+		assertFalse(t.hasChanged());
+
+		t.value = 2;
+		assertTrue(t.hasChanged());
+		t.store();
+
+		Tracked t2 = this.sut("props");
+		t2.activate();
+		assertEquals("first", t2.name);
+		assertEquals(2, t2.value);
+	}
+
+	@Test
+	public void propertiesSetWithoutAspectsAreStoredTheFirstTime() {
+		Tracked t = this.sut("reflect");
+		PropertyManagement pm = PropertyManagement.getInstance();
+		pm.candideSetValue(t, pm.getProperty(Tracked.class, "name"), "reflected");
+		t.store();
+
+		Tracked t2 = this.sut("reflect");
+		t2.activate();
+		assertEquals("reflected", t2.name);
+	}
+}
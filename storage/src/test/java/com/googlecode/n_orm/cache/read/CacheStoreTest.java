@@ -6,22 +6,30 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.easymock.IMocksControl;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.googlecode.n_orm.DatabaseNotReachedException;
 import com.googlecode.n_orm.Key;
 import com.googlecode.n_orm.Persisting;
 import com.googlecode.n_orm.PropertyManagement;
 import com.googlecode.n_orm.conversion.ConversionTools;
+import com.googlecode.n_orm.storeapi.CloseableKeyIterator;
+import com.googlecode.n_orm.storeapi.Constraint;
 import com.googlecode.n_orm.storeapi.DefaultColumnFamilyData;
 import com.googlecode.n_orm.storeapi.MetaInformation;
+import com.googlecode.n_orm.storeapi.Row;
 import com.googlecode.n_orm.storeapi.Row.ColumnFamilyData;
 import com.googlecode.n_orm.storeapi.Store;
 
@@ -141,6 +149,7 @@ public class CacheStoreTest {
 		MetaInformation meta=new MetaInformation();
 		mockCache.delete(meta, "table", "key");
 		mockStore.delete(meta, "table", "key");
+		mockCache.delete(meta, "table", "key");
 		replay();
 		sut.delete(meta, "table", "key");
 		verify();
@@ -292,6 +301,231 @@ public class CacheStoreTest {
 		
 	}
 	
+	@Test
+	public void testStoreChangesUpdatesCachedFamily() throws CacheException {
+		byte[] a = new byte[] {1}, b = new byte[] {2}, c = new byte[] {3};
+		Map<String, byte[]> cached = new HashMap<String, byte[]>();
+		cached.put("a", a);
+		cached.put("b", b);
+		ColumnFamilyData changed = new DefaultColumnFamilyData();
+		Map<String, byte[]> changedF = new HashMap<String, byte[]>();
+		changedF.put("c", c);
+		changed.put("f", changedF);
+		Map<String, Set<String>> removed = new HashMap<String, Set<String>>();
+		removed.put("f", new HashSet<String>());
+		removed.get("f").add("a");
+		Map<String, byte[]> expected = new TreeMap<String, byte[]>();
+		expected.put("b", b);
+		expected.put("c", c);
+		
+		this.checkOrder();
+		mockStore.storeChanges(null, "table", "id", changed, removed, null);
+		expect(mockCache.getFamilyData(null, "table", "id", "f")).andReturn(cached);
+		mockCache.insertFamilyData(null, "table", "id", "f", expected);
+		replay();
+		sut.storeChanges(null, "table", "id", changed, removed, null);
+		verify();
+	}
+	
+	@Test
+	public void testStoreChangesInvalidatesIncrementedFamily() throws CacheException {
+		ColumnFamilyData changed = new DefaultColumnFamilyData();
+		Map<String, byte[]> changedF = new HashMap<String, byte[]>();
+		changedF.put("c", new byte[] {3});
+		changed.put("f", changedF);
+		Map<String, Map<String, Number>> increments = new HashMap<String, Map<String, Number>>();
+		increments.put("g", new HashMap<String, Number>());
+		increments.get("g").put("i", 2);
+		
+		mockStore.storeChanges(null, "table", "id", changed, null, increments);
+		expect(mockCache.getFamilyData(null, "table", "id", "f")).andReturn(null);
+		mockCache.deleteFamilyData(null, "table", "id", "g");
+		replay();
+		sut.storeChanges(null, "table", "id", changed, null, increments);
+		verify();
+	}
+	
+	@Test(expected=DatabaseNotReachedException.class)
+	public void testStoreChangesFailureInvalidatesRow() throws CacheException {
+		ColumnFamilyData changed = new DefaultColumnFamilyData();
+		changed.put("f", new HashMap<String, byte[]>());
+		
+		mockStore.storeChanges(null, "table", "id", changed, null, null);
+		EasyMock.expectLastCall().andThrow(new DatabaseNotReachedException("test"));
+		mockCache.delete(null, "table", "id");
+		replay();
+		try {
+			sut.storeChanges(null, "table", "id", changed, null, null);
+		} finally {
+			verify();
+		}
+	}
+	
+	@Test
+	public void testDataReadBeforeStoreChangesNotCached() throws CacheException {
+		final Map<String, byte[]> old = new HashMap<String, byte[]>();
+		old.put("c", new byte[] {1});
+		final ColumnFamilyData changed = new DefaultColumnFamilyData();
+		Map<String, byte[]> changedF = new HashMap<String, byte[]>();
+		changedF.put("c", new byte[] {2});
+		changed.put("f", changedF);
+		
+		this.checkOrder();
+		expect(mockCache.getFamilyData(null, "table", "id", "f")).andReturn(null);
+		expect(mockStore.get(null, "table", "id", "f")).andAnswer(new IAnswer<Map<String, byte[]>>() {
+
+			@Override
+			public Map<String, byte[]> answer() throws Throwable {
+				// Row is changed while it is being read from the actual store
+				sut.storeChanges(null, "table", "id", changed, null, null);
+				return old;
+			}
+		});
+		mockStore.storeChanges(null, "table", "id", changed, null, null);
+		expect(mockCache.getFamilyData(null, "table", "id", "f")).andReturn(null);
+		replay();
+		assertEquals(old, sut.get(null, "table", "id", "f"));
+		verify();
+	}
+	
+	@Test
+	public void testDataReadBeforeDeleteNotCached() throws CacheException {
+		final Map<String, byte[]> old = new HashMap<String, byte[]>();
+		old.put("c", new byte[] {1});
+		Set<String> families = new HashSet<String>();
+		families.add("f");
+		final ColumnFamilyData oldRow = new DefaultColumnFamilyData();
+		oldRow.put("f", old);
+		
+		this.checkOrder();
+		expect(mockCache.getFamilyData(null, "table", "id", "f")).andReturn(null);
+		expect(mockStore.get(null, "table", "id", families)).andAnswer(new IAnswer<ColumnFamilyData>() {
+
+			@Override
+			public ColumnFamilyData answer() throws Throwable {
+				sut.delete(null, "table", "id");
+				return oldRow;
+			}
+		});
+		mockCache.delete(null, "table", "id");
+		mockStore.delete(null, "table", "id");
+		mockCache.delete(null, "table", "id");
+		replay();
+		assertEquals(oldRow, sut.get(null, "table", "id", families));
+		verify();
+	}
+	
+	@Test
+	public void testMissingRowCached() throws CacheException {
+		Element e=new Element();
+		e.key="tagada";
+		MetaInformation meta=new MetaInformation().forElement(e);
+		sut.setNegativeCache(new NegativeCache(10));
+		expect(mockCache.existsData(eq(meta), eq("table"), eq("row"), EasyMock.<String>anyObject())).andReturn(false).anyTimes();
+		expect(mockStore.exists(meta, "table", "row")).andReturn(false).once();
+		replay();
+		assertFalse(sut.exists(meta, "table", "row"));
+		assertFalse(sut.exists(meta, "table", "row"));
+		assertFalse(sut.exists(meta, "table", "row", "family"));
+		verify();
+		assertEquals(2, sut.getNegativeCache().getHits());
+	}
+	
+	@Test
+	public void testMissingRowInvalidatedByStore() throws CacheException {
+		Element e=new Element();
+		e.key="tagada";
+		MetaInformation meta=new MetaInformation().forElement(e);
+		sut.setNegativeCache(new NegativeCache(10));
+		ColumnFamilyData changed = new DefaultColumnFamilyData();
+		changed.put("family", new HashMap<String, byte[]>());
+		changed.get("family").put("q", new byte[] {1});
+		expect(mockCache.existsData(eq(meta), eq("table"), eq("row"), EasyMock.<String>anyObject())).andReturn(false).anyTimes();
+		expect(mockStore.exists(meta, "table", "row")).andReturn(false);
+		mockStore.storeChanges(meta, "table", "row", changed, null, null);
+		expect(mockCache.getFamilyData(meta, "table", "row", "family")).andReturn(null);
+		expect(mockStore.exists(meta, "table", "row")).andReturn(true);
+		replay();
+		assertFalse(sut.exists(meta, "table", "row"));
+		sut.storeChanges(meta, "table", "row", changed, null, null);
+		assertTrue(sut.exists(meta, "table", "row"));
+		verify();
+	}
+	
+	@Test
+	public void testMissingFamilyCached() throws CacheException {
+		sut.setNegativeCache(new NegativeCache(10));
+		expect(mockCache.getFamilyData(null, "table", "id", "family")).andReturn(null);
+		expect(mockStore.get(null, "table", "id", "family")).andReturn(null).once();
+		replay();
+		assertEquals(null, sut.get(null, "table", "id", "family"));
+		assertEquals(null, sut.get(null, "table", "id", "family"));
+		verify();
+	}
+	
+	private static Row row(final String key, final ColumnFamilyData values) {
+		return new Row() {
+			@Override
+			public String getKey() {
+				return key;
+			}
+			
+			@Override
+			public ColumnFamilyData getValues() {
+				return values;
+			}
+		};
+	}
+	
+	@Test
+	public void testScanCached() throws CacheException {
+		sut.setScanCache(new ScanCache(10));
+		Constraint c = new Constraint("a", "m");
+		Set<String> families = new HashSet<String>();
+		families.add("family");
+		Map<String, byte[]> value = new HashMap<String, byte[]>();
+		value.put("q", new byte[] {1});
+		ColumnFamilyData values = new DefaultColumnFamilyData();
+		values.put("family", value);
+		
+		expect(mockStore.get(null, "table", c, 10, families)).andReturn(ScanCache.iterator(Arrays.asList(row("b", values)))).once();
+		mockCache.insertFamilyData(null, "table", "b", "family", value);
+		replay();
+		for (int i = 0; i < 2; i++) {
+			CloseableKeyIterator it = sut.get(null, "table", c, 10, families);
+			assertTrue(it.hasNext());
+			Row r = it.next();
+			assertEquals("b", r.getKey());
+			assertEquals(values, r.getValues());
+			assertFalse(it.hasNext());
+			it.close();
+		}
+		verify();
+		assertEquals(1, sut.getScanCache().getHits());
+	}
 	
+	@Test
+	public void testScanInvalidatedByStoreInRange() throws CacheException {
+		sut.setScanCache(new ScanCache(10));
+		Constraint c = new Constraint("a", "m");
+		Set<String> families = new HashSet<String>();
+		families.add("family");
+		ColumnFamilyData changed = new DefaultColumnFamilyData();
+		changed.put("family", new HashMap<String, byte[]>());
+		
+		expect(mockStore.get(null, "table", c, 10, families)).andReturn(ScanCache.iterator(new ArrayList<Row>())).times(2);
+		mockStore.storeChanges(null, "table", "z", changed, null, null);
+		mockStore.storeChanges(null, "table", "c", changed, null, null);
+		expect(mockCache.getFamilyData(EasyMock.<MetaInformation>isNull(), eq("table"), EasyMock.<String>anyObject(), eq("family"))).andReturn(null).anyTimes();
+		replay();
+		assertFalse(sut.get(null, "table", c, 10, families).hasNext());
+		sut.storeChanges(null, "table", "z", changed, null, null);
+		assertFalse(sut.get(null, "table", c, 10, families).hasNext());
+		sut.storeChanges(null, "table", "c", changed, null, null);
+		assertFalse(sut.get(null, "table", c, 10, families).hasNext());
+		verify();
+		assertEquals(1, sut.getScanCache().getHits());
+		assertEquals(1, sut.getScanCache().getInvalidations());
+	}
 
 }
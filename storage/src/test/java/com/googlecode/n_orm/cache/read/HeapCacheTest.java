@@ -0,0 +1,103 @@
+package com.googlecode.n_orm.cache.read;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class HeapCacheTest extends CacheTester {
+
+	@Override
+	public ICache createCache() {
+		return new HeapCache();
+	}
+
+	private static Map<String, byte[]> data(int size) {
+		Map<String, byte[]> ret = new HashMap<String, byte[]>();
+		ret.put("q", new byte[size]);
+		return ret;
+	}
+
+	@Test
+	public void hitsAndMisses() throws CacheException {
+		HeapCache c = new HeapCache();
+		assertNull(c.getFamilyData(null, "t", "r", "f"));
+		c.insertFamilyData(null, "t", "r", "f", data(10));
+		assertNotNull(c.getFamilyData(null, "t", "r", "f"));
+		assertNotNull(c.getFamilyData(null, "t", "r", "f"));
+		assertEquals(2, c.getHits());
+		assertEquals(1, c.getMisses());
+		assertEquals(2.0/3, c.getHitRatio(), 0.0001);
+		c.resetCounters();
+		assertEquals(0, c.getHits());
+	}
+
+	@Test
+	public void deleteRemovesAllFamilies() throws CacheException {
+		HeapCache c = new HeapCache();
+		c.insertFamilyData(null, "t", "r", "f1", data(10));
+		c.insertFamilyData(null, "t", "r", "f2", data(10));
+		c.insertFamilyData(null, "t", "r2", "f1", data(10));
+		assertEquals(3, c.size());
+		c.delete(null, "t", "r");
+		assertEquals(1, c.size());
+		assertNull(c.getFamilyData(null, "t", "r", "f2"));
+		assertNotNull(c.getFamilyData(null, "t", "r2", "f1"));
+	}
+
+	@Test
+	public void deleteFamily() throws CacheException {
+		HeapCache c = new HeapCache();
+		c.insertFamilyData(null, "t", "r", "f1", data(10));
+		c.insertFamilyData(null, "t", "r", "f2", data(10));
+		c.deleteFamilyData(null, "t", "r", "f1");
+		assertEquals(1, c.size());
+		assertNull(c.getFamilyData(null, "t", "r", "f1"));
+		assertNotNull(c.getFamilyData(null, "t", "r", "f2"));
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() throws CacheException {
+		HeapCache c = new HeapCache(3500, 1);
+		c.insertFamilyData(null, "t", "r1", "f", data(1000));
+		c.insertFamilyData(null, "t", "r2", "f", data(1000));
+		c.insertFamilyData(null, "t", "r3", "f", data(1000));
+		assertNotNull(c.getFamilyData(null, "t", "r1", "f"));
+		c.insertFamilyData(null, "t", "r4", "f", data(1000));
+
+		assertNull(c.getFamilyData(null, "t", "r2", "f"));
+		assertNotNull(c.getFamilyData(null, "t", "r1", "f"));
+		assertNotNull(c.getFamilyData(null, "t", "r4", "f"));
+		assertEquals(1, c.getEvictions());
+		assertTrue(c.getWeight() <= c.getMaxWeight());
+	}
+
+	@Test
+	public void tooBigNotCached() throws CacheException {
+		HeapCache c = new HeapCache(500, 1);
+		c.insertFamilyData(null, "t", "r", "f", data(1000));
+		assertNull(c.getFamilyData(null, "t", "r", "f"));
+		assertEquals(0, c.size());
+		assertEquals(0, c.getWeight());
+	}
+
+	@Test
+	public void timeToLive() throws CacheException, InterruptedException {
+		HeapCache c = new HeapCache();
+		c.setTimeToLiveMs(50);
+		c.setTimeToLiveMs("t2", 0);
+		c.setTimeToLiveMs("t2", "f2", 50);
+		c.insertFamilyData(null, "t", "r", "f", data(10));
+		c.insertFamilyData(null, "t2", "r", "f", data(10));
+		c.insertFamilyData(null, "t2", "r", "f2", data(10));
+		assertTrue(c.existsData(null, "t", "r", "f"));
+		Thread.sleep(100);
+		assertFalse(c.existsData(null, "t", "r", "f"));
+		assertNull(c.getFamilyData(null, "t", "r", "f"));
+		assertNotNull(c.getFamilyData(null, "t2", "r", "f"));
+		assertNull(c.getFamilyData(null, "t2", "r", "f2"));
+		assertEquals(1, c.size());
+	}
+}
@@ -0,0 +1,71 @@
+package com.googlecode.n_orm.cache.read;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class NegativeCacheTest {
+
+	@Test
+	public void rowAbsence() {
+		NegativeCache nc = new NegativeCache(10);
+		assertFalse(nc.isAbsent("t", "r"));
+		nc.recordAbsent("t", "r", nc.getToken("t", "r"));
+		assertTrue(nc.isAbsent("t", "r"));
+		assertTrue(nc.isAbsent("t", "r", "f"));
+		assertFalse(nc.isAbsent("t", "r2"));
+		assertEquals(2, nc.getHits());
+		assertEquals(2, nc.getMisses());
+	}
+
+	@Test
+	public void familyAbsence() {
+		NegativeCache nc = new NegativeCache(10);
+		nc.recordAbsent("t", "r", "f1", nc.getToken("t", "r"));
+		nc.recordAbsent("t", "r", "f2", nc.getToken("t", "r"));
+		assertTrue(nc.isAbsent("t", "r", "f1"));
+		assertTrue(nc.isAbsent("t", "r", "f2"));
+		assertFalse(nc.isAbsent("t", "r", "f3"));
+		assertFalse(nc.isAbsent("t", "r"));
+		assertEquals(1, nc.size());
+	}
+
+	@Test
+	public void invalidation() {
+		NegativeCache nc = new NegativeCache(10);
+		nc.recordAbsent("t", "r", nc.getToken("t", "r"));
+		nc.invalidate("t", "r");
+		assertFalse(nc.isAbsent("t", "r"));
+	}
+
+	@Test
+	public void invalidationDuringRequest() {
+		NegativeCache nc = new NegativeCache(10);
+		long token = nc.getToken("t", "r");
+		nc.invalidate("t", "r");
+		nc.recordAbsent("t", "r", token);
+		assertFalse(nc.isAbsent("t", "r"));
+	}
+
+	@Test
+	public void expiration() throws InterruptedException {
+		NegativeCache nc = new NegativeCache(10, 50);
+		nc.recordAbsent("t", "r", nc.getToken("t", "r"));
+		assertTrue(nc.isAbsent("t", "r"));
+		Thread.sleep(100);
+		assertFalse(nc.isAbsent("t", "r"));
+		assertEquals(0, nc.size());
+	}
+
+	@Test
+	public void bounded() {
+		NegativeCache nc = new NegativeCache(10);
+		for (int i = 0; i < 100; i++) {
+			nc.recordAbsent("t", "r" + i, nc.getToken("t", "r" + i));
+		}
+		assertEquals(10, nc.size());
+		assertEquals(90, nc.getEvictions());
+		assertTrue(nc.isAbsent("t", "r99"));
+		assertFalse(nc.isAbsent("t", "r0"));
+	}
+}
@@ -0,0 +1,85 @@
+package com.googlecode.n_orm.cache.read;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class OffHeapCacheTest extends CacheTester {
+
+	@Override
+	public ICache createCache() {
+		return new OffHeapCache(1024*1024);
+	}
+
+	private static Map<String, byte[]> data(int size) {
+		Map<String, byte[]> ret = new HashMap<String, byte[]>();
+		ret.put("q", new byte[size]);
+		return ret;
+	}
+
+	@Test
+	public void readsCopies() throws CacheException {
+		OffHeapCache c = new OffHeapCache(1024*1024);
+		Map<String, byte[]> data = new HashMap<String, byte[]>();
+		data.put("a", new byte[] {1, 2, 3});
+		data.put("b", null);
+		data.put("c", new byte[0]);
+		c.insertFamilyData(null, "t", "r", "f", data);
+		data.get("a")[0] = 9;
+
+		Map<String, byte[]> read = c.getFamilyData(null, "t", "r", "f");
+		assertEquals(3, read.size());
+		assertArrayEquals(new byte[] {1, 2, 3}, read.get("a"));
+		assertTrue(read.containsKey("b"));
+		assertNull(read.get("b"));
+		assertArrayEquals(new byte[0], read.get("c"));
+		assertEquals(1, c.getHits());
+	}
+
+	@Test
+	public void familiesInSameRow() throws CacheException {
+		OffHeapCache c = new OffHeapCache(1024*1024);
+		c.insertFamilyData(null, "t", "r", "f1", data(10));
+		c.insertFamilyData(null, "t", "r", "f2", data(20));
+		c.insertFamilyData(null, "t", "r", "f1", data(30));
+		assertEquals(2, c.size());
+		assertEquals(30, c.getFamilyData(null, "t", "r", "f1").get("q").length);
+		assertEquals(20, c.getFamilyData(null, "t", "r", "f2").get("q").length);
+
+		c.deleteFamilyData(null, "t", "r", "f1");
+		assertEquals(1, c.size());
+		assertNull(c.getFamilyData(null, "t", "r", "f1"));
+		assertNotNull(c.getFamilyData(null, "t", "r", "f2"));
+
+		c.delete(null, "t", "r");
+		assertEquals(0, c.size());
+		assertEquals(0, c.getUsedMemory());
+		assertNull(c.getFamilyData(null, "t", "r", "f2"));
+	}
+
+	@Test
+	public void evictsWhenFull() throws CacheException {
+		OffHeapCache c = new OffHeapCache(16*1024, 1);
+		assertEquals(0, c.getAllocatedMemory());
+		for (int i = 0; i < 1000; i++) {
+			c.insertFamilyData(null, "t", "r" + i, "f", data(100));
+		}
+		assertTrue(c.getEvictions() > 0);
+		assertEquals(1000, c.size() + c.getEvictions());
+		assertTrue(c.getAllocatedMemory() <= c.getCapacity());
+		assertTrue(c.getUsedMemory() <= c.getCapacity());
+		assertNotNull(c.getFamilyData(null, "t", "r999", "f"));
+		assertNull(c.getFamilyData(null, "t", "r0", "f"));
+	}
+
+	@Test
+	public void tooBigNotCached() throws CacheException {
+		OffHeapCache c = new OffHeapCache(8*1024, 1);
+		c.insertFamilyData(null, "t", "r", "f", data(2048));
+		assertNull(c.getFamilyData(null, "t", "r", "f"));
+		assertEquals(0, c.size());
+	}
+}
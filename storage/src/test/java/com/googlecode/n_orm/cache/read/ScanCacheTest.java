@@ -0,0 +1,74 @@
+package com.googlecode.n_orm.cache.read;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.googlecode.n_orm.storeapi.Constraint;
+import com.googlecode.n_orm.storeapi.Row;
+
+public class ScanCacheTest {
+	private static final Constraint c1 = new Constraint("a", "b");
+	private static final Constraint c2 = new Constraint("c", "d");
+	private static final Constraint c3 = new Constraint("e", "f");
+
+	private void record(ScanCache sc, Constraint c) {
+		sc.record("t", c, 10, null, Collections.<Row>emptyList(), sc.getToken("t"));
+	}
+
+	@Test
+	public void eviction() {
+		ScanCache sc = new ScanCache(2);
+		this.record(sc, c1);
+		this.record(sc, c2);
+		this.record(sc, c3);
+		assertEquals(2, sc.size());
+		assertNull(sc.get("t", c1, 10, null));
+		assertNotNull(sc.get("t", c2, 10, null));
+		assertNotNull(sc.get("t", c3, 10, null));
+	}
+
+	@Test
+	public void invalidatedNotCountedForEviction() {
+		ScanCache sc = new ScanCache(2);
+		this.record(sc, c1);
+		this.record(sc, c2);
+		sc.invalidate("t", "a1");
+		assertEquals(1, sc.size());
+		this.record(sc, c3);
+		assertEquals(2, sc.size());
+		assertNotNull(sc.get("t", c2, 10, null));
+		assertNotNull(sc.get("t", c3, 10, null));
+	}
+
+	@Test
+	public void reRecordedNotEvictedEarly() {
+		ScanCache sc = new ScanCache(2);
+		this.record(sc, c1);
+		this.record(sc, c2);
+		sc.invalidate("t", "a1");
+		this.record(sc, c1);
+		assertEquals(2, sc.size());
+		assertNotNull(sc.get("t", c1, 10, null));
+		assertNotNull(sc.get("t", c2, 10, null));
+		
+		// c2 is now the oldest result
+		this.record(sc, c3);
+		assertNull(sc.get("t", c2, 10, null));
+		assertNotNull(sc.get("t", c1, 10, null));
+		assertNotNull(sc.get("t", c3, 10, null));
+	}
+
+	@Test
+	public void reRecordedReplacesResult() {
+		ScanCache sc = new ScanCache(2);
+		this.record(sc, c1);
+		this.record(sc, c1);
+		this.record(sc, c2);
+		assertEquals(2, sc.size());
+		assertNotNull(sc.get("t", c1, 10, null));
+		assertNotNull(sc.get("t", c2, 10, null));
+	}
+}
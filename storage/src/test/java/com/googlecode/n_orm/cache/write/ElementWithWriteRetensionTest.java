@@ -97,13 +97,14 @@ public class ElementWithWriteRetensionTest {
 		e.deleteNoCache();
 		assertFalse(e.existsInStore());
 		
+		// Retained writes are visible before being sent
 		e.store();
-		assertFalse(e.existsInStore());
+		assertTrue(e.existsInStore());
 		this.waitForPendingRequests();
 		assertTrue(e.existsInStore());
-		
+
 		e.delete();
-		assertTrue(e.existsInStore());
+		assertFalse(e.existsInStore());
 		this.waitForPendingRequests();
 		assertFalse(e.existsInStore());
 	}
@@ -0,0 +1,128 @@
+package com.googlecode.n_orm.cache.write;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SenderPoolTest {
+
+	private static class Recorder implements Runnable {
+		private final List<String> done;
+		private final String name;
+		private final CountDownLatch latch;
+
+		public Recorder(List<String> done, String name, CountDownLatch latch) {
+			this.done = done;
+			this.name = name;
+			this.latch = latch;
+		}
+
+		@Override
+		public void run() {
+			done.add(name);
+			latch.countDown();
+		}
+	}
+
+	private static class Blocker implements Runnable {
+		private final CountDownLatch started = new CountDownLatch(1);
+		private final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public void run() {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@Test(timeout=10000)
+	public void hotTableDoesNotStarveOthers() throws InterruptedException {
+		SenderPool sut = new SenderPool("test sender", 1, 1000);
+		List<String> done = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch latch = new CountDownLatch(11);
+		Blocker b = new Blocker();
+		sut.submit("hot", 0, b);
+		b.started.await();
+
+		for (int i = 0; i < 10; i++) {
+			sut.submit("hot", i, new Recorder(done, "hot" + i, latch));
+		}
+		sut.submit("cold", 100, new Recorder(done, "cold", latch));
+		assertEquals(11, sut.getQueueDepth());
+		assertEquals(10, sut.getQueueDepth("hot"));
+		assertEquals(1, sut.getQueueDepth("cold"));
+		assertEquals(1.0, sut.getUtilization(), 0.0);
+
+		b.release.countDown();
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals("cold", done.get(0));
+		assertEquals(0, sut.getQueueDepth());
+		assertTrue(sut.getLastLagMs("cold") >= 0);
+	}
+
+	@Test(timeout=10000)
+	public void dueOrderWithinTable() throws InterruptedException {
+		SenderPool sut = new SenderPool("test sender", 1, 1000);
+		List<String> done = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch latch = new CountDownLatch(3);
+		Blocker b = new Blocker();
+		sut.submit("t", 0, b);
+		b.started.await();
+
+		sut.submit("t", 30, new Recorder(done, "30", latch));
+		sut.submit("t", 10, new Recorder(done, "10", latch));
+		sut.submit("t", 20, new Recorder(done, "20", latch));
+
+		b.release.countDown();
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(3, done.size());
+		assertEquals("10", done.get(0));
+		assertEquals("20", done.get(1));
+		assertEquals("30", done.get(2));
+	}
+
+	@Test(timeout=10000)
+	public void boundedThreads() throws InterruptedException {
+		final SenderPool sut = new SenderPool("test sender", 2, 1000);
+		final AtomicInteger concurrent = new AtomicInteger(), maxConcurrent = new AtomicInteger();
+		final CountDownLatch latch = new CountDownLatch(20);
+		for (int i = 0; i < 20; i++) {
+			sut.submit("t" + (i%3), i, new Runnable() {
+
+				@Override
+				public void run() {
+					int c = concurrent.incrementAndGet();
+					int max;
+					while ((max = maxConcurrent.get()) < c && !maxConcurrent.compareAndSet(max, c));
+					assertTrue(sut.getThreadCount() <= 2);
+					try {
+						Thread.sleep(10);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					concurrent.decrementAndGet();
+					latch.countDown();
+				}
+			});
+		}
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertTrue(maxConcurrent.get() <= 2);
+		assertTrue(sut.getThreadCount() <= 2);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void zeroMaxThreads() {
+		new SenderPool("test sender", 2, 1000).setMaxThreads(0);
+	}
+}
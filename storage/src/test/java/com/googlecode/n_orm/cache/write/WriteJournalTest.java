@@ -0,0 +1,156 @@
+package com.googlecode.n_orm.cache.write;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+import com.googlecode.n_orm.conversion.ConversionTools;
+import com.googlecode.n_orm.storeapi.DefaultColumnFamilyData;
+import com.googlecode.n_orm.storeapi.MetaInformation;
+import com.googlecode.n_orm.storeapi.Row.ColumnFamilyData;
+import com.googlecode.n_orm.storeapi.Store;
+
+public class WriteJournalTest {
+	private static final String table = "testtable";
+	private static final String rowId = "testrow";
+
+	private File dir;
+	private ColumnFamilyData aChange;
+	private Map<String, Set<String>> aDelete;
+	private Map<String, Map<String, Number>> anIncrement;
+
+	@Before
+	public void createDir() {
+		dir = new File(System.getProperty("java.io.tmpdir"), "n-orm-journal-test-" + System.nanoTime());
+
+		aChange = new DefaultColumnFamilyData();
+		Map<String, byte[]> changedValues = new TreeMap<String, byte[]>();
+		changedValues.put("changedKey", ConversionTools.convert("changedValue"));
+		changedValues.put("nullKey", null);
+		aChange.put("changedCf", changedValues);
+
+		aDelete = new TreeMap<String, Set<String>>();
+		Set<String> deleted = new TreeSet<String>();
+		deleted.add("deletedKey");
+		aDelete.put("changedCf", deleted);
+
+		anIncrement = new TreeMap<String, Map<String,Number>>();
+		Map<String, Number> incr = new TreeMap<String, Number>();
+		incr.put("incrementedKey", 3l);
+		anIncrement.put("incrementedCf", incr);
+	}
+
+	@After
+	public void deleteDir() {
+		File[] files = dir.listFiles();
+		if (files != null)
+			for (File f : files) {
+				f.delete();
+			}
+		dir.delete();
+	}
+
+	private int segments() {
+		File[] files = dir.listFiles();
+		return files == null ? 0 : files.length;
+	}
+
+	@Test
+	public void replayUnsent() {
+		WriteJournal j = new WriteJournal(dir, 4096);
+		assertEquals(0, j.replay(Mockito.mock(Store.class)));
+		j.appendUpdate(table, rowId, aChange, aDelete, anIncrement);
+		j.appendDelete(table, rowId + "2");
+		j.sync(j.getAppended());
+		assertEquals(1, segments());
+
+		Store s = Mockito.mock(Store.class);
+		WriteJournal j2 = new WriteJournal(dir, 4096);
+		assertEquals(2, j2.replay(s));
+		ArgumentCaptor<ColumnFamilyData> changed = ArgumentCaptor.forClass(ColumnFamilyData.class);
+		InOrder inOrder = Mockito.inOrder(s);
+		inOrder.verify(s).storeChanges(Mockito.isNull(MetaInformation.class), Mockito.eq(table), Mockito.eq(rowId), changed.capture(), Mockito.eq(aDelete), Mockito.eq(anIncrement));
+		inOrder.verify(s).delete(null, table, rowId + "2");
+		inOrder.verifyNoMoreInteractions();
+		Map<String, byte[]> changedValues = changed.getValue().get("changedCf");
+		assertEquals(2, changedValues.size());
+		assertArrayEquals(aChange.get("changedCf").get("changedKey"), changedValues.get("changedKey"));
+		assertTrue(changedValues.containsKey("nullKey"));
+		assertNull(changedValues.get("nullKey"));
+		assertEquals(0, segments());
+	}
+
+	@Test
+	public void sentSegmentsDeleted() {
+		WriteJournal j = new WriteJournal(dir, 256);
+		j.replay(Mockito.mock(Store.class));
+		List<WriteJournal.Record> first = new ArrayList<WriteJournal.Record>();
+		first.add(j.appendUpdate(table, rowId, aChange, aDelete, anIncrement));
+		WriteJournal.Record r;
+		int appended = 1;
+		while ((r = j.appendDelete(table, rowId + appended++)).getSegment() == first.get(0).getSegment()) {
+			first.add(r);
+		}
+		j.sync(j.getAppended());
+		assertEquals(2, segments());
+
+		// First segment is full, but not all sent yet
+		for (WriteJournal.Record fr : first.subList(1, first.size())) {
+			j.delivered(Collections.singleton(fr));
+		}
+		assertEquals(2, segments());
+		j.delivered(Collections.singleton(first.get(0)));
+		assertEquals(1, segments());
+
+		j.delivered(Collections.singleton(r));
+		assertEquals(0, segments());
+
+		Store store = Mockito.mock(Store.class);
+		assertEquals(0, new WriteJournal(dir, 256).replay(store));
+		Mockito.verifyZeroInteractions(store);
+	}
+
+	@Test
+	public void deliveredAndSupersededRecordsNotReplayed() {
+		WriteJournal j = new WriteJournal(dir, 512);
+		j.replay(Mockito.mock(Store.class));
+		// A segment holding a delivered write for row A, a failed one for row C, and a pending one for row B
+		WriteJournal.Record a1 = j.appendUpdate(table, "A", aChange, null, anIncrement);
+		WriteJournal.Record c1 = j.appendUpdate(table, "C", aChange, null, anIncrement);
+		WriteJournal.Record b = j.appendUpdate(table, "B", aChange, null, null);
+		j.delivered(Collections.singleton(a1));
+		j.failed(Collections.singleton(c1));
+
+		// Later writes for A and C are delivered from a newer segment
+		WriteJournal.Record a2, c2;
+		do {
+			a2 = j.appendUpdate(table, "A", aChange, aDelete, null);
+			c2 = j.appendUpdate(table, "C", aChange, aDelete, null);
+			j.delivered(Collections.singleton(a2));
+			j.delivered(Collections.singleton(c2));
+		} while (a2.getSegment() == b.getSegment() || c2.getSegment() == b.getSegment());
+		j.sync(j.getAppended());
+		assertFalse(a2.getSegment().equals(b.getSegment()));
+
+		// Only the pending write for B is replayed
+		Store s = Mockito.mock(Store.class);
+		assertEquals(1, new WriteJournal(dir, 512).replay(s));
+		Mockito.verify(s).storeChanges(Mockito.isNull(MetaInformation.class), Mockito.eq(table), Mockito.eq("B"), Mockito.any(ColumnFamilyData.class), Mockito.eq(new TreeMap<String, Set<String>>()), Mockito.eq(new TreeMap<String, Map<String, Number>>()));
+		Mockito.verifyNoMoreInteractions(s);
+		assertEquals(0, segments());
+	}
+}
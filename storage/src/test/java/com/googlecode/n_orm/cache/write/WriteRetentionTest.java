@@ -4,10 +4,12 @@ import static org.junit.Assert.*;
 
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.lang.management.ManagementFactory;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -17,6 +19,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.After;
@@ -24,6 +27,7 @@ import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.Mockito;
 
@@ -36,6 +40,7 @@ import com.googlecode.n_orm.memory.Memory;
 import com.googlecode.n_orm.storeapi.DefaultColumnFamilyData;
 import com.googlecode.n_orm.storeapi.MetaInformation;
 import com.googlecode.n_orm.storeapi.Row.ColumnFamilyData;
+import com.googlecode.n_orm.storeapi.RowChanges;
 import com.googlecode.n_orm.storeapi.DelegatingStore;
 import com.googlecode.n_orm.storeapi.SimpleStoreWrapper;
 import com.googlecode.n_orm.storeapi.Store;
@@ -88,6 +93,10 @@ public class WriteRetentionTest {
 	private static final String incrementedKey = "incrementedKey";
 	private static final byte[] changedValue1 = ConversionTools.convert("changedValue1");
 	private static final byte[] changedValue2 = ConversionTools.convert("changedValue2");
+	/**
+	 * Lower bound for merges per second on a single row, far below what lock-free merges achieve
+	 */
+	private static final long MIN_MERGES_PER_SECOND = 20000;
 	private static ColumnFamilyData aChange, anotherChange;
 	private static Map<String, Set<String>> aDelete;
 	private static Map<String, Map<String, Number>> anIncrement;
@@ -234,6 +243,83 @@ public class WriteRetentionTest {
 		assertArrayEquals(changedValue1, store.get(null, table, rowId, changedCf, changedKey));
 	}
 	
+	@Test(timeout=10000)
+	public void multiGetMergesRetainedChanges() throws InterruptedException {
+		WriteRetentionStore sut = sut200;
+		String otherRowId = rowId + "2";
+		store.storeChanges(null, table, otherRowId, aChange, null, anIncrement);
+
+		sut.storeChanges(null, table, rowId, aChange, null, null);
+		sut.storeChanges(null, table, otherRowId, anotherChange, null, anIncrement);
+		assertFalse(store.exists(null, table, rowId));
+
+		Set<String> families = new TreeSet<String>();
+		families.add(changedCf);
+		families.add(incrementedCf);
+		Map<String, ColumnFamilyData> found = sut.get(null, table, Arrays.asList(rowId, otherRowId, "unknown"), families);
+		assertEquals(2, found.size());
+		assertArrayEquals(changedValue1, found.get(rowId).get(changedCf).get(changedKey));
+		assertArrayEquals(changedValue2, found.get(otherRowId).get(changedCf).get(changedKey));
+		assertEquals(2l, ConversionTools.convert(Long.class, found.get(otherRowId).get(incrementedCf).get(incrementedKey)).longValue());
+
+		sut.delete(null, table, otherRowId);
+		found = sut.get(null, table, Arrays.asList(rowId, otherRowId), families);
+		assertEquals(1, found.size());
+		assertTrue(found.containsKey(rowId));
+	}
+
+	@Test(timeout=10000)
+	public void readYourWrites() throws InterruptedException {
+		WriteRetentionStore sut = sut200;
+		store.storeChanges(null, table, rowId, aChange, null, anIncrement);
+
+		sut.storeChanges(null, table, rowId, anotherChange, null, anIncrement);
+		assertArrayEquals(changedValue1, store.get(null, table, rowId, changedCf, changedKey));
+		assertArrayEquals(changedValue2, sut.get(null, table, rowId, changedCf, changedKey));
+		assertEquals(2l, ConversionTools.convert(Long.class, sut.get(null, table, rowId, incrementedCf, incrementedKey)).longValue());
+		assertTrue(sut.exists(null, table, rowId));
+		assertTrue(sut.exists(null, table, rowId, changedCf));
+		assertArrayEquals(changedValue2, sut.get(null, table, rowId, changedCf).get(changedKey));
+		Set<String> families = new TreeSet<String>();
+		families.add(changedCf);
+		families.add(incrementedCf);
+		ColumnFamilyData found = sut.get(null, table, rowId, families);
+		assertArrayEquals(changedValue2, found.get(changedCf).get(changedKey));
+		assertEquals(2l, ConversionTools.convert(Long.class, found.get(incrementedCf).get(incrementedKey)).longValue());
+
+		sut.storeChanges(null, table, rowId, null, aDelete, null);
+		assertNull(sut.get(null, table, rowId, changedCf, changedKey));
+		assertFalse(sut.exists(null, table, rowId, changedCf));
+
+		sut.delete(null, table, rowId);
+		assertTrue(store.exists(null, table, rowId));
+		assertFalse(sut.exists(null, table, rowId));
+		assertNull(sut.get(null, table, rowId, incrementedCf, incrementedKey));
+		assertNull(sut.get(null, table, rowId, families));
+
+		sut.storeChanges(null, table, rowId, aChange, null, null);
+		assertTrue(sut.exists(null, table, rowId));
+		assertArrayEquals(changedValue1, sut.get(null, table, rowId, changedCf, changedKey));
+		assertNull(sut.get(null, table, rowId, incrementedCf));
+
+		this.waitForPendingRequests();
+		assertArrayEquals(changedValue1, sut.get(null, table, rowId, changedCf, changedKey));
+		assertNull(sut.get(null, table, rowId, incrementedCf));
+	}
+
+	@Test(timeout=10000)
+	public void readWhileSending() throws InterruptedException {
+		WriteRetentionStore sut = sutSlowDS;
+		store.storeChanges(null, table, rowId, null, null, anIncrement);
+
+		sut.storeChanges(null, table, rowId, null, null, anIncrement);
+		// Before, while and after the (slow) send: increment must be counted once
+		for (int i = 0; i < 10; i++) {
+			assertEquals(2l, ConversionTools.convert(Long.class, sut.get(null, table, rowId, incrementedCf, incrementedKey)).longValue());
+			Thread.sleep(100);
+		}
+	}
+
 	@Test(timeout=10000)
 	public void disableForThread() throws InterruptedException {
 		WriteRetentionStore sut = sut200;
@@ -913,6 +999,309 @@ public class WriteRetentionTest {
 		assertFalse(Memory.INSTANCE.exists(table, rowId+(parallelWrites+1)));
 	}
 	
+	@Test(timeout=10000)
+	@SuppressWarnings("unchecked")
+	public void batchedSends() throws InterruptedException {
+		WriteRetentionStore sut = sut50Mock;
+		int rows = 20;
+		
+		WriteRetentionStore.setMaxBatchSize(100);
+		WriteRetentionStore.setMaxBatchLatencyMs(200);
+		try {
+			for (int i = 0; i < rows; i++) {
+				sut.storeChanges(null, table, rowId + i, aChange, null, null);
+			}
+			this.waitForPendingRequests();
+		} finally {
+			WriteRetentionStore.setMaxBatchSize(1);
+			WriteRetentionStore.setMaxBatchLatencyMs(0);
+		}
+		
+		ArgumentCaptor<List> batches = ArgumentCaptor.forClass(List.class);
+		Mockito.verify(mockStore, Mockito.atLeastOnce()).storeChanges(batches.capture());
+		Mockito.verify(mockStore, Mockito.never()).storeChanges(Mockito.any(MetaInformation.class), Mockito.anyString(), Mockito.anyString(), Mockito.any(ColumnFamilyData.class), Mockito.anyMap(), Mockito.anyMap());
+		Set<String> sent = new TreeSet<String>();
+		for (List<RowChanges> batch : batches.getAllValues()) {
+			for (RowChanges change : batch) {
+				assertEquals(table, change.getTable());
+				assertArrayEquals(changedValue1, change.getChanged().get(changedCf).get(changedKey));
+				assertTrue(sent.add(change.getId()));
+			}
+		}
+		assertEquals(rows, sent.size());
+		assertTrue(batches.getAllValues().size() < rows);
+	}
+	
+	@Test(timeout=10000)
+	public void batchedSendsWithDelete() throws InterruptedException {
+		WriteRetentionStore sut = sut50;
+		String otherRowId = rowId + "2";
+		store.storeChanges(null, table, otherRowId, aChange, null, null);
+		
+		WriteRetentionStore.setMaxBatchSize(100);
+		WriteRetentionStore.setMaxBatchLatencyMs(20);
+		try {
+			sut.storeChanges(null, table, rowId, aChange, null, anIncrement);
+			sut.delete(null, table, otherRowId);
+			sut.storeChanges(null, table, otherRowId, anotherChange, null, null);
+			this.waitForPendingRequests();
+		} finally {
+			WriteRetentionStore.setMaxBatchSize(1);
+			WriteRetentionStore.setMaxBatchLatencyMs(0);
+		}
+		
+		assertArrayEquals(changedValue1, store.get(null, table, rowId, changedCf, changedKey));
+		assertEquals(1l, ConversionTools.convert(Long.class, store.get(null, table, rowId, incrementedCf, incrementedKey)).longValue());
+		assertArrayEquals(changedValue2, store.get(null, table, otherRowId, changedCf, changedKey));
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void zeroMaxBatchSizeSetAttempt() {
+		WriteRetentionStore.setMaxBatchSize(0);
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void negativeMaxBatchLatencySetAttempt() {
+		WriteRetentionStore.setMaxBatchLatencyMs(-1);
+	}
+	
+	@Test(timeout=10000)
+	public void retainedBytes() throws InterruptedException {
+		WriteRetentionStore sut = sut200;
+		long before = WriteRetentionStore.getRetainedBytes();
+		
+		sut.storeChanges(null, table, rowId, aChange, null, anIncrement);
+		assertEquals(1, WriteRetentionStore.getRetainedRequests());
+		assertTrue(WriteRetentionStore.getRetainedBytes() > before);
+		
+		this.waitForPendingRequests();
+		assertEquals(0, WriteRetentionStore.getRetainedRequests());
+		assertEquals(0, WriteRetentionStore.getRetainedBytes());
+	}
+	
+	@Test(timeout=10000)
+	public void blockWhenFull() throws InterruptedException {
+		WriteRetentionStore sut = sut50;
+		String otherRowId = rowId + "2";
+		long blocked = WriteRetentionStore.getBlockedTimeMs();
+		
+		WriteRetentionStore.setMaxRetainedRequests(1);
+		try {
+			sut.storeChanges(null, table, rowId, aChange, null, null);
+			assertFalse(store.exists(null, table, rowId));
+			sut.storeChanges(null, table, otherRowId, aChange, null, null);
+			assertTrue(store.exists(null, table, rowId));
+			assertFalse(store.exists(null, table, otherRowId));
+			assertTrue(WriteRetentionStore.getBlockedTimeMs() > blocked);
+		} finally {
+			WriteRetentionStore.setMaxRetainedRequests(Long.MAX_VALUE);
+		}
+	}
+	
+	@Test(timeout=10000)
+	public void blockWhenFullSendsEarly() throws InterruptedException {
+		WriteRetentionStore sut = WriteRetentionStore.getWriteRetentionStore(5000, store);
+		sut.start();
+		String otherRowId = rowId + "2";
+		
+		WriteRetentionStore.setMaxRetainedRequests(1);
+		try {
+			sut.storeChanges(null, table, rowId, aChange, null, null);
+			assertFalse(store.exists(null, table, rowId));
+			long start = System.currentTimeMillis();
+			sut.storeChanges(null, table, otherRowId, aChange, null, null);
+			long blocked = System.currentTimeMillis() - start;
+			// Writer is not blocked until the first row is due
+			assertTrue("Writer blocked for " + blocked + "ms", blocked < 1000);
+			assertTrue(store.exists(null, table, rowId));
+			assertFalse(store.exists(null, table, otherRowId));
+		} finally {
+			WriteRetentionStore.setMaxRetainedRequests(Long.MAX_VALUE);
+			sut.flush(table, otherRowId);
+		}
+	}
+	
+	@Test(timeout=10000)
+	public void writeThroughWhenFull() throws InterruptedException {
+		WriteRetentionStore sut = sut200;
+		String otherRowId = rowId + "2";
+		
+		WriteRetentionStore.setMaxRetainedRequests(2);
+		WriteRetentionStore.setBlockingWhenFull(false);
+		try {
+			sut.storeChanges(null, table, rowId, aChange, null, null);
+			assertFalse(store.exists(null, table, rowId));
+			sut.storeChanges(null, table, otherRowId, aChange, null, null);
+			assertFalse(store.exists(null, table, rowId));
+			assertTrue(store.exists(null, table, otherRowId));
+			assertEquals(1, WriteRetentionStore.getRetainedRequests());
+		} finally {
+			WriteRetentionStore.setMaxRetainedRequests(Long.MAX_VALUE);
+			WriteRetentionStore.setBlockingWhenFull(true);
+		}
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void zeroMaxRetainedBytesSetAttempt() {
+		WriteRetentionStore.setMaxRetainedBytes(0);
+	}
+	
+	@Test(timeout=10000)
+	public void adaptiveRetentionColdRow() throws InterruptedException {
+		WriteRetentionStore sut = sut200;
+		
+		sut.setAdaptiveRetention(table, 10, 1000);
+		try {
+			sut.storeChanges(null, table, rowId, aChange, null, null);
+			assertFalse(store.exists(null, table, rowId));
+			Thread.sleep(100);
+			assertTrue(store.exists(null, table, rowId));
+		} finally {
+			sut.resetAdaptiveRetention();
+		}
+	}
+	
+	@Test(timeout=10000)
+	public void adaptiveRetentionHotRow() throws InterruptedException {
+		WriteRetentionStore sut = sut50Mock;
+		
+		// Several writes are merged within the minimum retention time
+		sut.setAdaptiveRetention(table, 10, 500);
+		try {
+			long end = System.currentTimeMillis() + 1000;
+			while (System.currentTimeMillis() < end) {
+				sut.storeChanges(null, table, rowId, null, null, anIncrement);
+				Thread.sleep(2);
+			}
+			this.waitForPendingRequests();
+		} finally {
+			sut.resetAdaptiveRetention();
+		}
+		
+		// Without adaptation, row would be sent about every 10ms
+		Mockito.verify(mockStore, Mockito.atMost(30)).storeChanges(Mockito.any(MetaInformation.class), Mockito.eq(table), Mockito.eq(rowId), Mockito.any(ColumnFamilyData.class), Mockito.anyMap(), Mockito.anyMap());
+	}
+	
+	@Test(timeout=10000)
+	public void adaptiveRetentionRowWithSpacedWrites() throws InterruptedException {
+		WriteRetentionStore sut = sut50Mock;
+		
+		sut.setAdaptiveRetention(table, 1, 500);
+		try {
+			// Each write is sent before the next one arrives: there is nothing to merge
+			long end = System.currentTimeMillis() + 2000;
+			while (System.currentTimeMillis() < end) {
+				sut.storeChanges(null, table, rowId, null, null, anIncrement);
+				Thread.sleep(20);
+			}
+			this.waitForPendingRequests();
+		} finally {
+			sut.resetAdaptiveRetention();
+		}
+		
+		// Row is sent about 100 times ; it would be sent less than 10 times in case retention grew up to 500ms
+		Mockito.verify(mockStore, Mockito.atLeast(50)).storeChanges(Mockito.any(MetaInformation.class), Mockito.eq(table), Mockito.eq(rowId), Mockito.any(ColumnFamilyData.class), Mockito.anyMap(), Mockito.anyMap());
+	}
+	
+	@Test(timeout=20000)
+	public void concurrentMergesOnSameRow() throws InterruptedException, ExecutionException {
+		final WriteRetentionStore sut = sut50;
+		final int parallelWrites = 16, writesPerThread = 5000;
+
+		Collection<Future<?>> results = new LinkedList<Future<?>>();
+		ExecutorService es = new FixedThreadPool(parallelWrites);
+		long start = System.nanoTime();
+		for (int i = 0; i < parallelWrites; i++) {
+			final int nr = i;
+			results.add(es.submit(new Runnable() {
+
+				@Override
+				public void run() {
+					for (int j = 0; j < writesPerThread; j++) {
+						sut.storeChanges(null, table, rowId, j % 100 == nr ? aChange : null, null, anIncrement);
+					}
+				}
+			}));
+		}
+		es.shutdown();
+
+		//Waiting for results and checking exceptions
+		for (Future<?> f : results) {
+			f.get();
+		}
+		long duration = System.nanoTime() - start;
+		long mergesPerSecond = 1000000000l*parallelWrites*writesPerThread/Math.max(1, duration);
+		System.out.println("Merges per second on a single row " + mergesPerSecond);
+		assertTrue("Only " + mergesPerSecond + " merges per second on a single row", mergesPerSecond >= MIN_MERGES_PER_SECOND);
+
+		this.waitForPendingRequests();
+		Thread.yield();
+		this.waitForPendingRequests();
+
+		assertArrayEquals(changedValue1, store.get(null, table, rowId, changedCf, changedKey));
+		assertEquals(parallelWrites*writesPerThread, ConversionTools.convert(Long.class, store.get(null, table, rowId, incrementedCf, incrementedKey)).longValue());
+	}
+
+	@Test(timeout=30000)
+	public void concurrentMergesAndSendsOnSameRow() throws InterruptedException, ExecutionException {
+		final WriteRetentionStore sut = WriteRetentionStore.getWriteRetentionStore(1, store);
+		sut.start();
+		final int parallelWrites = 8, writesPerThread = 5000;
+		final CountDownLatch writersDone = new CountDownLatch(parallelWrites);
+
+		Collection<Future<?>> results = new LinkedList<Future<?>>();
+		ExecutorService es = new FixedThreadPool(parallelWrites+1);
+		long start = System.nanoTime();
+		for (int i = 0; i < parallelWrites; i++) {
+			results.add(es.submit(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < writesPerThread; j++) {
+							sut.storeChanges(null, table, rowId, null, null, anIncrement);
+						}
+					} finally {
+						writersDone.countDown();
+					}
+				}
+			}));
+		}
+		// Sending the row as often as possible while it is being merged
+		results.add(es.submit(new Callable<Void>() {
+
+			@Override
+			public Void call() throws Exception {
+				while (!writersDone.await(0, TimeUnit.MILLISECONDS)) {
+					sut.flush(table, rowId);
+				}
+				return null;
+			}
+		}));
+		es.shutdown();
+
+		//Waiting for results and checking exceptions
+		for (Future<?> f : results) {
+			f.get();
+		}
+		long duration = System.nanoTime() - start;
+		long mergesPerSecond = 1000000000l*parallelWrites*writesPerThread/Math.max(1, duration);
+		System.out.println("Merges per second on a single row while sent " + mergesPerSecond);
+		// Merges do not wait for sends
+		assertTrue("Only " + mergesPerSecond + " merges per second on a single row while sent", mergesPerSecond >= MIN_MERGES_PER_SECOND);
+
+		this.waitForPendingRequests();
+		Thread.yield();
+		this.waitForPendingRequests();
+
+		assertEquals(parallelWrites*writesPerThread, ConversionTools.convert(Long.class, store.get(null, table, rowId, incrementedCf, incrementedKey)).longValue());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void invalidAdaptiveRetention() {
+		sut50.setAdaptiveRetention(table, 100, 10);
+	}
+	
 	@Test(expected=IllegalArgumentException.class)
 	public void zeroMaxThreadsSetAttempt() {
 		WriteRetentionStore.setMaxSenderThreads(0);
@@ -5,6 +5,7 @@ import static org.junit.Assert.*;
 import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
 
@@ -93,6 +94,96 @@ public class ConversionTest {
 		this.convTest(long.class, Long.class, new Long [] {Long.MIN_VALUE, -5945l, -1l, 0l, 1l, 201l, Long.MAX_VALUE}, true);
 	}
 	
+	@Test
+	public void unboxedLongConv() {
+		for (long l : new long[] {Long.MIN_VALUE, -5945l, -1l, 0l, 1l, 201l, Long.MAX_VALUE}) {
+			byte[] rep = ConversionTools.convertFromLong(l);
+			assertArrayEquals(ConversionTools.convert(l, Long.class), rep);
+			assertEquals(l, ConversionTools.convertToLong(rep));
+		}
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void unboxedLongConvTooLong() {
+		ConversionTools.convertToLong(new byte[9]);
+	}
+	
+	@Test
+	public void codecs() {
+		Object[] values = {"a string", 12, 13l, (short)14, new Date(15), TestEnum.v2, true, 'c', 1.5d, new Keyable1Key("k"), new Persistable("p")};
+		for (Object value : values) {
+			@SuppressWarnings("unchecked")
+			Codec<Object> codec = (Codec<Object>) ConversionTools.getCodec(value.getClass());
+			assertTrue(codec.isPrecompiled());
+			assertSame(codec, ConversionTools.getCodec(value.getClass()));
+			byte[] rep = codec.toBytes(value);
+			assertArrayEquals(ConversionTools.convert(value, value.getClass()), rep);
+			assertEquals(value, codec.fromBytes(rep));
+		}
+		assertArrayEquals(ConversionTools.convert(12, int.class), ConversionTools.getCodec(int.class).toBytes(12));
+		assertEquals(12, ConversionTools.getCodec(int.class).fromBytes(ConversionTools.convert(12)).intValue());
+		assertNull(ConversionTools.getCodec(String.class).toBytes(null));
+		assertNull(ConversionTools.getCodec(String.class).fromBytes(null));
+	}
+	
+	@Test
+	public void compactCodecs() {
+		Object[] values = {0l, -1l, 300l, Long.MIN_VALUE, Long.MAX_VALUE, 0, -65, Integer.MIN_VALUE, Integer.MAX_VALUE, (short)63, (short)-64, (short)64, Short.MIN_VALUE,
+				new Date(), new Date(0), new Date(Long.MAX_VALUE), TestEnum.v1, TestEnum.v4};
+		for (Object value : values) {
+			@SuppressWarnings("unchecked")
+			Codec<Object> compact = (Codec<Object>) ConversionTools.getCodec(value.getClass(), true);
+			assertTrue(compact.isCompact());
+			byte[] legacy = ConversionTools.convert(value, value.getClass());
+			byte[] rep = compact.toBytes(value);
+			assertTrue(rep.length <= legacy.length);
+			assertEquals(value, compact.fromBytes(rep));
+			//Default representation is still readable
+			assertEquals(value, compact.fromBytes(legacy));
+		}
+		assertEquals(1, ConversionTools.getCodec(long.class, true).toBytes(-1l).length);
+		assertEquals(2, ConversionTools.getCodec(long.class, true).toBytes(300l).length);
+		assertEquals(8, ConversionTools.getCodec(long.class, true).toBytes(Long.MAX_VALUE).length);
+		assertEquals(2, ConversionTools.getCodec(short.class, true).toBytes((short)64).length);
+		assertEquals(2, ConversionTools.getCodec(TestEnum.class, true).toBytes(TestEnum.v4).length);
+		assertTrue(ConversionTools.getCodec(Date.class, true).toBytes(new Date(1234567890000l)).length < 8);
+		
+		//No compact representation for strings
+		assertFalse(ConversionTools.getCodec(String.class, true).isCompact());
+	}
+	
+	@Test
+	public void parallelConversions() throws InterruptedException {
+		final Object[] values = {"a string", 12, 13l, (short)14, new Date(15), TestEnum.v2, true, 'c', 1.5d, new int[] {1, 2}};
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 1000; i++) {
+							Object value = values[i % values.length];
+							byte[] rep = ConversionTools.convert(value);
+							Object back = ConversionTools.convert(value.getClass(), rep);
+							if (value instanceof int[])
+								assertArrayEquals((int[])value, (int[])back);
+							else
+								assertEquals(value, back);
+						}
+					} catch (Throwable x) {
+						error.set(x);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertNull(error.get());
+	}
+	
 	@Test
 	public void floatConv() throws IllegalArgumentException, SecurityException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
 		this.convTest(float.class, Float.class, new Float [] {Float.MIN_VALUE, -5945.135848f, -1f, -Float.MIN_NORMAL, 0f,-Float.MIN_NORMAL, 1f, 1.45645e3f, Float.MAX_VALUE}, false);
@@ -168,6 +259,51 @@ public class ConversionTest {
 		this.convTest(null, Keyable2Keys.class, new Keyable2Keys [] {new Keyable2Keys(1, "123"), new Keyable2Keys(1, "123456"), new Keyable2Keys(2, "123"), new Keyable2Keys(10, "123"), new Keyable2Keys(20, "22")}, true);
 	}
 	
+	public static class CompactKeys {
+		@Key(compact=true) public long key1;
+		@Key(order=2, compact=true, reverted=true) public Date key2;
+		@Key(order=3, compact=true) public TestEnum key3;
+
+		public CompactKeys(long key1, Date key2, TestEnum key3) {
+			super();
+			this.key1 = key1;
+			this.key2 = key2;
+			this.key3 = key3;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj != null && (obj instanceof CompactKeys) && this.key1 == ((CompactKeys)obj).key1 && this.key2.equals(((CompactKeys)obj).key2) && this.key3 == ((CompactKeys)obj).key3;
+		}
+	}
+	@Test
+	public void compactKeyConv() throws IllegalArgumentException, SecurityException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		this.convTest(null, CompactKeys.class, new CompactKeys [] {
+				new CompactKeys(-300, new Date(1234567890), TestEnum.v4),
+				new CompactKeys(1, new Date(1234567890), TestEnum.v1),
+				new CompactKeys(1, new Date(1234567890), TestEnum.v2),
+				new CompactKeys(1, new Date(-1), TestEnum.v1),
+				new CompactKeys(Long.MAX_VALUE, new Date(0), TestEnum.v1)}, true);
+		//Compact representation for a long is 11 characters instead of 16, and an enum of 4 constants takes a character
+		assertEquals(11 + 1 + 11 + 1 + 1 + 1, ConversionTools.convertToString(new CompactKeys(1, new Date(), TestEnum.v1)).length());
+	}
+	
+	@Test
+	public void compactStrings() {
+		assertEquals(11, ConversionTools.convertToCompactString(12l, long.class).length());
+		assertEquals(6, ConversionTools.convertToCompactString(12, Integer.class).length());
+		assertEquals(12, ConversionTools.convertFromCompactString(int.class, ConversionTools.convertToCompactString(12, int.class)).intValue());
+		assertEquals(-12l, ConversionTools.convertFromCompactStringReverted(Long.class, ConversionTools.convertToCompactStringReverted(-12l, Long.class)).longValue());
+		assertTrue(ConversionTools.convertToCompactString(-1, int.class).compareTo(ConversionTools.convertToCompactString(0, int.class)) < 0);
+		assertTrue(ConversionTools.convertToCompactStringReverted(-1, int.class).compareTo(ConversionTools.convertToCompactStringReverted(0, int.class)) > 0);
+		assertEquals(TestEnum.v3, ConversionTools.convertFromCompactString(TestEnum.class, ConversionTools.convertToCompactString(TestEnum.v3, TestEnum.class)));
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void compactStringOfString() {
+		ConversionTools.convertToCompactString("not compactable", String.class);
+	}
+	
 	@Persisting
 	public static class Persistable {
 		private static final long serialVersionUID = 5280458165632205912L;
@@ -1,5 +1,7 @@
 package com.googlecode.n_orm.mocked;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -14,6 +16,7 @@ import com.googlecode.n_orm.storeapi.CloseableKeyIterator;
 import com.googlecode.n_orm.storeapi.Constraint;
 import com.googlecode.n_orm.storeapi.MetaInformation;
 import com.googlecode.n_orm.storeapi.Row.ColumnFamilyData;
+import com.googlecode.n_orm.storeapi.RowChanges;
 
 public class MockedStore implements ActionnableStore{
 	public static final MockedStore INSTANCE = new MockedStore();
@@ -82,6 +85,12 @@ public class MockedStore implements ActionnableStore{
 		return mock.get(meta, table, id, families);
 	}
 
+	public Map<String, ColumnFamilyData> get(MetaInformation meta,
+			String table, Collection<String> ids, Set<String> families)
+			throws DatabaseNotReachedException {
+		return mock.get(meta, table, ids, families);
+	}
+
 	public void storeChanges(MetaInformation meta, String table, String id,
 			ColumnFamilyData changed, Map<String, Set<String>> removed,
 			Map<String, Map<String, Number>> increments)
@@ -89,6 +98,11 @@ public class MockedStore implements ActionnableStore{
 		mock.storeChanges(meta, table, id, changed, removed, increments);
 	}
 
+	public void storeChanges(List<RowChanges> changes)
+			throws DatabaseNotReachedException {
+		mock.storeChanges(changes);
+	}
+
 	public long count(MetaInformation meta, String table, Constraint c)
 			throws DatabaseNotReachedException {
 		return mock.count(meta, table, c);
@@ -0,0 +1,82 @@
+package com.googlecode.n_orm.performance;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.googlecode.n_orm.Book;
+import com.googlecode.n_orm.BookStore;
+import com.googlecode.n_orm.PropertyManagement;
+import com.googlecode.n_orm.conversion.Codec;
+import com.googlecode.n_orm.conversion.ConversionTools;
+
+public class CodecPerformanceTest {
+	private static final int ROUNDS = 100000;
+
+	private final List<Class<?>> types = new ArrayList<Class<?>>();
+	private final List<Object> values = new ArrayList<Object>();
+	private final List<byte[]> reps = new ArrayList<byte[]>();
+
+	public CodecPerformanceTest() {
+		BookStore bs = new BookStore("codecbookstore");
+		bs.setName("codec bookstore");
+		Book b = new Book(bs, new Date(1234567890), new Date(1234567891));
+		b.setNumber((short)12);
+
+		PropertyManagement pm = PropertyManagement.getInstance();
+		for (Object elt : new Object[] {bs, b}) {
+			for (Field f : pm.getProperties(elt.getClass())) {
+				Object val = pm.candideReadValue(elt, f);
+				if (val == null)
+					continue;
+				types.add(f.getType());
+				values.add(val);
+				reps.add(ConversionTools.convert(val, f.getType()));
+			}
+		}
+	}
+
+	private long runConversionTools() {
+		long start = System.nanoTime();
+		for (int r = 0; r < ROUNDS; r++) {
+			for (int i = 0; i < types.size(); i++) {
+				byte[] rep = ConversionTools.convert(values.get(i), types.get(i));
+				ConversionTools.convert(types.get(i), rep);
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	private long runCodecs(List<Codec<?>> codecs) {
+		long start = System.nanoTime();
+		for (int r = 0; r < ROUNDS; r++) {
+			for (int i = 0; i < codecs.size(); i++) {
+				Codec<?> codec = codecs.get(i);
+				codec.fromBytes(codec.toBytes(values.get(i)));
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	@Test public void codecsVsConversionTools() {
+		List<Codec<?>> codecs = new ArrayList<Codec<?>>();
+		for (int i = 0; i < types.size(); i++) {
+			Codec<?> codec = ConversionTools.getCodec(types.get(i));
+			codecs.add(codec);
+			assertArrayEquals(reps.get(i), codec.toBytes(values.get(i)));
+			assertArrayEquals(reps.get(i), codec.toBytes(codec.fromBytes(reps.get(i))));
+		}
+
+		//Warm up
+		runConversionTools();
+		runCodecs(codecs);
+
+		long tools = runConversionTools(), compiled = runCodecs(codecs);
+		System.out.println("Book/BookStore properties: " + ROUNDS + " round trips in " + tools/1000000 + "ms with ConversionTools and " + compiled/1000000 + "ms with codecs");
+	}
+}
@@ -0,0 +1,60 @@
+package com.googlecode.n_orm.performance;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.googlecode.n_orm.Book;
+import com.googlecode.n_orm.BookStore;
+import com.googlecode.n_orm.KeyManagement;
+
+public class KeyParsingPerformanceTest {
+	private static final int KEYS = 1000;
+	private static final int ROUNDS = 100;
+
+	private final List<String> bookIds = new ArrayList<String>(KEYS);
+	private final List<String> bookStoreIds = new ArrayList<String>(KEYS);
+
+	public KeyParsingPerformanceTest() {
+		for (int i = 0; i < KEYS; i++) {
+			BookStore bs = new BookStore("keyparsingbookstore" + i);
+			Book b = new Book(bs, new Date(1234567890l + i), new Date(1234567890l - i));
+			bookStoreIds.add(bs.getIdentifier());
+			bookIds.add(b.getFullIdentifier());
+		}
+	}
+
+	private <T> long parse(Class<T> clazz, List<String> ids) {
+		KeyManagement km = KeyManagement.getInstance();
+		long start = System.nanoTime();
+		for (int r = 0; r < ROUNDS; r++) {
+			// Parsing is the same whether elements are known or not ; avoiding to measure element creation
+			km.cleanupKnownPersistingElements();
+			for (String id : ids) {
+				km.createElement(clazz, id);
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	@Test public void parseIdentifiers() {
+		KeyManagement km = KeyManagement.getInstance();
+		km.cleanupKnownPersistingElements();
+		Book b = km.createElement(Book.class, bookIds.get(42));
+		assertEquals(bookIds.get(42), b.getFullIdentifier());
+		assertEquals(new Date(1234567890l + 42), b.getSellerDate());
+		assertEquals(bookStoreIds.get(42), b.getBookStore().getIdentifier());
+
+		//Warm up
+		parse(Book.class, bookIds);
+		parse(BookStore.class, bookStoreIds);
+
+		long books = parse(Book.class, bookIds), bookStores = parse(BookStore.class, bookStoreIds);
+		System.out.println("Key parsing: " + (long)KEYS * ROUNDS * 1000000000l / Math.max(1, books) + " Book identifiers/s (composite keys) and "
+				+ (long)KEYS * ROUNDS * 1000000000l / Math.max(1, bookStores) + " BookStore identifiers/s (simple keys)");
+	}
+}
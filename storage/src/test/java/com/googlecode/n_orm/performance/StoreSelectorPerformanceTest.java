@@ -0,0 +1,70 @@
+package com.googlecode.n_orm.performance;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.googlecode.n_orm.BookStore;
+import com.googlecode.n_orm.StoreSelector;
+import com.googlecode.n_orm.StoreTestLauncher;
+import com.googlecode.n_orm.storeapi.Store;
+
+public class StoreSelectorPerformanceTest {
+	private static final int LOOKUPS_PER_THREAD = 200000;
+
+	public StoreSelectorPerformanceTest() {
+		Map<String, Object> props = StoreTestLauncher.INSTANCE.prepare(this.getClass());
+		StoreSelector.getInstance().setPropertiesFor(BookStore.class, props);
+	}
+
+	private long lookups(int threads, final Store expected) throws Exception {
+		ExecutorService exec = Executors.newFixedThreadPool(threads);
+		final CountDownLatch start = new CountDownLatch(1);
+		try {
+			Collection<Future<Integer>> results = new ArrayList<Future<Integer>>(threads);
+			for (int i = 0; i < threads; i++) {
+				results.add(exec.submit(new Callable<Integer>() {
+
+					@Override
+					public Integer call() throws Exception {
+						start.await();
+						int different = 0;
+						for (int j = 0; j < LOOKUPS_PER_THREAD; j++) {
+							if (StoreSelector.getInstance().getStoreFor(BookStore.class) != expected)
+								different++;
+						}
+						return different;
+					}
+				}));
+			}
+			long startTime = System.nanoTime();
+			start.countDown();
+			for (Future<Integer> f : results) {
+				assertEquals(0, f.get().intValue());
+			}
+			long duration = Math.max(1, System.nanoTime() - startTime);
+			return (long)threads * LOOKUPS_PER_THREAD * 1000000000l / duration;
+		} finally {
+			exec.shutdown();
+		}
+	}
+
+	@Test public void getStoreForScales() throws Exception {
+		Store expected = StoreSelector.getInstance().getStoreFor(BookStore.class);
+		assertNotNull(expected);
+		//Warm up
+		lookups(4, expected);
+		for (int threads = 1; threads <= 64; threads *= 2) {
+			System.out.println("StoreSelector.getStoreFor with " + threads + " threads: " + lookups(threads, expected) + " lookups/s");
+		}
+	}
+}
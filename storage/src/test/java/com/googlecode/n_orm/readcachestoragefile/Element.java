@@ -0,0 +1,10 @@
+package com.googlecode.n_orm.readcachestoragefile;
+
+import com.googlecode.n_orm.Key;
+import com.googlecode.n_orm.Persisting;
+
+@Persisting
+public class Element {
+	private static final long serialVersionUID = 5016312384402474498L;
+	@Key public byte key = '\0';
+}